@@ -0,0 +1,41 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Temporary folders for the benchmarks
+ */
+final class BenchmarkFiles {
+    private BenchmarkFiles() {
+    }
+
+    /**
+     * @return new temporary folder
+     * @throws IOException if the folder cannot be created
+     */
+    static File createFolder() throws IOException {
+        return Files.createTempDirectory("pdi-bench").toFile();
+    }
+
+    /**
+     * deletes a folder with its content
+     *
+     * @param folder folder to be deleted
+     * @throws IOException if the folder cannot be deleted
+     */
+    static void deleteFolder(File folder) throws IOException {
+        try (Stream<Path> paths = Files.walk(folder.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a PdiDaemon.logRotate call for a log below the size limit, the case of almost every tick
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PdiDaemonBenchmark {
+    private File folder;
+
+    private PdiDaemon daemon;
+
+    private String commandLog;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.folder = BenchmarkFiles.createFolder();
+        this.daemon = new PdiDaemon(new String[]{"-l", this.folder.getPath()});
+        this.daemon.setLogWriter(new PdiLogWriter(this.daemon.getDaemonLogFile()));
+        this.commandLog = new File(this.folder, PdiDaemon.COMMAND_LOG_NAME).getPath();
+        try (FileWriter writer = new FileWriter(this.commandLog)) {
+            writer.write("command output\n");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.daemon.getLogWriter().close();
+        BenchmarkFiles.deleteFolder(this.folder);
+    }
+
+    @Benchmark
+    public void logRotate() {
+        this.daemon.logRotate(this.commandLog);
+    }
+}
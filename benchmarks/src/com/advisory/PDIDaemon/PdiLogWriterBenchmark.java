@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of PdiLogWriter.writeLog in synchronous and async mode
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PdiLogWriterBenchmark {
+    /**
+     * capacity of the ring buffer, 0 for synchronous writes
+     */
+    @Param({"0", "65536"})
+    public int queueSize;
+
+    private File folder;
+
+    private PdiLogWriter logWriter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.folder = BenchmarkFiles.createFolder();
+        this.logWriter = new PdiLogWriter(new File(this.folder, PdiDaemon.DAEMON_LOG_NAME).getPath());
+        if (this.queueSize > 0) {
+            this.logWriter.enableAsync(this.queueSize, PdiLogBuffer.OVERFLOW_BLOCK);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.logWriter.close();
+        BenchmarkFiles.deleteFolder(this.folder);
+    }
+
+    @Benchmark
+    public void writeLog() {
+        this.logWriter.writeLog("Started running a process with PID #12345\n");
+    }
+}
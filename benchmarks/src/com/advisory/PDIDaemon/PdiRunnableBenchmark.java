@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the liveness check PdiRunnable makes while the tracked process is running,
+ * Process.isAlive for a spawned run and ProcessHandle.isAlive for an adopted run,
+ * isProcessExists itself is not measured as it also formats and logs a message on every call
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PdiRunnableBenchmark {
+    private File folder;
+
+    private PdiLogWriter logWriter;
+
+    private PdiRunnable runnable;
+
+    private ProcessHandle handle;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.folder = BenchmarkFiles.createFolder();
+        this.logWriter = new PdiLogWriter(new File(this.folder, PdiDaemon.DAEMON_LOG_NAME).getPath());
+        this.runnable = new PdiRunnable("sleep 3600", new File(this.folder, PdiDaemon.COMMAND_LOG_NAME).getPath());
+        this.runnable.setLogWriter(this.logWriter);
+        this.runnable.setWorkingDirectory(this.folder.getPath());
+        this.runnable.run();
+        this.handle = ProcessHandle.of(this.runnable.getProcess().pid()).orElseThrow(IllegalStateException::new);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        this.runnable.getProcess().destroyForcibly().waitFor();
+        this.logWriter.close();
+        BenchmarkFiles.deleteFolder(this.folder);
+    }
+
+    @Benchmark
+    public boolean processIsAlive() {
+        return this.runnable.getProcess().isAlive();
+    }
+
+    @Benchmark
+    public boolean adoptedIsAlive() {
+        return this.handle.isAlive();
+    }
+}
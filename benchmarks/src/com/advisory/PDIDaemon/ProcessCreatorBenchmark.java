@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spawn latency of ProcessCreator.execute for a trivial command, measured until the process has exited
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessCreatorBenchmark {
+    /**
+     * true to pipe the output to the daemon instead of redirecting it to the log file
+     */
+    @Param({"false", "true"})
+    public boolean capture;
+
+    private File folder;
+
+    private String commandLog;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.folder = BenchmarkFiles.createFolder();
+        this.commandLog = new File(this.folder, PdiDaemon.COMMAND_LOG_NAME).getPath();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFiles.deleteFolder(this.folder);
+    }
+
+    @Benchmark
+    public int execute() throws InterruptedException {
+        ProcessCreator pc = new ProcessCreator("/bin/true", this.commandLog);
+        pc.setCapture(this.capture);
+        pc.setWorkingDirectory(this.folder.getPath());
+        pc.execute();
+        return pc.getProcess().waitFor();
+    }
+}
@@ -0,0 +1,23 @@
+#!/bin/sh
+#
+# Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+# This file is part of the Crimson Care Management platform.
+#
+# Stub worker for the daemon worker mode, reads one request per line
+#
+#   RUN <run id> <command>
+#
+# runs the command and answers with a line feed and
+#
+#   DONE <run id> <exit code>
+#
+# the line feed is not part of the output, it puts the answer on a line of its own
+# when the output of the command does not end with a line feed
+#
+# a real worker keeps the Kettle JVM loaded and runs the job inside it
+while read -r verb id cmd; do
+    [ "$verb" = "RUN" ] || continue
+    sh -c "$cmd" </dev/null 2>&1
+    code=$?
+    printf '\nDONE %s %s\n' "$id" "$code"
+done
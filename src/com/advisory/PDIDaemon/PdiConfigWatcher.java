@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the job config file and applies changes while the daemon is running
+ * new jobs are started, removed jobs are stopped and changed jobs get a new supervisor,
+ * the daemon log settings, log format included, and the concurrency are applied as well,
+ * runs in flight are always left to complete, a config file that cannot be loaded is
+ * logged and the jobs keep running as they are
+ */
+public class PdiConfigWatcher {
+    /**
+     * log message for a reloaded config file
+     */
+    public static final String MESSAGE_RELOADED = "Reloaded job config %s, %d jobs added, %d changed, %d removed\n";
+
+    /**
+     * log message for a config file that cannot be loaded
+     */
+    public static final String MESSAGE_INVALID = "Ignoring changed job config %s: %s\n";
+
+    /**
+     * time in milli seconds the file has to stay unchanged before it is reloaded,
+     * editors write a file in several steps
+     */
+    private static final long SETTLE_TIME = 500;
+
+    /**
+     * daemon holding the command line values
+     */
+    private final PdiDaemon daemon;
+
+    /**
+     * scheduler the changes are applied to
+     */
+    private final PdiScheduler scheduler;
+
+    /**
+     * config file watched
+     */
+    private final Path file;
+
+    /**
+     * config currently applied
+     */
+    private PdiJobConfig config;
+
+    /**
+     * watch service of the folder of the config file
+     */
+    private WatchService watchService;
+
+    /**
+     * Constructor
+     *
+     * @param daemon    daemon holding the command line values
+     * @param scheduler scheduler the changes are applied to
+     * @param config    config currently applied
+     */
+    public PdiConfigWatcher(PdiDaemon daemon, PdiScheduler scheduler, PdiJobConfig config) {
+        this.daemon = daemon;
+        this.scheduler = scheduler;
+        this.config = config;
+        this.file = Paths.get(config.getFileName()).toAbsolutePath();
+    }
+
+    /**
+     * starts watching the config file on a background thread
+     *
+     * @throws IOException if the folder of the config file cannot be watched
+     */
+    public void start() throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        // the folder is watched as editors and deployments often replace the file
+        this.file.getParent().register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread thread = new Thread(this::watch, "pdi-config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * stops watching the config file
+     */
+    public void stop() {
+        try {
+            if (this.watchService != null) {
+                this.watchService.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * waits for changes of the config file and reloads it once it has settled
+     */
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = this.watchService.take();
+                boolean changed = this.isConfigEvent(key);
+                // collect the further events of the same write
+                while ((key = this.watchService.poll(SETTLE_TIME, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= this.isConfigEvent(key);
+                }
+                if (changed) {
+                    this.reload();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+
+    /**
+     * @param key key with pending events of the folder
+     * @return true if one of the events is about the config file
+     */
+    private boolean isConfigEvent(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.context() instanceof Path && this.file.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * loads the config file and applies the differences to the running jobs
+     */
+    protected synchronized void reload() {
+        PdiJobConfig config = new PdiJobConfig(this.config.getFileName());
+        try {
+            config.load(this.daemon);
+        } catch (IOException | RuntimeException e) {
+            String log = String.format(MESSAGE_INVALID, config.getFileName(), e);
+            this.daemon.getLogWriter().writeLog(log);
+            return;
+        }
+
+        int added = 0;
+        int changed = 0;
+        int removed = 0;
+        for (String name : this.scheduler.getJobNames()) {
+            if (config.getJobOptions(name) == null) {
+                this.scheduler.unschedule(name);
+                removed++;
+            }
+        }
+        this.daemon.setLogLimit(config.getLogLimit());
+        this.daemon.getLogWriter().setMaxBytes(config.getLogLimit());
+        this.daemon.getLogWriter().setRolloverInterval(config.getLogRollover().toMillis());
+        this.daemon.getLogWriter().setFormat(config.getLogFormat());
+        this.scheduler.setConcurrency(config.getConcurrency());
+        for (PdiJob job : config.getJobs()) {
+            Properties previous = this.config.getJobOptions(job.getName());
+            if (previous == null) {
+                this.scheduler.schedule(job);
+                added++;
+            } else if (!Objects.equals(previous, config.getJobOptions(job.getName()))) {
+                this.scheduler.reschedule(job);
+                changed++;
+            }
+        }
+        this.config = config;
+        String log = String.format(MESSAGE_RELOADED, config.getFileName(), added, changed, removed);
+        this.daemon.getLogWriter().writeLog(log);
+    }
+}
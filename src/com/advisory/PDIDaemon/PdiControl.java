@@ -0,0 +1,320 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Control channel of a running daemon on a Unix domain socket in the log folder
+ * a client sends one command line and reads the reply until the daemon closes the connection,
+ * every connection is handled on a thread of its own, so a client that sends nothing only holds up itself,
+ * and commands only take the lock of the job they address
+ *
+ * trigger &lt;job&gt;       - spawn the job right away, a run in flight is handled by the overlap policy
+ * pause &lt;job|all&gt;     - stop spawning the job, due spawns are skipped and the schedule keeps advancing
+ * resume &lt;job|all&gt;    - spawn the job on its schedule again
+ * kill &lt;job&gt;          - terminate the process trees of the runs in flight, SIGKILL after the kill grace
+ * status              - state of every job as JSON
+ *
+ * the socket is only accessible by the user running the daemon, it is bound in a directory only the user
+ * can enter and moved into place once its permissions are set
+ *
+ * java -cp pdi-daemon.jar com.advisory.PDIDaemon.PdiControl &lt;socket&gt; &lt;command&gt; [job]
+ */
+public class PdiControl {
+    /**
+     * file name of the socket in the log folder
+     */
+    public static final String SOCKET_NAME = "pdi_control.sock";
+
+    /**
+     * log message for a started control channel
+     */
+    public static final String MESSAGE_LISTENING = "Listening for control commands on %s\n";
+
+    /**
+     * log message for a control command
+     */
+    public static final String MESSAGE_COMMAND = "Control command %s\n";
+
+    /**
+     * max length in bytes of a command line
+     */
+    private static final int COMMAND_SIZE = 1024;
+
+    /**
+     * daemon holding the log writer
+     */
+    private final PdiDaemon daemon;
+
+    /**
+     * scheduler the commands are applied to
+     */
+    private final PdiScheduler scheduler;
+
+    /**
+     * path of the socket
+     */
+    private final Path socket;
+
+    /**
+     * channel accepting the clients, null until started
+     */
+    private volatile ServerSocketChannel server;
+
+    /**
+     * Constructor
+     *
+     * @param daemon    daemon holding the log writer
+     * @param scheduler scheduler the commands are applied to
+     * @param socket    path of the socket
+     */
+    public PdiControl(PdiDaemon daemon, PdiScheduler scheduler, Path socket) {
+        this.daemon = daemon;
+        this.scheduler = scheduler;
+        this.socket = socket;
+    }
+
+    /**
+     * binds the socket and accepts commands on a background thread,
+     * a socket file left by a daemon that did not shut down is replaced
+     *
+     * @throws IOException if the socket cannot be bound
+     */
+    public void start() throws IOException {
+        Files.deleteIfExists(this.socket);
+        Path parent = this.socket.toAbsolutePath().getParent();
+        Path folder = Files.createTempDirectory(parent, ".pdi_control",
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        Path bound = folder.resolve(this.socket.getFileName());
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            server.bind(UnixDomainSocketAddress.of(bound));
+            Files.setPosixFilePermissions(bound, PosixFilePermissions.fromString("rw-------"));
+            // clients connect by path, the renamed socket is still the bound one
+            Files.move(bound, this.socket, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            server.close();
+            Files.deleteIfExists(bound);
+            throw e;
+        } finally {
+            Files.deleteIfExists(folder);
+        }
+        this.server = server;
+        this.daemon.getLogWriter().writeLog(String.format(MESSAGE_LISTENING, this.socket));
+        Thread thread = new Thread(this::accept, "pdi-control");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * closes the socket and removes the socket file
+     */
+    public void stop() {
+        try {
+            if (this.server != null) {
+                this.server.close();
+                Files.deleteIfExists(this.socket);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * accepts clients until the socket is closed and hands every connection to a thread of its own
+     */
+    private void accept() {
+        while (true) {
+            try {
+                SocketChannel client = this.server.accept();
+                Thread thread = new Thread(() -> this.serve(client), "pdi-control-client");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (AsynchronousCloseException e) {
+                return;
+            } catch (IOException e) {
+                if (!this.server.isOpen()) {
+                    return;
+                }
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * reads one command from a client, runs it and writes the reply
+     *
+     * @param client client connection, closed when done
+     */
+    private void serve(SocketChannel client) {
+        try (SocketChannel connection = client) {
+            String command = readLine(connection);
+            String reply = command == null ? "ERROR empty command\n" : this.execute(command.trim());
+            ByteBuffer out = ByteBuffer.wrap(reply.getBytes(StandardCharsets.UTF_8));
+            while (out.hasRemaining()) {
+                connection.write(out);
+            }
+        } catch (IOException e) {
+            // a client that went away does not stop the control channel
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * runs a command
+     *
+     * @param command command line
+     * @return reply to the client
+     */
+    protected String execute(String command) {
+        this.daemon.getLogWriter().writeLog(String.format(MESSAGE_COMMAND, command));
+        String[] words = command.split("\\s+");
+        String name = words.length > 1 ? words[1] : null;
+        switch (words[0]) {
+            case "status":
+                return this.status();
+            case "trigger":
+            case "kill":
+                if (name == null) {
+                    return "ERROR " + words[0] + " needs a job\n";
+                }
+                PdiJobSupervisor supervisor = this.scheduler.getSupervisor(name);
+                if (supervisor == null) {
+                    return "ERROR unknown job " + name + "\n";
+                }
+                if ("trigger".equals(words[0])) {
+                    return "OK " + supervisor.trigger() + "\n";
+                }
+                return "OK terminating " + supervisor.kill() + " runs\n";
+            case "pause":
+            case "resume":
+                if (name == null) {
+                    return "ERROR " + words[0] + " needs a job or all\n";
+                }
+                List<PdiJobSupervisor> supervisors = new ArrayList<>();
+                if ("all".equals(name)) {
+                    supervisors.addAll(this.scheduler.getSupervisors());
+                } else if (this.scheduler.getSupervisor(name) != null) {
+                    supervisors.add(this.scheduler.getSupervisor(name));
+                } else {
+                    return "ERROR unknown job " + name + "\n";
+                }
+                for (PdiJobSupervisor paused : supervisors) {
+                    paused.setPaused("pause".equals(words[0]));
+                }
+                return "OK " + words[0] + "d " + supervisors.size() + " jobs\n";
+            default:
+                return "ERROR unknown command " + words[0] + "\n";
+        }
+    }
+
+    /**
+     * @return state of the daemon and of every job as JSON
+     */
+    private String status() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"pid\":").append(ProcessHandle.current().pid()).append(",\"jobs\":[");
+        boolean first = true;
+        for (PdiJobSupervisor supervisor : this.scheduler.getSupervisors()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            supervisor.appendStatus(json);
+        }
+        return json.append("]}\n").toString();
+    }
+
+    /**
+     * reads a command line
+     *
+     * @param client client connection
+     * @return command line without the line end, null if the client sent nothing
+     * @throws IOException if the connection cannot be read
+     */
+    private static String readLine(SocketChannel client) throws IOException {
+        ByteBuffer in = ByteBuffer.allocate(COMMAND_SIZE);
+        while (in.hasRemaining() && client.read(in) > 0) {
+            if (in.get(in.position() - 1) == '\n') {
+                break;
+            }
+        }
+        if (in.position() == 0) {
+            return null;
+        }
+        return new String(in.array(), 0, in.position(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * appends a string as a JSON string
+     *
+     * @param json  JSON being written
+     * @param value string to be appended
+     */
+    protected static void quote(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * sends a command to a running daemon and prints the reply
+     *
+     * @param args socket, command and job
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: PdiControl <socket> trigger|pause|resume|kill|status [job|all]");
+            System.exit(1);
+        }
+        String command = String.join(" ", Arrays.copyOfRange(args, 1, args.length)) + "\n";
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(new File(args[0]).toPath()))) {
+            ByteBuffer out = ByteBuffer.wrap(command.getBytes(StandardCharsets.UTF_8));
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+            StringBuilder reply = new StringBuilder();
+            while (channel.read(in) >= 0) {
+                in.flip();
+                reply.append(StandardCharsets.UTF_8.decode(in));
+                in.clear();
+            }
+            System.out.print(reply);
+            if (reply.toString().startsWith("ERROR")) {
+                System.exit(1);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
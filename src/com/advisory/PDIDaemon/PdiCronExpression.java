@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+
+/**
+ * Five field cron expression (minute hour day-of-month month day-of-week)
+ * every field accepts *, single values, ranges a-b, steps *&#47;n or a-b/n and comma separated lists,
+ * day-of-week runs from 0 (sunday) to 7 (sunday again)
+ * as in cron a day matches when either day field matches if both of them are restricted
+ */
+public class PdiCronExpression {
+    /**
+     * number of years searched for a matching time before giving up
+     */
+    private static final int MAX_YEARS = 5;
+
+    /**
+     * expression as given
+     */
+    private final String expression;
+
+    /**
+     * allowed minutes 0-59
+     */
+    private final BitSet minutes;
+
+    /**
+     * allowed hours 0-23
+     */
+    private final BitSet hours;
+
+    /**
+     * allowed days of month 1-31
+     */
+    private final BitSet daysOfMonth;
+
+    /**
+     * allowed months 1-12
+     */
+    private final BitSet months;
+
+    /**
+     * allowed days of week 0-6, sunday is 0
+     */
+    private final BitSet daysOfWeek;
+
+    /**
+     * true if the day of month field is restricted
+     */
+    private final boolean dayOfMonthRestricted;
+
+    /**
+     * true if the day of week field is restricted
+     */
+    private final boolean dayOfWeekRestricted;
+
+    /**
+     * Constructor parses the expression
+     *
+     * @param expression cron expression
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public PdiCronExpression(String expression) {
+        String[] fields = expression.trim().split("\\s+");
+        if (fields.length != 5) {
+            throw new IllegalArgumentException("Cron expression needs 5 fields: " + expression);
+        }
+        this.expression = expression;
+        this.minutes = parseField(fields[0], 0, 59);
+        this.hours = parseField(fields[1], 0, 23);
+        this.daysOfMonth = parseField(fields[2], 1, 31);
+        this.months = parseField(fields[3], 1, 12);
+        BitSet daysOfWeek = parseField(fields[4], 0, 7);
+        if (daysOfWeek.get(7)) {
+            daysOfWeek.set(0);
+            daysOfWeek.clear(7);
+        }
+        this.daysOfWeek = daysOfWeek;
+        this.dayOfMonthRestricted = !fields[2].startsWith("*");
+        this.dayOfWeekRestricted = !fields[4].startsWith("*");
+    }
+
+    /**
+     * computes the first matching time strictly after the given time
+     *
+     * @param after time to start searching from
+     * @return next matching time
+     * @throws IllegalStateException if no time matches within the next years
+     */
+    public ZonedDateTime next(ZonedDateTime after) {
+        ZonedDateTime time = after.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+        ZonedDateTime limit = after.plusYears(MAX_YEARS);
+        while (time.isBefore(limit)) {
+            if (!this.months.get(time.getMonthValue())) {
+                time = time.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS).plusMonths(1);
+            } else if (!this.matchesDay(time)) {
+                time = time.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+            } else if (!this.hours.get(time.getHour())) {
+                time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+            } else if (!this.minutes.get(time.getMinute())) {
+                time = time.plusMinutes(1);
+            } else {
+                return time;
+            }
+        }
+        throw new IllegalStateException("Cron expression never matches: " + this.expression);
+    }
+
+    /**
+     * @param time time to check
+     * @return true if the day of the time matches the day fields
+     */
+    private boolean matchesDay(ZonedDateTime time) {
+        boolean dayOfMonth = this.daysOfMonth.get(time.getDayOfMonth());
+        boolean dayOfWeek = this.daysOfWeek.get(time.getDayOfWeek().getValue() % 7);
+        if (this.dayOfMonthRestricted && this.dayOfWeekRestricted) {
+            return dayOfMonth || dayOfWeek;
+        }
+        return dayOfMonth && dayOfWeek;
+    }
+
+    /**
+     * parses a single field of the expression
+     *
+     * @param field field to be parsed
+     * @param min   lowest allowed value
+     * @param max   highest allowed value
+     * @return allowed values
+     */
+    private static BitSet parseField(String field, int min, int max) {
+        BitSet values = new BitSet(max + 1);
+        for (String part : field.split(",")) {
+            int step = 1;
+            int slash = part.indexOf('/');
+            if (slash >= 0) {
+                step = Integer.parseInt(part.substring(slash + 1));
+                part = part.substring(0, slash);
+            }
+            int from;
+            int to;
+            if (part.equals("*")) {
+                from = min;
+                to = max;
+            } else {
+                int dash = part.indexOf('-');
+                if (dash >= 0) {
+                    from = Integer.parseInt(part.substring(0, dash));
+                    to = Integer.parseInt(part.substring(dash + 1));
+                } else {
+                    from = Integer.parseInt(part);
+                    to = slash >= 0 ? max : from;
+                }
+            }
+            if (from < min || to > max || from > to || step < 1) {
+                throw new IllegalArgumentException("Invalid cron field " + field);
+            }
+            for (int value = from; value <= to; value += step) {
+                values.set(value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return expression as given
+     */
+    @Override
+    public String toString() {
+        return this.expression;
+    }
+}
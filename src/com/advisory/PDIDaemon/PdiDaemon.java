@@ -6,7 +6,12 @@
 package com.advisory.PDIDaemon;
 
 import java.io.*;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 
@@ -49,12 +54,12 @@ public class PdiDaemon {
     public static final String COMMAND_DEFAULT = "/opt/di/kitchen.sh -file=/opt/pdi/MirthWarehouse/etl/mirth_archiving/mirth_general_archiving.kjb";
 
     /**
-     * default size factor k - KB, m-MB, g-GB
+     * default size factor k - KB, m-MB, g-GB, t-TB
      */
     public static final String SIZE_FACTOR_DEFAULT = "m";
 
     /**
-     * default time factor s-seconds, m-minutes, h-hours, d-days
+     * default time factor ms-milli seconds, s-seconds, m-minutes, h-hours, d-days
      */
     public static final String TIME_FACTOR_DEFAULT = "m";
 
@@ -73,16 +78,6 @@ public class PdiDaemon {
      */
     public static final String MESSAGE_COMPRESS = "\nCompressing file %s to %s in folder %s\n\n";
 
-    /**
-     * log Message for spawn wait time
-     */
-    public static final String MESSAGE_SPAWN_WAIT = "Waiting %d %s to spawn\n\n";
-
-    /**
-     * log message for message wait
-     */
-    public static final String MESSAGE_WAIT_FOR_PROCESS = "Waiting %d %s to complete previous process\n\n";
-
     /**
      * holds command to be executed
      */
@@ -96,27 +91,37 @@ public class PdiDaemon {
     /**
      * stores the spawn time to wait for process to respawn
      */
-    private int spawnTime;
+    private Duration spawnTime;
 
     /**
      * stores waitTime to wait for process to complete
      */
-    private int waitTime;
+    private Duration waitTime;
 
     /**
      * time factor to be multiplied with time to milliseconds
      */
-    private int timeFactor;
+    private long timeFactor;
+
+    /**
+     * time factor as given on the command line
+     */
+    private String timeFactorKey;
 
     /**
      * size factor to be multiplied with size to bytes
      */
-    private int sizeFactor;
+    private long sizeFactor;
+
+    /**
+     * max log limit size in bytes
+     */
+    private volatile long logLimit;
 
     /**
-     * max log limit size
+     * log limit size in bytes given on the command line, the default when the job config has none
      */
-    private int logLimit;
+    private long commandLineLogLimit;
 
     /**
      * time unit in words
@@ -133,68 +138,329 @@ public class PdiDaemon {
      */
     private PdiLogWriter logWriter;
 
+    /**
+     * metrics of the supervised jobs
+     */
+    private PdiMetrics metrics;
+
+    /**
+     * max number of retries after a failed run, 0 to disable retries
+     */
+    private int retryAttempts;
+
+    /**
+     * command starting a long lived worker that runs the job command, null to spawn the command
+     */
+    private String worker;
+
+    /**
+     * max run time after which a run is terminated, zero for no limit
+     */
+    private Duration timeout = Duration.ZERO;
+
+    /**
+     * overlap policy of the jobs forbid, skip, queue or allow
+     */
+    private String overlap;
+
+    /**
+     * max number of runs of a job in flight at the same time under the allow policy
+     */
+    private int instances = 1;
+
+    /**
+     * journal of completed runs, null if it could not be opened
+     */
+    private PdiRunJournal journal;
+
+    /**
+     * state of the runs in flight, read by the next daemon to adopt them
+     */
+    private PdiStateFile state;
+
+    /**
+     * port of the local metrics endpoint, 0 to disable it
+     */
+    private int metricsPort;
+
+    /**
+     * archiver compressing and deleting rotated logs
+     */
+    private PdiLogArchiver archiver;
+
+    /**
+     * gzip level of rotated logs, 0 to keep them uncompressed
+     */
+    private int compressionLevel;
+
+    /**
+     * max number of rotated logs kept per log, 0 for no limit
+     */
+    private int retainCount;
+
+    /**
+     * max age of rotated logs, zero for no limit
+     */
+    private Duration retainAge = Duration.ZERO;
+
+    /**
+     * max total size in bytes of rotated logs per log, 0 for no limit
+     */
+    private long retainSize;
+
+    /**
+     * job config file, null when a single job is given on the command line
+     */
+    private String jobsFile;
+
+    /**
+     * max number of jobs running at the same time
+     */
+    private int concurrency;
+
+    /**
+     * thread mode of the runs platform or virtual
+     */
+    private String threads;
+
+    /**
+     * path of the control socket, null for the socket in the log folder, empty for no control socket
+     */
+    private String controlSocket;
+
+    /**
+     * format of the daemon log text or json
+     */
+    private String logFormat;
+
+    /**
+     * interval the daemon log is rolled over at, zero to roll it over by size only
+     */
+    private Duration logRollover = Duration.ZERO;
+
+    /**
+     * schedule mode rate, delay, cron or adaptive
+     */
+    private String scheduleMode;
+
+    /**
+     * how command output is written file, pipe or prefix
+     */
+    private String outputMode;
+
+    /**
+     * capacity of the daemon log ring buffer, 0 to write the log synchronously
+     */
+    private int logQueueSize;
+
+    /**
+     * overflow policy of the daemon log ring buffer
+     */
+    private String logOverflow;
+
+    /**
+     * cron expression for cron schedules
+     */
+    private String cron;
+
+    /**
+     * missed fire policy skip, once or catchup
+     */
+    private String misfire;
+
     /**
      * Constructor for the daemon process
      *
      * @param args - arguments to pass for the tool
      */
     public PdiDaemon(String[] args) {
-        initDefaults();
+        initDefaults(args);
         checkArguments(args);
+        this.commandLineLogLimit = this.getLogLimit();
     }
 
     /**
      * Main stub Runs the daemon process
-     * new process is respawned in regular intervals
-     * spawning takes place only when the previous process is completed
+     * every job is respawned in regular intervals by the scheduler
+     * spawning takes place only when the previous process of the job is completed
      * If previous process is still running it waits until the process is completed
      *
      * @param args - command line args
      */
     public static void main(String args[]) {
         PdiDaemon pdi = new PdiDaemon(args);
-        PdiLogWriter logWriter = new PdiLogWriter(pdi.getLogFolder() + File.separator + DAEMON_LOG_NAME);
+        PdiLogWriter logWriter = new PdiLogWriter(pdi.getDaemonLogFile());
         pdi.setLogWriter(logWriter);
-        int spawnTime = pdi.getSpawnTime();
-        int waitTime = pdi.getWaitTime();
-        String command = pdi.getCommand();
-        String fileName = pdi.getLogFolder() + File.separator + COMMAND_LOG_NAME;
-        PdiRunnable run = null;
-        run = new PdiRunnable(command, fileName);
-        run.setLogWriter(logWriter);
+        logWriter.setMaxBytes(pdi.getLogLimit());
+        logWriter.setRolloverInterval(pdi.getLogRollover().toMillis());
         try {
+            logWriter.setFormat(pdi.getLogFormat());
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        if (pdi.getLogQueueSize() > 0) {
+            try {
+                logWriter.enableAsync(pdi.getLogQueueSize(), pdi.getLogOverflow());
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+        PdiMetrics metrics = new PdiMetrics();
+        pdi.setMetrics(metrics);
+        PdiLogArchiver archiver = new PdiLogArchiver(logWriter);
+        pdi.setArchiver(archiver);
+        logWriter.setMetrics(metrics);
+        logWriter.setArchiver(archiver);
+        List<PdiJob> jobs = Collections.emptyList();
+        PdiJobConfig config = null;
+        int concurrency = pdi.getConcurrency();
+        String threads = pdi.getThreads();
+        String controlSocket = pdi.getControlSocket();
+        try {
+            archiver.setCompressionLevel(pdi.getCompressionLevel());
+            archiver.setMaxCount(pdi.getRetainCount());
+            archiver.setMaxAge(pdi.getRetainAge().toMillis());
+            archiver.setMaxBytes(pdi.getRetainSize());
+            pdi.setState(new PdiStateFile(new File(pdi.getLogFolder(), PdiStateFile.STATE_NAME)));
+            pdi.setJournal(new PdiRunJournal(new File(pdi.getLogFolder(), PdiRunJournal.JOURNAL_NAME), false));
+            if (pdi.getMetricsPort() > 0) {
+                InetSocketAddress address = metrics.start(pdi.getMetricsPort());
+                String log = String.format(PdiMetrics.MESSAGE_ENDPOINT, address.getHostString(), address.getPort(),
+                        PdiMetrics.METRICS_PATH);
+                logWriter.writeLog(log);
+            }
+            if (pdi.getJobsFile() != null) {
+                config = new PdiJobConfig(pdi.getJobsFile());
+                config.load(pdi);
+                jobs = config.getJobs();
+                concurrency = config.getConcurrency();
+                threads = config.getThreads();
+                controlSocket = config.getControlSocket();
+                logWriter.setFormat(config.getLogFormat());
+                pdi.setLogLimit(config.getLogLimit());
+                logWriter.setMaxBytes(config.getLogLimit());
+                logWriter.setRolloverInterval(config.getLogRollover().toMillis());
+            } else {
+                PdiJob job = pdi.createDefaultJob();
+                job.createSchedule();
+                job.createRetryPolicy();
+                job.checkOverlap();
+                jobs = Collections.singletonList(job);
+            }
+            PdiScheduler.checkThreads(threads);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
 
-            do {
-                pdi.logRotate(pdi.getLogFolder() + File.separator + DAEMON_LOG_NAME);
-                pdi.logRotate(pdi.getLogFolder() + File.separator + COMMAND_LOG_NAME);
-                if (!run.isProcessExists()) {
-                    run.run();
-                    String log = String.format(MESSAGE_SPAWN_WAIT, spawnTime, pdi.getTimeUnit());
-                    logWriter.writeLog(log);
-                    Thread.sleep(spawnTime * pdi.getTimeFactor());
-                } else {
-                    String log = String.format(MESSAGE_WAIT_FOR_PROCESS, waitTime, pdi.getTimeUnit());
-                    logWriter.writeLog(log);
-                    Thread.sleep(waitTime * pdi.getTimeFactor());
-                }
-            } while (true);
-
+        PdiScheduler scheduler = new PdiScheduler(pdi, concurrency, threads);
+        PdiConfigWatcher watcher = config != null ? new PdiConfigWatcher(pdi, scheduler, config) : null;
+        PdiControl control = null;
+        if (controlSocket == null) {
+            control = new PdiControl(pdi, scheduler, new File(pdi.getLogFolder(), PdiControl.SOCKET_NAME).toPath());
+        } else if (!controlSocket.isEmpty()) {
+            control = new PdiControl(pdi, scheduler, new File(controlSocket).toPath());
+        }
+        PdiControl controlChannel = control;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (controlChannel != null) {
+                controlChannel.stop();
+            }
+            if (watcher != null) {
+                watcher.stop();
+            }
+            scheduler.shutdown();
+            try {
+                pdi.getJournal().close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            metrics.stop();
+            archiver.shutdown();
+            logWriter.close();
+        }));
+        for (PdiJob job : jobs) {
+            scheduler.schedule(job);
+        }
+        if (watcher != null) {
+            try {
+                watcher.start();
+            } catch (IOException e) {
+                // the jobs keep running, changes need a restart
+                e.printStackTrace();
+            }
+        }
+        if (controlChannel != null) {
+            try {
+                controlChannel.start();
+            } catch (IOException | UnsupportedOperationException e) {
+                // the jobs keep running on their schedules
+                e.printStackTrace();
+            }
+        }
+        try {
+            scheduler.awaitTermination();
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * initializes default values
+     * creates the job given by the command line options
+     *
+     * @return job definition
+     */
+    protected PdiJob createDefaultJob() {
+        PdiJob job = new PdiJob(PdiJob.DEFAULT_JOB_NAME, this.getCommand());
+        job.setSpawnTime(this.getSpawnTime());
+        job.setWaitTime(this.getWaitTime());
+        job.setTimeFactor(this.getTimeFactorKey());
+        job.setLogFolder(this.getLogFolder());
+        job.setLogName(COMMAND_LOG_NAME);
+        job.setScheduleMode(this.getScheduleMode());
+        job.setCron(this.getCron());
+        job.setMisfire(this.getMisfire());
+        job.setOutputMode(this.getOutputMode());
+        job.setRetryAttempts(this.getRetryAttempts());
+        job.setWorker(this.getWorker());
+        job.setTimeout(this.getTimeout());
+        job.setOverlap(this.getOverlap());
+        job.setInstances(this.getInstances());
+        return job;
+    }
+
+    /**
+     * initializes default values, the time and size factors are taken from the arguments first
+     * so plain numbers are in the factor units wherever the factors are given
+     *
+     * @param args - arguments to be parsed
      */
-    private void initDefaults() {
+    private void initDefaults(String[] args) {
         this.setSizeFactor(SIZE_FACTOR_DEFAULT);
         this.setTimeFactor(TIME_FACTOR_DEFAULT);
-        this.setSpawnTime(SPAWN_NEW_PROCESS_TIME);
-        this.setWaitTime(WAIT_FOR_PROCESS_TO_COMPLETE);
+        for (int i = 0; i + 1 < args.length; i++) {
+            if ("-t".equals(args[i])) {
+                this.setTimeFactor(args[i + 1]);
+            } else if ("-k".equals(args[i])) {
+                this.setSizeFactor(args[i + 1]);
+            }
+        }
+        this.setSpawnTime(Duration.ofMillis(SPAWN_NEW_PROCESS_TIME * this.getTimeFactor()));
+        this.setWaitTime(Duration.ofMillis(WAIT_FOR_PROCESS_TO_COMPLETE * this.getTimeFactor()));
         this.setLogFolder(LOG_OUTPUT_FOLDER);
         this.setCommand(COMMAND_DEFAULT);
-        this.setLogLimit(LOG_LIMIT_DEFAULT);
+        this.setLogLimit(LOG_LIMIT_DEFAULT * this.getSizeFactor());
+        this.setConcurrency(PdiScheduler.CONCURRENCY_DEFAULT);
+        this.setThreads(PdiScheduler.THREADS_DEFAULT);
+        this.setScheduleMode(PdiSchedule.MODE_DEFAULT);
+        this.setMisfire(PdiSchedule.MISFIRE_DEFAULT);
+        this.setLogOverflow(PdiLogBuffer.OVERFLOW_BLOCK);
+        this.setOutputMode(PdiRunnable.OUTPUT_FILE);
+        this.setCompressionLevel(PdiLogArchiver.COMPRESSION_LEVEL_DEFAULT);
+        this.setOverlap(PdiJob.OVERLAP_FORBID);
+        this.setLogFormat(PdiLogWriter.FORMAT_TEXT);
     }
 
     /**
@@ -224,11 +490,11 @@ public class PdiDaemon {
             char argOption = argument.charAt(1);
             switch (argOption) {
                 case 's':
-                    int spawnTime = Integer.parseInt(args[index + 1]);
+                    Duration spawnTime = PdiUnits.parseDuration(args[index + 1], this.getTimeFactor());
                     this.setSpawnTime(spawnTime);
                     return index + 1;
                 case 'w':
-                    int waitTime = Integer.parseInt(args[index + 1]);
+                    Duration waitTime = PdiUnits.parseDuration(args[index + 1], this.getTimeFactor());
                     this.setWaitTime(waitTime);
                     return index + 1;
                 case 'l':
@@ -248,9 +514,91 @@ public class PdiDaemon {
                     this.setSizeFactor(sizeFactor);
                     return index + 1;
                 case 'm':
-                    int logLimit = Integer.parseInt(args[index + 1]);
+                    long logLimit = PdiUnits.parseBytes(args[index + 1], this.getSizeFactor());
                     this.setLogLimit(logLimit);
                     return index + 1;
+                case 'f':
+                    String jobsFile = args[index + 1];
+                    this.setJobsFile(jobsFile);
+                    return index + 1;
+                case 'p':
+                    int concurrency = Integer.parseInt(args[index + 1]);
+                    this.setConcurrency(concurrency);
+                    return index + 1;
+                case 'd':
+                    this.setThreads(args[index + 1]);
+                    return index + 1;
+                case 'r':
+                    String scheduleMode = args[index + 1];
+                    this.setScheduleMode(scheduleMode);
+                    return index + 1;
+                case 'e':
+                    String cron = args[index + 1];
+                    this.setCron(cron);
+                    this.setScheduleMode(PdiSchedule.MODE_CRON);
+                    return index + 1;
+                case 'x':
+                    String misfire = args[index + 1];
+                    this.setMisfire(misfire);
+                    return index + 1;
+                case 'q':
+                    int logQueueSize = Integer.parseInt(args[index + 1]);
+                    this.setLogQueueSize(logQueueSize);
+                    return index + 1;
+                case 'o':
+                    String logOverflow = args[index + 1];
+                    this.setLogOverflow(logOverflow);
+                    return index + 1;
+                case 'L':
+                    String logFormat = args[index + 1];
+                    this.setLogFormat(logFormat);
+                    return index + 1;
+                case 'R':
+                    Duration logRollover = PdiUnits.parseDuration(args[index + 1], this.getTimeFactor());
+                    this.setLogRollover(logRollover);
+                    return index + 1;
+                case 'g':
+                    String outputMode = args[index + 1];
+                    this.setOutputMode(outputMode);
+                    return index + 1;
+                case 'z':
+                    int compressionLevel = Integer.parseInt(args[index + 1]);
+                    this.setCompressionLevel(compressionLevel);
+                    return index + 1;
+                case 'n':
+                    int retainCount = Integer.parseInt(args[index + 1]);
+                    this.setRetainCount(retainCount);
+                    return index + 1;
+                case 'a':
+                    Duration retainAge = PdiUnits.parseDuration(args[index + 1], this.getTimeFactor());
+                    this.setRetainAge(retainAge);
+                    return index + 1;
+                case 'b':
+                    long retainSize = PdiUnits.parseBytes(args[index + 1], this.getSizeFactor());
+                    this.setRetainSize(retainSize);
+                    return index + 1;
+                case 'i':
+                    int metricsPort = Integer.parseInt(args[index + 1]);
+                    this.setMetricsPort(metricsPort);
+                    return index + 1;
+                case 'y':
+                    int retryAttempts = Integer.parseInt(args[index + 1]);
+                    this.setRetryAttempts(retryAttempts);
+                    return index + 1;
+                case 'v':
+                    this.setOverlap(args[index + 1]);
+                    return index + 1;
+                case 'I':
+                    int instances = Integer.parseInt(args[index + 1]);
+                    this.setInstances(instances);
+                    return index + 1;
+                case 'u':
+                    Duration timeout = PdiUnits.parseDuration(args[index + 1], this.getTimeFactor());
+                    this.setTimeout(timeout);
+                    return index + 1;
+                case 'j':
+                    this.setWorker(args[index + 1]);
+                    return index + 1;
                 case 'h':
                     this.printHelp();
                     System.exit(1);
@@ -272,56 +620,451 @@ public class PdiDaemon {
      */
     protected void printHelp() {
         System.out.println(
-                "-s => set spawn time to respawn new process\n" +
-                        "-w => set wait time to wait till process is complete\n" +
+                "-s => set spawn time to respawn new process (in time factor units or ISO-8601, e.g. PT250MS, P30D)\n" +
+                        "-w => set wait time to wait till process is complete (in time factor units or ISO-8601)\n" +
                         "-l => set log file name \n" +
                         "-c => set command that needs to be respawned every time\n" +
-                        "-t => set time factor (s-seconds, m-minutes, h-hours, d-days)\n" +
-                        "-k => set size factor (k-KB, m-MB, g-GB)\n" +
-                        "-m => set log rotate size limit \n" +
+                        "-t => set time factor (ms-milli seconds, s-seconds, m-minutes, h-hours, d-days)\n" +
+                        "-k => set size factor (k-KB, m-MB, g-GB, t-TB)\n" +
+                        "-m => set log rotate size limit (in size factor units or with a unit, e.g. 512MiB, 4GiB)\n" +
+                        "-f => set job config file to supervise several jobs, changes are applied while running\n" +
+                        "-p => set max number of jobs running at the same time\n" +
+                        "-d => set thread mode of the runs (platform, virtual-one virtual thread per run on Java 21)\n" +
+                        "-r => set schedule mode (rate-fixed rate, delay-fixed delay, cron, adaptive-follows the run time)\n" +
+                        "-e => set cron expression to spawn at (minute hour day month weekday)\n" +
+                        "-x => set missed spawn policy (skip, once, catchup)\n" +
+                        "-g => set command output mode (file-redirected by the OS, pipe-written and rotated by the daemon,\n" +
+                        "      prefix-like pipe with timestamp and run id on every line)\n" +
+                        "-z => set gzip level of rotated logs (1-9, 0 to keep them uncompressed)\n" +
+                        "-n => set max number of rotated logs kept per log\n" +
+                        "-a => set max age of rotated logs (in time factor units or ISO-8601)\n" +
+                        "-b => set max total size of rotated logs per log (in size factor units or with a unit)\n" +
+                        "-y => set max number of retries of a failed run\n" +
+                        "-v => set overlap policy of a spawn due while a run is in flight (forbid, skip, queue,\n" +
+                        "      allow-up to -I runs in flight at the same time)\n" +
+                        "-I => set max number of runs in flight at the same time under the allow policy (more than 1)\n" +
+                        "-u => set max run time after which the process tree is terminated (in time factor units or ISO-8601)\n" +
+                        "-j => set worker command kept running to run the command instead of spawning it\n" +
+                        "-i => set port of the local metrics endpoint (prometheus text format)\n" +
+                        "-q => set daemon log buffer size to write the daemon log asynchronously\n" +
+                        "-o => set daemon log buffer overflow policy (block, drop, count)\n" +
+                        "-L => set daemon log format (text, json-one JSON event per line)\n" +
+                        "-R => set interval the daemon log is rolled over at in local time, e.g. P1D at midnight\n" +
+                        "      (in time factor units or ISO-8601, 0 to roll it over by size only)\n" +
                         "-h => print help"
         );
     }
 
     /**
-     * @return max log limit
+     * @return job config file
+     */
+    protected String getJobsFile() {
+        return this.jobsFile;
+    }
+
+    /**
+     * @param jobsFile job config file
+     */
+    protected void setJobsFile(String jobsFile) {
+        this.jobsFile = jobsFile;
+    }
+
+    /**
+     * @return max number of jobs running at the same time
+     */
+    protected int getConcurrency() {
+        return this.concurrency;
+    }
+
+    /**
+     * @param concurrency max number of jobs running at the same time
+     */
+    protected void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * @return thread mode of the runs
+     */
+    protected String getThreads() {
+        return this.threads;
+    }
+
+    /**
+     * @param threads thread mode of the runs platform or virtual
+     */
+    protected void setThreads(String threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @return path of the control socket, null for the socket in the log folder, empty for no control socket
+     */
+    protected String getControlSocket() {
+        return this.controlSocket;
+    }
+
+    /**
+     * @param controlSocket path of the control socket, null for the socket in the log folder, empty for no control socket
+     */
+    protected void setControlSocket(String controlSocket) {
+        this.controlSocket = controlSocket;
+    }
+
+    /**
+     * @return format of the daemon log
+     */
+    protected String getLogFormat() {
+        return this.logFormat;
+    }
+
+    /**
+     * @param logFormat format of the daemon log text or json
+     */
+    protected void setLogFormat(String logFormat) {
+        this.logFormat = logFormat;
+    }
+
+    /**
+     * @return interval the daemon log is rolled over at
+     */
+    protected Duration getLogRollover() {
+        return this.logRollover;
+    }
+
+    /**
+     * @param logRollover interval the daemon log is rolled over at, zero to roll it over by size only
+     */
+    protected void setLogRollover(Duration logRollover) {
+        this.logRollover = logRollover;
+    }
+
+    /**
+     * @return schedule mode
+     */
+    protected String getScheduleMode() {
+        return this.scheduleMode;
+    }
+
+    /**
+     * @param scheduleMode schedule mode rate, delay, cron or adaptive
+     */
+    protected void setScheduleMode(String scheduleMode) {
+        this.scheduleMode = scheduleMode;
+    }
+
+    /**
+     * @return cron expression
+     */
+    protected String getCron() {
+        return this.cron;
+    }
+
+    /**
+     * @param cron cron expression for cron schedules
+     */
+    protected void setCron(String cron) {
+        this.cron = cron;
+    }
+
+    /**
+     * @return missed fire policy
+     */
+    protected String getMisfire() {
+        return this.misfire;
+    }
+
+    /**
+     * @param misfire missed fire policy skip, once or catchup
+     */
+    protected void setMisfire(String misfire) {
+        this.misfire = misfire;
+    }
+
+    /**
+     * @return metrics of the supervised jobs
+     */
+    protected PdiMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * @param metrics metrics of the supervised jobs
+     */
+    protected void setMetrics(PdiMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return max number of retries after a failed run
+     */
+    protected int getRetryAttempts() {
+        return this.retryAttempts;
+    }
+
+    /**
+     * @param retryAttempts max number of retries after a failed run, 0 to disable retries
+     */
+    protected void setRetryAttempts(int retryAttempts) {
+        this.retryAttempts = retryAttempts;
+    }
+
+    /**
+     * @return state of the runs in flight
+     */
+    protected PdiStateFile getState() {
+        return this.state;
+    }
+
+    /**
+     * @param state state of the runs in flight
+     */
+    protected void setState(PdiStateFile state) {
+        this.state = state;
+    }
+
+    /**
+     * @return journal of completed runs
+     */
+    protected PdiRunJournal getJournal() {
+        return this.journal;
+    }
+
+    /**
+     * @param journal journal of completed runs
+     */
+    protected void setJournal(PdiRunJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * @return overlap policy of the jobs
+     */
+    protected String getOverlap() {
+        return this.overlap;
+    }
+
+    /**
+     * @param overlap overlap policy of the jobs forbid, skip, queue or allow
+     */
+    protected void setOverlap(String overlap) {
+        this.overlap = overlap;
+    }
+
+    /**
+     * @return max number of runs of a job in flight at the same time under the allow policy
+     */
+    protected int getInstances() {
+        return this.instances;
+    }
+
+    /**
+     * @param instances max number of runs of a job in flight at the same time under the allow policy
+     */
+    protected void setInstances(int instances) {
+        this.instances = instances;
+    }
+
+    /**
+     * @return max run time
+     */
+    protected Duration getTimeout() {
+        return this.timeout;
+    }
+
+    /**
+     * @param timeout max run time after which a run is terminated, zero for no limit
+     */
+    protected void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return command starting the worker
+     */
+    protected String getWorker() {
+        return this.worker;
+    }
+
+    /**
+     * @param worker command starting a long lived worker that runs the job command, null to spawn the command
+     */
+    protected void setWorker(String worker) {
+        this.worker = worker;
+    }
+
+    /**
+     * @return port of the local metrics endpoint
+     */
+    protected int getMetricsPort() {
+        return this.metricsPort;
+    }
+
+    /**
+     * @param metricsPort port of the local metrics endpoint, 0 to disable it
+     */
+    protected void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    /**
+     * @return archiver compressing and deleting rotated logs
+     */
+    protected PdiLogArchiver getArchiver() {
+        return this.archiver;
+    }
+
+    /**
+     * @param archiver archiver compressing and deleting rotated logs
+     */
+    protected void setArchiver(PdiLogArchiver archiver) {
+        this.archiver = archiver;
+    }
+
+    /**
+     * @return gzip level of rotated logs
+     */
+    protected int getCompressionLevel() {
+        return this.compressionLevel;
+    }
+
+    /**
+     * @param compressionLevel gzip level of rotated logs, 0 to keep them uncompressed
+     */
+    protected void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @return max number of rotated logs kept per log
+     */
+    protected int getRetainCount() {
+        return this.retainCount;
+    }
+
+    /**
+     * @param retainCount max number of rotated logs kept per log, 0 for no limit
+     */
+    protected void setRetainCount(int retainCount) {
+        this.retainCount = retainCount;
+    }
+
+    /**
+     * @return max age of rotated logs
+     */
+    protected Duration getRetainAge() {
+        return this.retainAge;
+    }
+
+    /**
+     * @param retainAge max age of rotated logs, zero for no limit
+     */
+    protected void setRetainAge(Duration retainAge) {
+        this.retainAge = retainAge;
+    }
+
+    /**
+     * @return max total size in bytes of rotated logs per log
+     */
+    protected long getRetainSize() {
+        return this.retainSize;
+    }
+
+    /**
+     * @param retainSize max total size in bytes of rotated logs per log, 0 for no limit
+     */
+    protected void setRetainSize(long retainSize) {
+        this.retainSize = retainSize;
+    }
+
+    /**
+     * @return how command output is written
+     */
+    protected String getOutputMode() {
+        return this.outputMode;
+    }
+
+    /**
+     * @param outputMode how command output is written file, pipe or prefix
+     */
+    protected void setOutputMode(String outputMode) {
+        this.outputMode = outputMode;
+    }
+
+    /**
+     * @return capacity of the daemon log ring buffer
+     */
+    protected int getLogQueueSize() {
+        return this.logQueueSize;
+    }
+
+    /**
+     * @param logQueueSize capacity of the daemon log ring buffer, 0 to write synchronously
+     */
+    protected void setLogQueueSize(int logQueueSize) {
+        this.logQueueSize = logQueueSize;
+    }
+
+    /**
+     * @return overflow policy of the daemon log ring buffer
+     */
+    protected String getLogOverflow() {
+        return this.logOverflow;
+    }
+
+    /**
+     * @param logOverflow overflow policy block, drop or count
      */
-    protected int getLogLimit() {
+    protected void setLogOverflow(String logOverflow) {
+        this.logOverflow = logOverflow;
+    }
+
+    /**
+     * @return max log limit in bytes
+     */
+    protected long getLogLimit() {
         return this.logLimit;
     }
 
     /**
-     * @param logLimit max log limit to set
+     * @param logLimit max log limit in bytes to set
      */
-    protected void setLogLimit(int logLimit) {
+    protected void setLogLimit(long logLimit) {
         this.logLimit = logLimit;
     }
 
+    /**
+     * @return log limit in bytes given on the command line, unchanged by the job config
+     */
+    protected long getCommandLineLogLimit() {
+        return this.commandLineLogLimit;
+    }
+
     /**
      * @return spawn interval
      */
-    protected int getSpawnTime() {
+    protected Duration getSpawnTime() {
         return this.spawnTime;
     }
 
     /**
      * @param spawnTime spawn interval
      */
-    protected void setSpawnTime(int spawnTime) {
+    protected void setSpawnTime(Duration spawnTime) {
         this.spawnTime = spawnTime;
     }
 
     /**
      * @return wait interval
      */
-    protected int getWaitTime() {
+    protected Duration getWaitTime() {
         return this.waitTime;
     }
 
     /**
      * @param waitTime wait interval
      */
-    protected void setWaitTime(int waitTime) {
+    protected void setWaitTime(Duration waitTime) {
         this.waitTime = waitTime;
     }
 
@@ -384,7 +1127,7 @@ public class PdiDaemon {
     /**
      * @return sizefactor value in bytes
      */
-    protected int getSizeFactor() {
+    protected long getSizeFactor() {
         return this.sizeFactor;
     }
 
@@ -392,7 +1135,7 @@ public class PdiDaemon {
      * @param size convert size factor string to bytes
      */
     protected void setSizeFactor(String size) {
-        int sizeFactor = 1;
+        long sizeFactor = 1;
         String sizeUnit = null;
         switch (size) {
             case "k":
@@ -407,6 +1150,10 @@ public class PdiDaemon {
                 sizeFactor = sizeFactor * 1024 * 1024 * 1024;
                 sizeUnit = "GB";
                 break;
+            case "t":
+                sizeFactor = sizeFactor * 1024 * 1024 * 1024 * 1024;
+                sizeUnit = "TB";
+                break;
         }
         this.setSizeUnit(sizeUnit);
         this.sizeFactor = sizeFactor;
@@ -415,7 +1162,7 @@ public class PdiDaemon {
     /**
      * @return time factor value in milli seconds
      */
-    protected int getTimeFactor() {
+    protected long getTimeFactor() {
         return this.timeFactor;
     }
 
@@ -423,28 +1170,59 @@ public class PdiDaemon {
      * @param time convert time factor string to milli seconds
      */
     protected void setTimeFactor(String time) {
-        int timeFactor = 1;
-        String timeUnit = null;
+        this.setTimeUnit(timeUnitOf(time));
+        this.timeFactor = timeFactorOf(time);
+        this.timeFactorKey = time;
+    }
+
+    /**
+     * @return time factor as given on the command line
+     */
+    protected String getTimeFactorKey() {
+        return this.timeFactorKey;
+    }
+
+    /**
+     * @param time time factor string (ms-milli seconds, s-seconds, m-minutes, h-hours, d-days)
+     * @return time factor value in milli seconds
+     */
+    protected static long timeFactorOf(String time) {
+        long timeFactor = 1;
         switch (time) {
             case "d":
                 timeFactor = timeFactor * 24 * 60 * 60 * 1000;
-                timeUnit = "days";
                 break;
             case "h":
                 timeFactor = timeFactor * 60 * 60 * 1000;
-                timeUnit = "hours";
                 break;
             case "m":
                 timeFactor = timeFactor * 60 * 1000;
-                timeUnit = "minutes";
                 break;
             case "s":
                 timeFactor = timeFactor * 1000;
-                timeUnit = "seconds";
                 break;
         }
-        this.setTimeUnit(timeUnit);
-        this.timeFactor = timeFactor;
+        return timeFactor;
+    }
+
+    /**
+     * @param time time factor string (ms-milli seconds, s-seconds, m-minutes, h-hours, d-days)
+     * @return time unit in words
+     */
+    protected static String timeUnitOf(String time) {
+        switch (time) {
+            case "d":
+                return "days";
+            case "h":
+                return "hours";
+            case "m":
+                return "minutes";
+            case "s":
+                return "seconds";
+            case "ms":
+                return "milli seconds";
+        }
+        return null;
     }
 
     /**
@@ -462,20 +1240,71 @@ public class PdiDaemon {
     }
 
     /**
-     * Rotates the log to a new file when log reaches a max size
+     * @return full path of the daemon log file
+     */
+    protected String getDaemonLogFile() {
+        return this.getLogFolder() + File.separator + DAEMON_LOG_NAME;
+    }
+
+    /**
+     * Rotates a command log to a new file when log reaches a max size,
+     * the daemon log is rolled over by its log writer
+     *
+     * @param fileName log file name
+     * @return true if the log was rotated
      */
-    protected void logRotate(String fileName) {
+    protected synchronized boolean logRotate(String fileName) {
         File logFile = new File(fileName);
-        int logFileMaxLimit = this.getLogLimit() * this.getSizeFactor();
+        long logFileMaxLimit = this.getLogLimit();
         if (logFile.length() > logFileMaxLimit) {
-            DateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
-            Date date = new Date();
-            String today = dateFormat.format(date);
-            String compressedLogFileName = logFile.getPath() + today;
-            File compressedLogFile = new File(compressedLogFileName);
+            File compressedLogFile = rotationTarget(logFile);
+            String compressedLogFileName = compressedLogFile.getPath();
             String log = String.format(MESSAGE_COMPRESS, logFile.getName(), compressedLogFileName, logFile.getParent());
             this.getLogWriter().writeLog(log);
-            logFile.renameTo(compressedLogFile);
+            if (logFile.renameTo(compressedLogFile)) {
+                if (this.getArchiver() != null) {
+                    this.getArchiver().archive(logFile, compressedLogFile);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * returns the file a log is rotated to, the current time is appended to the log file name
+     * and a counter is added when the log was already rotated within the same second
+     * (a compressed copy counts as rotated)
+     *
+     * @param logFile log file to be rotated
+     * @return file the log is renamed to
+     */
+    protected static File rotationTarget(File logFile) {
+        DateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
+        Date date = new Date();
+        String today = dateFormat.format(date);
+        File rotatedFile = new File(logFile.getPath() + today);
+        for (int i = 1; rotatedFile.exists() || isArchived(rotatedFile); i++) {
+            rotatedFile = new File(logFile.getPath() + today + "." + i);
         }
+        return rotatedFile;
+    }
+
+    /**
+     * @param logFile  log file that is rotated
+     * @param fileName name of a file in the folder of the log
+     * @return true if the file is a rotated log of the log file as named by rotationTarget, compressed or not
+     */
+    protected static boolean isRotationOf(File logFile, String fileName) {
+        String suffix = "\\d{" + DATE_FORMAT.length() + "}(\\.\\d+)?(" + Pattern.quote(PdiLogArchiver.GZIP_SUFFIX) + ")?";
+        return fileName.matches(Pattern.quote(logFile.getName()) + suffix);
+    }
+
+    /**
+     * @param rotatedFile rotated log
+     * @return true if a compressed copy of the rotated log exists
+     */
+    private static boolean isArchived(File rotatedFile) {
+        return new File(rotatedFile.getPath() + PdiLogArchiver.GZIP_SUFFIX).exists();
     }
 }
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with fixed buckets
+ * values are recorded in nano seconds and rendered in seconds in the prometheus text format
+ */
+public class PdiHistogram {
+    /**
+     * upper bounds of the buckets in seconds, covering sub milli second spawns up to hour long runs
+     */
+    public static final double[] BUCKETS = {
+            0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30, 60, 300, 600, 1800, 3600, 7200
+    };
+
+    /**
+     * upper bounds of the buckets in nano seconds
+     */
+    private static final long[] BUCKET_NANOS = new long[BUCKETS.length];
+
+    static {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            BUCKET_NANOS[i] = (long) (BUCKETS[i] * 1e9);
+        }
+    }
+
+    /**
+     * number of values per bucket, the last bucket counts values above all bounds
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS.length + 1);
+
+    /**
+     * sum of all values in nano seconds
+     */
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * largest value in nano seconds
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * records a value
+     *
+     * @param nanos value in nano seconds, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        int bucket = 0;
+        while (bucket < BUCKET_NANOS.length && value > BUCKET_NANOS[bucket]) {
+            bucket++;
+        }
+        this.counts.incrementAndGet(bucket);
+        this.sum.addAndGet(value);
+        this.max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * @return number of recorded values
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < this.counts.length(); i++) {
+            count += this.counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return mean of the recorded values in milli seconds
+     */
+    public double getMeanMillis() {
+        long count = this.getCount();
+        return count == 0 ? 0 : this.sum.get() / 1e6 / count;
+    }
+
+    /**
+     * @return largest recorded value in milli seconds
+     */
+    public double getMaxMillis() {
+        return this.max.get() / 1e6;
+    }
+
+    /**
+     * appends the histogram in the prometheus text format
+     *
+     * @param out    buffer to append to
+     * @param name   metric name
+     * @param labels labels of the metric without braces
+     */
+    public void appendTo(StringBuilder out, String name, String labels) {
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS.length; i++) {
+            cumulative += this.counts.get(i);
+            out.append(name).append("_bucket{").append(labels).append(",le=\"").append(BUCKETS[i]).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        cumulative += this.counts.get(BUCKETS.length);
+        out.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append(name).append("_sum{").append(labels).append("} ").append(this.sum.get() / 1e9).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+    }
+}
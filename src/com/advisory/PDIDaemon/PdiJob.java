@@ -0,0 +1,834 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Definition of a single job supervised by the daemon
+ * every job has its own command, spawn interval, wait time and command log file
+ */
+public class PdiJob {
+    /**
+     * name of the job used when no name is given
+     */
+    public static final String DEFAULT_JOB_NAME = "default";
+
+    /**
+     * time in milli seconds between SIGTERM and SIGKILL of a timed out run when no grace period is given
+     */
+    public static final long KILL_GRACE_DEFAULT = 10000;
+
+    /**
+     * interval in milli seconds of resource samples when memory limits are set without an interval
+     */
+    public static final long SAMPLE_INTERVAL_DEFAULT = 1000;
+
+    /**
+     * overlap policies deciding what happens to a spawn that is due while a run is in flight
+     *
+     * forbid - the spawn waits for the run, polling every wait interval, the schedule waits with it
+     * skip   - the spawn is dropped, the next spawn is due on schedule
+     * queue  - the spawn is queued and started as soon as the run completes, further due spawns coalesce into it
+     * allow  - up to instances runs are in flight at the same time, beyond that spawns are queued
+     */
+    public static final String OVERLAP_FORBID = "forbid";
+    public static final String OVERLAP_SKIP = "skip";
+    public static final String OVERLAP_QUEUE = "queue";
+    public static final String OVERLAP_ALLOW = "allow";
+
+    /**
+     * name of the job
+     */
+    private String name;
+
+    /**
+     * command to be spawned for this job
+     */
+    private String command;
+
+    /**
+     * spawn time to wait for process to respawn
+     */
+    private Duration spawnTime;
+
+    /**
+     * wait time to wait for process to complete
+     */
+    private Duration waitTime;
+
+    /**
+     * min interval of adaptive schedules, zero for a tenth of the spawn interval
+     */
+    private Duration spawnMin = Duration.ZERO;
+
+    /**
+     * max interval of adaptive schedules, zero for ten spawn intervals
+     */
+    private Duration spawnMax = Duration.ZERO;
+
+    /**
+     * target duty cycle in percent of adaptive schedules
+     */
+    private int dutyCycle = PdiSchedule.DUTY_CYCLE_DEFAULT;
+
+    /**
+     * freshness target of adaptive schedules, zero to follow the duty cycle
+     */
+    private Duration freshness = Duration.ZERO;
+
+    /**
+     * time factor to be multiplied with time to milliseconds
+     */
+    private long timeFactor;
+
+    /**
+     * folder where the command log is written
+     */
+    private String logFolder;
+
+    /**
+     * file name of the command log
+     */
+    private String logName;
+
+    /**
+     * schedule mode rate, delay or cron
+     */
+    private String scheduleMode = PdiSchedule.MODE_DEFAULT;
+
+    /**
+     * cron expression for cron schedules
+     */
+    private String cron;
+
+    /**
+     * missed fire policy skip, once or catchup
+     */
+    private String misfire = PdiSchedule.MISFIRE_DEFAULT;
+
+    /**
+     * how command output is written file, pipe or prefix
+     */
+    private String outputMode = PdiRunnable.OUTPUT_FILE;
+
+    /**
+     * max number of retries after a failed run, 0 to disable retries
+     */
+    private int retryAttempts = 0;
+
+    /**
+     * comma separated exit codes that are retried, null for every non zero exit code
+     */
+    private String retryCodes;
+
+    /**
+     * comma separated names of the upstream jobs, null for a job spawned on its schedule
+     */
+    private String after;
+
+    /**
+     * true to write every run to a segment of its own instead of appending to the command log
+     */
+    private boolean segments = false;
+
+    /**
+     * delay before the first retry, null for one time factor unit
+     */
+    private Duration retryDelay;
+
+    /**
+     * max delay between retries, zero for the spawn interval
+     */
+    private Duration retryMaxDelay = Duration.ZERO;
+
+    /**
+     * consecutive failures that open the circuit breaker, 0 to never open it
+     */
+    private int breakerThreshold = PdiRetryPolicy.BREAKER_THRESHOLD_DEFAULT;
+
+    /**
+     * time the circuit breaker stays open, zero for the spawn interval
+     */
+    private Duration breakerCooldown = Duration.ZERO;
+
+    /**
+     * command starting a long lived worker that runs the job command, null to spawn the command
+     */
+    private String worker;
+
+    /**
+     * number of runs after which the worker is recycled, 0 for no limit
+     */
+    private int workerRuns = PdiWorker.MAX_RUNS_DEFAULT;
+
+    /**
+     * resident memory in bytes above which the worker is recycled, 0 for no limit
+     */
+    private long workerMaxRss = 0;
+
+    /**
+     * max run time after which the run is terminated, zero for no limit
+     */
+    private Duration timeout = Duration.ZERO;
+
+    /**
+     * time between SIGTERM and SIGKILL of a timed out run, zero for the default
+     */
+    private Duration killGrace = Duration.ZERO;
+
+    /**
+     * interval in milli seconds at which cpu, memory and I/O of a run are sampled, 0 to not sample
+     */
+    private long sampleInterval = 0;
+
+    /**
+     * resident memory in bytes of the process tree above which a warning is logged, 0 for no limit
+     */
+    private long memorySoftLimit = 0;
+
+    /**
+     * resident memory in bytes of the process tree above which the run is terminated, 0 for no limit
+     */
+    private long memoryHardLimit = 0;
+
+    /**
+     * overlap policy forbid, skip, queue or allow
+     */
+    private String overlap = OVERLAP_FORBID;
+
+    /**
+     * max number of runs in flight at the same time under the allow policy
+     */
+    private int instances = 1;
+
+    /**
+     * Constructor for a job
+     *
+     * @param name    name of the job
+     * @param command command to be spawned
+     */
+    public PdiJob(String name, String command) {
+        this.setName(name);
+        this.setCommand(command);
+    }
+
+    /**
+     * @return full path of the command log file
+     */
+    protected String getCommandLogFile() {
+        return this.getLogFolder() + File.separator + this.getLogName();
+    }
+
+    /**
+     * returns the command log file of an instance of the job, the first instance uses the command log file
+     * and every further instance gets its own so concurrent runs do not write over each other
+     *
+     * @param instance index of the instance
+     * @return full path of the command log file of the instance
+     */
+    protected String getCommandLogFile(int instance) {
+        if (instance == 0) {
+            return this.getCommandLogFile();
+        }
+        // the instance goes before the extension, a suffix would look like a rotated log to the retention
+        String logName = this.getLogName();
+        int extension = logName.lastIndexOf('.');
+        if (extension <= 0) {
+            extension = logName.length();
+        }
+        return this.getLogFolder() + File.separator + logName.substring(0, extension) + "-" + instance
+                + logName.substring(extension);
+    }
+
+    /**
+     * creates the schedule deciding when the job is spawned
+     *
+     * @return schedule of the job
+     * @throws IllegalArgumentException if the schedule options are invalid
+     */
+    protected PdiSchedule createSchedule() {
+        long minPeriod = !this.getSpawnMin().isZero() ? this.getSpawnMin().toMillis() : Math.max(1, this.getSpawnMillis() / 10);
+        long maxPeriod = !this.getSpawnMax().isZero() ? this.getSpawnMax().toMillis() : 10 * this.getSpawnMillis();
+        return new PdiSchedule(this.getScheduleMode(), this.getSpawnMillis(), this.getCron(), this.getMisfire(),
+                minPeriod, maxPeriod, this.getDutyCycle(), this.getFreshness().toMillis());
+    }
+
+    /**
+     * creates the policy deciding when failed runs are retried
+     *
+     * @return retry policy of the job
+     * @throws IllegalArgumentException if the retry options are invalid
+     */
+    protected PdiRetryPolicy createRetryPolicy() {
+        long delay = this.getRetryDelay() != null ? this.getRetryDelay().toMillis() : this.getTimeFactor();
+        long maxDelay = !this.getRetryMaxDelay().isZero() ? this.getRetryMaxDelay().toMillis() : this.getSpawnMillis();
+        long cooldown = !this.getBreakerCooldown().isZero() ? this.getBreakerCooldown().toMillis() : this.getSpawnMillis();
+        return new PdiRetryPolicy(this.getRetryCodes(), this.getRetryAttempts(), delay,
+                maxDelay, this.getBreakerThreshold(), cooldown);
+    }
+
+    /**
+     * checks that the overlap policy allow comes with more than one instance,
+     * with a single instance it would silently behave like queue
+     *
+     * @throws IllegalArgumentException if the job allows overlapping runs with a single instance
+     */
+    protected void checkOverlap() {
+        if (OVERLAP_ALLOW.equals(this.getOverlap()) && this.getInstances() < 2) {
+            throw new IllegalArgumentException("Overlap policy " + OVERLAP_ALLOW + " of job " + this.getName()
+                    + " needs more than one instance");
+        }
+    }
+
+    /**
+     * @return names of the upstream jobs that must succeed before the job is spawned, empty for a scheduled job
+     */
+    protected List<String> getUpstreamJobs() {
+        List<String> upstreamJobs = new ArrayList<>();
+        if (this.getAfter() != null) {
+            for (String name : this.getAfter().split(",")) {
+                if (!name.trim().isEmpty()) {
+                    upstreamJobs.add(name.trim());
+                }
+            }
+        }
+        return upstreamJobs;
+    }
+
+    /**
+     * @return spawn interval in milli seconds
+     */
+    protected long getSpawnMillis() {
+        return this.getSpawnTime().toMillis();
+    }
+
+    /**
+     * @return max run time in milli seconds, 0 for no limit
+     */
+    protected long getTimeoutMillis() {
+        return this.getTimeout().toMillis();
+    }
+
+    /**
+     * @return time in milli seconds between SIGTERM and SIGKILL of a timed out run
+     */
+    protected long getKillGraceMillis() {
+        return !this.getKillGrace().isZero() ? this.getKillGrace().toMillis() : KILL_GRACE_DEFAULT;
+    }
+
+    /**
+     * @return interval in milli seconds at which a run is sampled, 0 if runs are not sampled
+     */
+    protected long getSampleMillis() {
+        if (this.getSampleInterval() > 0) {
+            return this.getSampleInterval();
+        }
+        return this.getMemorySoftLimit() > 0 || this.getMemoryHardLimit() > 0 ? SAMPLE_INTERVAL_DEFAULT : 0;
+    }
+
+    /**
+     * @return max number of runs of the job in flight at the same time
+     */
+    protected int getMaxInstances() {
+        return OVERLAP_ALLOW.equals(this.getOverlap()) ? this.getInstances() : 1;
+    }
+
+    /**
+     * @return wait interval in milli seconds
+     */
+    protected long getWaitMillis() {
+        return this.getWaitTime().toMillis();
+    }
+
+    /**
+     * @return name of the job
+     */
+    protected String getName() {
+        return this.name;
+    }
+
+    /**
+     * @param name name of the job
+     */
+    protected void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return command to be spawned
+     */
+    protected String getCommand() {
+        return this.command;
+    }
+
+    /**
+     * @param command command to be spawned
+     */
+    protected void setCommand(String command) {
+        this.command = command;
+    }
+
+    /**
+     * @return spawn interval
+     */
+    protected Duration getSpawnTime() {
+        return this.spawnTime;
+    }
+
+    /**
+     * @param spawnTime spawn interval
+     */
+    protected void setSpawnTime(Duration spawnTime) {
+        this.spawnTime = spawnTime;
+    }
+
+    /**
+     * @return min interval of adaptive schedules
+     */
+    protected Duration getSpawnMin() {
+        return this.spawnMin;
+    }
+
+    /**
+     * @param spawnMin min interval of adaptive schedules, zero for a tenth of the spawn interval
+     */
+    protected void setSpawnMin(Duration spawnMin) {
+        this.spawnMin = spawnMin;
+    }
+
+    /**
+     * @return max interval of adaptive schedules
+     */
+    protected Duration getSpawnMax() {
+        return this.spawnMax;
+    }
+
+    /**
+     * @param spawnMax max interval of adaptive schedules, zero for ten spawn intervals
+     */
+    protected void setSpawnMax(Duration spawnMax) {
+        this.spawnMax = spawnMax;
+    }
+
+    /**
+     * @return target duty cycle in percent of adaptive schedules
+     */
+    protected int getDutyCycle() {
+        return this.dutyCycle;
+    }
+
+    /**
+     * @param dutyCycle target duty cycle in percent of adaptive schedules
+     */
+    protected void setDutyCycle(int dutyCycle) {
+        this.dutyCycle = dutyCycle;
+    }
+
+    /**
+     * @return freshness target of adaptive schedules
+     */
+    protected Duration getFreshness() {
+        return this.freshness;
+    }
+
+    /**
+     * @param freshness freshness target of adaptive schedules, zero to follow the duty cycle
+     */
+    protected void setFreshness(Duration freshness) {
+        this.freshness = freshness;
+    }
+
+    /**
+     * @return wait interval
+     */
+    protected Duration getWaitTime() {
+        return this.waitTime;
+    }
+
+    /**
+     * @param waitTime wait interval
+     */
+    protected void setWaitTime(Duration waitTime) {
+        this.waitTime = waitTime;
+    }
+
+    /**
+     * @return time factor value in milli seconds
+     */
+    protected long getTimeFactor() {
+        return this.timeFactor;
+    }
+
+    /**
+     * @param time convert time factor string to milli seconds
+     */
+    protected void setTimeFactor(String time) {
+        this.timeFactor = PdiDaemon.timeFactorOf(time);
+    }
+
+    /**
+     * @return folder of the command log
+     */
+    protected String getLogFolder() {
+        return this.logFolder;
+    }
+
+    /**
+     * @param logFolder folder of the command log
+     */
+    protected void setLogFolder(String logFolder) {
+        this.logFolder = logFolder;
+    }
+
+    /**
+     * @return file name of the command log
+     */
+    protected String getLogName() {
+        return this.logName;
+    }
+
+    /**
+     * @param logName file name of the command log
+     */
+    protected void setLogName(String logName) {
+        this.logName = logName;
+    }
+
+    /**
+     * @return schedule mode
+     */
+    protected String getScheduleMode() {
+        return this.scheduleMode;
+    }
+
+    /**
+     * @param scheduleMode schedule mode rate, delay or cron
+     */
+    protected void setScheduleMode(String scheduleMode) {
+        this.scheduleMode = scheduleMode;
+    }
+
+    /**
+     * @return cron expression
+     */
+    protected String getCron() {
+        return this.cron;
+    }
+
+    /**
+     * @param cron cron expression for cron schedules
+     */
+    protected void setCron(String cron) {
+        this.cron = cron;
+    }
+
+    /**
+     * @return missed fire policy
+     */
+    protected String getMisfire() {
+        return this.misfire;
+    }
+
+    /**
+     * @param misfire missed fire policy skip, once or catchup
+     */
+    protected void setMisfire(String misfire) {
+        this.misfire = misfire;
+    }
+
+    /**
+     * @return how command output is written
+     */
+    protected String getOutputMode() {
+        return this.outputMode;
+    }
+
+    /**
+     * @param outputMode how command output is written file, pipe or prefix
+     * @throws IllegalArgumentException for an unknown output mode
+     */
+    protected void setOutputMode(String outputMode) {
+        switch (outputMode) {
+            case PdiRunnable.OUTPUT_FILE:
+            case PdiRunnable.OUTPUT_PIPE:
+            case PdiRunnable.OUTPUT_PREFIX:
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid output mode " + outputMode);
+        }
+        this.outputMode = outputMode;
+    }
+
+    /**
+     * @return max number of retries after a failed run
+     */
+    protected int getRetryAttempts() {
+        return this.retryAttempts;
+    }
+
+    /**
+     * @param retryAttempts max number of retries after a failed run, 0 to disable retries
+     */
+    protected void setRetryAttempts(int retryAttempts) {
+        this.retryAttempts = retryAttempts;
+    }
+
+    /**
+     * @return comma separated exit codes that are retried
+     */
+    protected String getRetryCodes() {
+        return this.retryCodes;
+    }
+
+    /**
+     * @param retryCodes comma separated exit codes that are retried, null for every non zero exit code
+     */
+    protected void setRetryCodes(String retryCodes) {
+        this.retryCodes = retryCodes;
+    }
+
+    /**
+     * @return true if every run is written to a segment of its own
+     */
+    protected boolean isSegments() {
+        return this.segments;
+    }
+
+    /**
+     * @param segments true to write every run to a segment of its own instead of appending to the command log
+     */
+    protected void setSegments(boolean segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * @return comma separated names of the upstream jobs
+     */
+    protected String getAfter() {
+        return this.after;
+    }
+
+    /**
+     * @param after comma separated names of the upstream jobs, null for a job spawned on its schedule
+     */
+    protected void setAfter(String after) {
+        this.after = after;
+    }
+
+    /**
+     * @return delay before the first retry
+     */
+    protected Duration getRetryDelay() {
+        return this.retryDelay;
+    }
+
+    /**
+     * @param retryDelay delay before the first retry, null for one time factor unit
+     */
+    protected void setRetryDelay(Duration retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * @return max delay between retries
+     */
+    protected Duration getRetryMaxDelay() {
+        return this.retryMaxDelay;
+    }
+
+    /**
+     * @param retryMaxDelay max delay between retries, zero for the spawn interval
+     */
+    protected void setRetryMaxDelay(Duration retryMaxDelay) {
+        this.retryMaxDelay = retryMaxDelay;
+    }
+
+    /**
+     * @return consecutive failures that open the circuit breaker
+     */
+    protected int getBreakerThreshold() {
+        return this.breakerThreshold;
+    }
+
+    /**
+     * @param breakerThreshold consecutive failures that open the circuit breaker, 0 to never open it
+     */
+    protected void setBreakerThreshold(int breakerThreshold) {
+        this.breakerThreshold = breakerThreshold;
+    }
+
+    /**
+     * @return time the circuit breaker stays open
+     */
+    protected Duration getBreakerCooldown() {
+        return this.breakerCooldown;
+    }
+
+    /**
+     * @param breakerCooldown time the circuit breaker stays open, zero for the spawn interval
+     */
+    protected void setBreakerCooldown(Duration breakerCooldown) {
+        this.breakerCooldown = breakerCooldown;
+    }
+
+    /**
+     * @return command starting the worker, null if the command is spawned
+     */
+    protected String getWorker() {
+        return this.worker;
+    }
+
+    /**
+     * @param worker command starting a long lived worker that runs the job command, null to spawn the command
+     */
+    protected void setWorker(String worker) {
+        this.worker = worker;
+    }
+
+    /**
+     * @return number of runs after which the worker is recycled
+     */
+    protected int getWorkerRuns() {
+        return this.workerRuns;
+    }
+
+    /**
+     * @param workerRuns number of runs after which the worker is recycled, 0 for no limit
+     */
+    protected void setWorkerRuns(int workerRuns) {
+        this.workerRuns = workerRuns;
+    }
+
+    /**
+     * @return resident memory in bytes above which the worker is recycled
+     */
+    protected long getWorkerMaxRss() {
+        return this.workerMaxRss;
+    }
+
+    /**
+     * @param workerMaxRss resident memory in bytes above which the worker is recycled, 0 for no limit
+     */
+    protected void setWorkerMaxRss(long workerMaxRss) {
+        this.workerMaxRss = workerMaxRss;
+    }
+
+    /**
+     * @return max run time
+     */
+    protected Duration getTimeout() {
+        return this.timeout;
+    }
+
+    /**
+     * @param timeout max run time after which the run is terminated, zero for no limit
+     */
+    protected void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return time between SIGTERM and SIGKILL of a timed out run
+     */
+    protected Duration getKillGrace() {
+        return this.killGrace;
+    }
+
+    /**
+     * @param killGrace time between SIGTERM and SIGKILL of a timed out run, zero for the default
+     */
+    protected void setKillGrace(Duration killGrace) {
+        this.killGrace = killGrace;
+    }
+
+    /**
+     * @return interval in milli seconds at which a run is sampled
+     */
+    protected long getSampleInterval() {
+        return this.sampleInterval;
+    }
+
+    /**
+     * @param sampleInterval interval in milli seconds at which cpu, memory and I/O of a run are sampled, 0 to not sample
+     */
+    protected void setSampleInterval(long sampleInterval) {
+        this.sampleInterval = sampleInterval;
+    }
+
+    /**
+     * @return resident memory in bytes above which a warning is logged
+     */
+    protected long getMemorySoftLimit() {
+        return this.memorySoftLimit;
+    }
+
+    /**
+     * @param memorySoftLimit resident memory in bytes above which a warning is logged, 0 for no limit
+     */
+    protected void setMemorySoftLimit(long memorySoftLimit) {
+        this.memorySoftLimit = memorySoftLimit;
+    }
+
+    /**
+     * @return resident memory in bytes above which the run is terminated
+     */
+    protected long getMemoryHardLimit() {
+        return this.memoryHardLimit;
+    }
+
+    /**
+     * @param memoryHardLimit resident memory in bytes above which the run is terminated, 0 for no limit
+     */
+    protected void setMemoryHardLimit(long memoryHardLimit) {
+        this.memoryHardLimit = memoryHardLimit;
+    }
+
+    /**
+     * @return overlap policy
+     */
+    protected String getOverlap() {
+        return this.overlap;
+    }
+
+    /**
+     * @param overlap overlap policy forbid, skip, queue or allow
+     * @throws IllegalArgumentException for an unknown overlap policy
+     */
+    protected void setOverlap(String overlap) {
+        switch (overlap) {
+            case OVERLAP_FORBID:
+            case OVERLAP_SKIP:
+            case OVERLAP_QUEUE:
+            case OVERLAP_ALLOW:
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid overlap policy " + overlap);
+        }
+        this.overlap = overlap;
+    }
+
+    /**
+     * @return max number of runs in flight at the same time under the allow policy
+     */
+    protected int getInstances() {
+        return this.instances;
+    }
+
+    /**
+     * @param instances max number of runs in flight at the same time under the allow policy
+     * @throws IllegalArgumentException if not positive
+     */
+    protected void setInstances(int instances) {
+        if (instances < 1) {
+            throw new IllegalArgumentException("Invalid number of instances " + instances);
+        }
+        this.instances = instances;
+    }
+}
@@ -0,0 +1,444 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Reads job definitions from a properties file
+ * every job is described by keys of the form job.&lt;name&gt;.&lt;option&gt;
+ * options not given for a job fall back to the daemon command line values
+ * intervals and sizes are plain numbers in time and size factor units or carry their own unit, see PdiUnits
+ * the daemon watches the file and applies changes without a restart, see PdiConfigWatcher
+ *
+ * <pre>
+ * concurrency=4
+ * threads=virtual
+ * controlSocket=/var/run/pdi/pdi_control.sock
+ * logFormat=json
+ * logLimit=4GiB
+ * logRollover=P1D
+ * job.archive.command=/opt/di/kitchen.sh -file=archive.kjb
+ * job.archive.spawn=60
+ * job.archive.wait=10
+ * job.archive.timeFactor=m
+ * job.archive.schedule=rate
+ * job.archive.misfire=once
+ * job.nightly.cron=30 2 * * *
+ * job.poll.spawn=PT250MS
+ * job.monthly.spawn=P30D
+ * job.aggregate.after=archive,extract
+ * job.refresh.schedule=adaptive
+ * job.refresh.dutyCycle=25
+ * job.refresh.freshness=15
+ * job.refresh.spawnMin=1
+ * job.refresh.spawnMax=30
+ * job.archive.logFolder=/tmp/logs
+ * job.archive.logName=archive_output.log
+ * job.archive.output=prefix
+ * job.archive.segments=true
+ * job.archive.retryAttempts=3
+ * job.archive.retryCodes=1,2
+ * job.archive.retryDelay=1
+ * job.archive.retryMaxDelay=10
+ * job.archive.breakerThreshold=5
+ * job.archive.breakerCooldown=60
+ * job.archive.overlap=allow
+ * job.archive.instances=3
+ * job.archive.timeout=30
+ * job.archive.killGrace=1
+ * job.archive.sampleInterval=500
+ * job.archive.memorySoftLimit=1024
+ * job.archive.memoryHardLimit=2048
+ * job.archive.worker=/opt/di/pdi-worker.sh
+ * job.archive.workerRuns=100
+ * job.archive.workerMaxRss=512
+ * </pre>
+ */
+public class PdiJobConfig {
+    /**
+     * prefix of every job key
+     */
+    public static final String JOB_PREFIX = "job.";
+
+    /**
+     * key for the max number of jobs running at the same time
+     */
+    public static final String KEY_CONCURRENCY = "concurrency";
+
+    /**
+     * key for the thread mode of the runs
+     */
+    public static final String KEY_THREADS = "threads";
+
+    /**
+     * key for the size at which logs are rotated in size factor units
+     */
+    public static final String KEY_LOG_LIMIT = "logLimit";
+
+    /**
+     * key for the path of the control socket, empty for no control socket
+     */
+    public static final String KEY_CONTROL_SOCKET = "controlSocket";
+
+    /**
+     * key for the format of the daemon log
+     */
+    public static final String KEY_LOG_FORMAT = "logFormat";
+
+    /**
+     * key for the interval the daemon log is rolled over at
+     */
+    public static final String KEY_LOG_ROLLOVER = "logRollover";
+
+    /**
+     * job option keys
+     */
+    public static final String KEY_COMMAND = "command";
+    public static final String KEY_SPAWN = "spawn";
+    public static final String KEY_WAIT = "wait";
+    public static final String KEY_TIME_FACTOR = "timeFactor";
+    public static final String KEY_LOG_FOLDER = "logFolder";
+    public static final String KEY_LOG_NAME = "logName";
+    public static final String KEY_SCHEDULE = "schedule";
+    public static final String KEY_CRON = "cron";
+    public static final String KEY_MISFIRE = "misfire";
+    public static final String KEY_SPAWN_MIN = "spawnMin";
+    public static final String KEY_SPAWN_MAX = "spawnMax";
+    public static final String KEY_DUTY_CYCLE = "dutyCycle";
+    public static final String KEY_FRESHNESS = "freshness";
+    public static final String KEY_OUTPUT = "output";
+    public static final String KEY_SEGMENTS = "segments";
+    public static final String KEY_RETRY_ATTEMPTS = "retryAttempts";
+    public static final String KEY_RETRY_CODES = "retryCodes";
+    public static final String KEY_AFTER = "after";
+    public static final String KEY_RETRY_DELAY = "retryDelay";
+    public static final String KEY_RETRY_MAX_DELAY = "retryMaxDelay";
+    public static final String KEY_BREAKER_THRESHOLD = "breakerThreshold";
+    public static final String KEY_BREAKER_COOLDOWN = "breakerCooldown";
+    public static final String KEY_OVERLAP = "overlap";
+    public static final String KEY_INSTANCES = "instances";
+    public static final String KEY_TIMEOUT = "timeout";
+    public static final String KEY_KILL_GRACE = "killGrace";
+    public static final String KEY_SAMPLE_INTERVAL = "sampleInterval";
+    public static final String KEY_MEMORY_SOFT_LIMIT = "memorySoftLimit";
+    public static final String KEY_MEMORY_HARD_LIMIT = "memoryHardLimit";
+    public static final String KEY_WORKER = "worker";
+    public static final String KEY_WORKER_RUNS = "workerRuns";
+    public static final String KEY_WORKER_MAX_RSS = "workerMaxRss";
+
+    /**
+     * suffix of the default command log name of a job
+     */
+    public static final String LOG_NAME_SUFFIX = "_" + PdiDaemon.COMMAND_LOG_NAME;
+
+    /**
+     * config file name
+     */
+    private String fileName;
+
+    /**
+     * max number of jobs running at the same time
+     */
+    private int concurrency;
+
+    /**
+     * thread mode of the runs
+     */
+    private String threads;
+
+    /**
+     * size in bytes at which logs are rotated
+     */
+    private long logLimit;
+
+    /**
+     * path of the control socket, null for the socket in the log folder, empty for no control socket
+     */
+    private String controlSocket;
+
+    /**
+     * format of the daemon log text or json
+     */
+    private String logFormat;
+
+    /**
+     * interval the daemon log is rolled over at, zero to roll it over by size only
+     */
+    private Duration logRollover;
+
+    /**
+     * options of every job as written in the config file by job name
+     */
+    private Map<String, Properties> jobOptions = new TreeMap<>();
+
+    /**
+     * jobs read from the config file sorted by name
+     */
+    private List<PdiJob> jobs = new ArrayList<>();
+
+    /**
+     * Constructor
+     *
+     * @param fileName config file name
+     */
+    public PdiJobConfig(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * loads the config file, the daemon supplies default values
+     *
+     * @param daemon daemon holding the command line values
+     * @throws IOException if the file cannot be read
+     */
+    public void load(PdiDaemon daemon) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = new FileReader(this.getFileName())) {
+            properties.load(reader);
+        }
+
+        Map<String, Properties> jobOptions = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.startsWith(JOB_PREFIX)) {
+                continue;
+            }
+            int optionIndex = key.lastIndexOf('.');
+            if (optionIndex <= JOB_PREFIX.length()) {
+                throw new IOException("Invalid job key " + key);
+            }
+            String name = key.substring(JOB_PREFIX.length(), optionIndex);
+            String option = key.substring(optionIndex + 1);
+            jobOptions.computeIfAbsent(name, n -> new Properties()).setProperty(option, properties.getProperty(key));
+        }
+
+        List<PdiJob> jobs = new ArrayList<>();
+        for (Map.Entry<String, Properties> entry : jobOptions.entrySet()) {
+            jobs.add(this.createJob(entry.getKey(), entry.getValue(), daemon));
+        }
+        checkDependencies(jobs);
+
+        this.concurrency = Integer.parseInt(properties.getProperty(KEY_CONCURRENCY,
+                String.valueOf(daemon.getConcurrency())));
+        this.threads = properties.getProperty(KEY_THREADS, daemon.getThreads());
+        this.logLimit = bytes(properties, KEY_LOG_LIMIT, daemon.getSizeFactor(), daemon.getCommandLineLogLimit());
+        this.controlSocket = properties.getProperty(KEY_CONTROL_SOCKET, daemon.getControlSocket());
+        this.logFormat = properties.getProperty(KEY_LOG_FORMAT, daemon.getLogFormat());
+        if (!PdiLogWriter.FORMAT_TEXT.equals(this.logFormat) && !PdiLogWriter.FORMAT_JSON.equals(this.logFormat)) {
+            // fails at load time so a reload with an invalid format keeps the running config
+            throw new IllegalArgumentException("Invalid log format " + this.logFormat);
+        }
+        this.logRollover = duration(properties, KEY_LOG_ROLLOVER, daemon.getTimeFactor(), daemon.getLogRollover());
+        this.jobOptions = jobOptions;
+        this.jobs = jobs;
+    }
+
+    /**
+     * checks that every upstream job exists and that the jobs do not depend on each other in a cycle
+     *
+     * @param jobs jobs read from the config file
+     * @throws IllegalArgumentException for an unknown upstream job or a cycle
+     */
+    protected static void checkDependencies(List<PdiJob> jobs) {
+        Map<String, List<String>> upstreamJobs = new HashMap<>();
+        for (PdiJob job : jobs) {
+            upstreamJobs.put(job.getName(), job.getUpstreamJobs());
+        }
+        for (Map.Entry<String, List<String>> entry : upstreamJobs.entrySet()) {
+            for (String upstream : entry.getValue()) {
+                if (!upstreamJobs.containsKey(upstream)) {
+                    throw new IllegalArgumentException("Job " + entry.getKey() + " runs after unknown job " + upstream);
+                }
+            }
+        }
+        // depth first search, a job found again while it is on the path closes a cycle
+        Map<String, Boolean> onPath = new HashMap<>();
+        for (String name : upstreamJobs.keySet()) {
+            checkCycle(name, upstreamJobs, onPath, new ArrayList<>());
+        }
+    }
+
+    /**
+     * @param name         job to be searched from
+     * @param upstreamJobs upstream jobs by job name
+     * @param onPath       true for the jobs on the current path, false for the jobs already searched
+     * @param path         jobs on the current path
+     * @throws IllegalArgumentException for a cycle
+     */
+    private static void checkCycle(String name, Map<String, List<String>> upstreamJobs, Map<String, Boolean> onPath,
+                                   List<String> path) {
+        Boolean state = onPath.get(name);
+        if (Boolean.FALSE.equals(state)) {
+            return;
+        }
+        path.add(name);
+        if (Boolean.TRUE.equals(state)) {
+            List<String> cycle = path.subList(path.indexOf(name), path.size());
+            throw new IllegalArgumentException("Job dependency cycle " + String.join(" <- ", cycle));
+        }
+        onPath.put(name, true);
+        for (String upstream : upstreamJobs.get(name)) {
+            checkCycle(upstream, upstreamJobs, onPath, path);
+        }
+        onPath.put(name, false);
+        path.remove(path.size() - 1);
+    }
+
+    /**
+     * creates a job from its options
+     *
+     * @param name    name of the job
+     * @param options options of the job
+     * @param daemon  daemon holding the default values
+     * @return job definition
+     * @throws IOException if the job has no command
+     */
+    private PdiJob createJob(String name, Properties options, PdiDaemon daemon) throws IOException {
+        String command = options.getProperty(KEY_COMMAND);
+        if (command == null) {
+            throw new IOException("Job " + name + " has no " + KEY_COMMAND);
+        }
+        PdiJob job = new PdiJob(name, command);
+        job.setTimeFactor(options.getProperty(KEY_TIME_FACTOR, daemon.getTimeFactorKey()));
+        long timeFactor = job.getTimeFactor();
+        job.setSpawnTime(duration(options, KEY_SPAWN, timeFactor, daemon.getSpawnTime()));
+        job.setWaitTime(duration(options, KEY_WAIT, timeFactor, daemon.getWaitTime()));
+        job.setLogFolder(options.getProperty(KEY_LOG_FOLDER, daemon.getLogFolder()));
+        job.setLogName(options.getProperty(KEY_LOG_NAME, name + LOG_NAME_SUFFIX));
+        job.setCron(options.getProperty(KEY_CRON, daemon.getCron()));
+        String scheduleMode = job.getCron() != null ? PdiSchedule.MODE_CRON : daemon.getScheduleMode();
+        job.setScheduleMode(options.getProperty(KEY_SCHEDULE, scheduleMode));
+        job.setMisfire(options.getProperty(KEY_MISFIRE, daemon.getMisfire()));
+        job.setSpawnMin(duration(options, KEY_SPAWN_MIN, timeFactor, job.getSpawnMin()));
+        job.setSpawnMax(duration(options, KEY_SPAWN_MAX, timeFactor, job.getSpawnMax()));
+        job.setDutyCycle(Integer.parseInt(options.getProperty(KEY_DUTY_CYCLE, String.valueOf(job.getDutyCycle()))));
+        job.setFreshness(duration(options, KEY_FRESHNESS, timeFactor, job.getFreshness()));
+        job.setOutputMode(options.getProperty(KEY_OUTPUT, daemon.getOutputMode()));
+        job.setSegments(Boolean.parseBoolean(options.getProperty(KEY_SEGMENTS, "false")));
+        job.setRetryAttempts(Integer.parseInt(options.getProperty(KEY_RETRY_ATTEMPTS, String.valueOf(daemon.getRetryAttempts()))));
+        job.setRetryCodes(options.getProperty(KEY_RETRY_CODES));
+        job.setAfter(options.getProperty(KEY_AFTER));
+        job.setRetryDelay(duration(options, KEY_RETRY_DELAY, timeFactor, job.getRetryDelay()));
+        job.setRetryMaxDelay(duration(options, KEY_RETRY_MAX_DELAY, timeFactor, job.getRetryMaxDelay()));
+        job.setBreakerThreshold(Integer.parseInt(options.getProperty(KEY_BREAKER_THRESHOLD, String.valueOf(job.getBreakerThreshold()))));
+        job.setBreakerCooldown(duration(options, KEY_BREAKER_COOLDOWN, timeFactor, job.getBreakerCooldown()));
+        job.setOverlap(options.getProperty(KEY_OVERLAP, daemon.getOverlap()));
+        job.setInstances(Integer.parseInt(options.getProperty(KEY_INSTANCES, String.valueOf(daemon.getInstances()))));
+        job.setTimeout(duration(options, KEY_TIMEOUT, timeFactor, daemon.getTimeout()));
+        job.setKillGrace(duration(options, KEY_KILL_GRACE, timeFactor, job.getKillGrace()));
+        // the sample interval is in milli seconds whatever the time factor
+        job.setSampleInterval(duration(options, KEY_SAMPLE_INTERVAL, 1, Duration.ZERO).toMillis());
+        job.setMemorySoftLimit(bytes(options, KEY_MEMORY_SOFT_LIMIT, daemon.getSizeFactor(), 0));
+        job.setMemoryHardLimit(bytes(options, KEY_MEMORY_HARD_LIMIT, daemon.getSizeFactor(), 0));
+        job.setWorker(options.getProperty(KEY_WORKER, daemon.getWorker()));
+        job.setWorkerRuns(Integer.parseInt(options.getProperty(KEY_WORKER_RUNS, String.valueOf(job.getWorkerRuns()))));
+        job.setWorkerMaxRss(bytes(options, KEY_WORKER_MAX_RSS, daemon.getSizeFactor(), 0));
+        // fails at load time on invalid schedule, retry and overlap options
+        job.createSchedule();
+        job.createRetryPolicy();
+        job.checkOverlap();
+        return job;
+    }
+
+    /**
+     * @param options      options of a job or top level options
+     * @param key          option key
+     * @param timeFactor   time factor value in milli seconds of plain numbers
+     * @param defaultValue interval if the option is not given
+     * @return interval given by the option
+     * @throws IllegalArgumentException for an invalid interval
+     */
+    private static Duration duration(Properties options, String key, long timeFactor, Duration defaultValue) {
+        String value = options.getProperty(key);
+        return value == null ? defaultValue : PdiUnits.parseDuration(value, timeFactor);
+    }
+
+    /**
+     * @param options      options of a job or top level options
+     * @param key          option key
+     * @param sizeFactor   size factor value in bytes of plain numbers
+     * @param defaultValue size in bytes if the option is not given
+     * @return size in bytes given by the option
+     * @throws IllegalArgumentException for an invalid size
+     */
+    private static long bytes(Properties options, String key, long sizeFactor, long defaultValue) {
+        String value = options.getProperty(key);
+        return value == null ? defaultValue : PdiUnits.parseBytes(value, sizeFactor);
+    }
+
+    /**
+     * @return config file name
+     */
+    protected String getFileName() {
+        return this.fileName;
+    }
+
+    /**
+     * @return max number of jobs running at the same time
+     */
+    protected int getConcurrency() {
+        return this.concurrency;
+    }
+
+    /**
+     * @return thread mode of the runs
+     */
+    protected String getThreads() {
+        return this.threads;
+    }
+
+    /**
+     * @return size in bytes at which logs are rotated
+     */
+    protected long getLogLimit() {
+        return this.logLimit;
+    }
+
+    /**
+     * @return path of the control socket, null for the socket in the log folder, empty for no control socket
+     */
+    protected String getControlSocket() {
+        return this.controlSocket;
+    }
+
+    /**
+     * @return format of the daemon log text or json
+     */
+    protected String getLogFormat() {
+        return this.logFormat;
+    }
+
+    /**
+     * @return interval the daemon log is rolled over at, zero to roll it over by size only
+     */
+    protected Duration getLogRollover() {
+        return this.logRollover;
+    }
+
+    /**
+     * @param name name of the job
+     * @return options of the job as written in the config file, null if there is no such job
+     */
+    protected Properties getJobOptions(String name) {
+        return this.jobOptions.get(name);
+    }
+
+    /**
+     * @return jobs read from the config file
+     */
+    protected List<PdiJob> getJobs() {
+        return this.jobs;
+    }
+}
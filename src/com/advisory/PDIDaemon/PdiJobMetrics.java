@@ -0,0 +1,315 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of a single job
+ */
+public class PdiJobMetrics implements PdiJobMetricsMXBean {
+    /**
+     * name of the job
+     */
+    private final String job;
+
+    /**
+     * number of runs spawned
+     */
+    private final LongAdder runs = new LongAdder();
+
+    /**
+     * number of runs that exited with a non zero exit code
+     */
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * exit code of the last completed run
+     */
+    private final AtomicInteger lastExitCode = new AtomicInteger(-1);
+
+    /**
+     * number of output bytes written by the daemon
+     */
+    private final LongAdder outputBytes = new LongAdder();
+
+    /**
+     * number of command log rotations
+     */
+    private final LongAdder rotations = new LongAdder();
+
+    /**
+     * number of ticks that found the previous run still in flight
+     */
+    private final LongAdder waitTicks = new LongAdder();
+
+    /**
+     * number of runs terminated after exceeding the timeout
+     */
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * number of runs terminated after exceeding the memory hard limit
+     */
+    private final LongAdder memoryKills = new LongAdder();
+
+    /**
+     * cpu time in milli seconds used by the sampled runs
+     */
+    private final LongAdder cpuMillis = new LongAdder();
+
+    /**
+     * peak resident memory in bytes of the last sampled run
+     */
+    private final AtomicLong lastPeakRss = new AtomicLong();
+
+    /**
+     * bytes read from storage by the sampled runs
+     */
+    private final LongAdder readBytes = new LongAdder();
+
+    /**
+     * bytes written to storage by the sampled runs
+     */
+    private final LongAdder writeBytes = new LongAdder();
+
+    /**
+     * time to start the process
+     */
+    private final PdiHistogram spawnLatency = new PdiHistogram();
+
+    /**
+     * time from start to exit of the process
+     */
+    private final PdiHistogram runDuration = new PdiHistogram();
+
+    /**
+     * delay between the due time and the tick
+     */
+    private final PdiHistogram scheduleLag = new PdiHistogram();
+
+    /**
+     * time a due spawn waited for the previous run
+     */
+    private final PdiHistogram waitDuration = new PdiHistogram();
+
+    /**
+     * Constructor
+     *
+     * @param job name of the job
+     */
+    public PdiJobMetrics(String job) {
+        this.job = job;
+    }
+
+    /**
+     * @param nanos time it took to start the process
+     */
+    public void recordSpawn(long nanos) {
+        this.runs.increment();
+        this.spawnLatency.record(nanos);
+    }
+
+    /**
+     * @param nanos    run duration
+     * @param exitCode exit code of the process
+     */
+    public void recordExit(long nanos, int exitCode) {
+        this.runDuration.record(nanos);
+        this.lastExitCode.set(exitCode);
+        if (exitCode != 0) {
+            this.failures.increment();
+        }
+    }
+
+    /**
+     * @param nanos delay between the due time and the tick
+     */
+    public void recordScheduleLag(long nanos) {
+        this.scheduleLag.record(nanos);
+    }
+
+    /**
+     * counts a tick that found the previous run still in flight
+     */
+    public void recordWaitTick() {
+        this.waitTicks.increment();
+    }
+
+    /**
+     * @param nanos time a due spawn waited for the previous run
+     */
+    public void recordWait(long nanos) {
+        this.waitDuration.record(nanos);
+    }
+
+    /**
+     * counts a run terminated after exceeding the timeout
+     */
+    public void recordTimeout() {
+        this.timeouts.increment();
+    }
+
+    /**
+     * counts a run terminated after exceeding the memory hard limit
+     */
+    public void recordMemoryKill() {
+        this.memoryKills.increment();
+    }
+
+    /**
+     * @param sampler resource usage of a completed run
+     */
+    public void recordUsage(PdiProcessSampler sampler) {
+        this.cpuMillis.add(sampler.getCpuMillis());
+        this.lastPeakRss.set(sampler.getPeakRss());
+        this.readBytes.add(sampler.getReadBytes());
+        this.writeBytes.add(sampler.getWriteBytes());
+    }
+
+    /**
+     * @param bytes output bytes written by the daemon
+     */
+    public void recordOutput(long bytes) {
+        this.outputBytes.add(bytes);
+    }
+
+    /**
+     * counts a command log rotation
+     */
+    public void recordRotation() {
+        this.rotations.increment();
+    }
+
+    /**
+     * @return labels identifying the job in the prometheus text format
+     */
+    protected String getLabels() {
+        return "job=\"" + this.job.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * @return time to start the process
+     */
+    protected PdiHistogram getSpawnLatency() {
+        return this.spawnLatency;
+    }
+
+    /**
+     * @return time from start to exit of the process
+     */
+    protected PdiHistogram getRunDuration() {
+        return this.runDuration;
+    }
+
+    /**
+     * @return delay between the due time and the tick
+     */
+    protected PdiHistogram getScheduleLag() {
+        return this.scheduleLag;
+    }
+
+    /**
+     * @return time a due spawn waited for the previous run
+     */
+    protected PdiHistogram getWaitDuration() {
+        return this.waitDuration;
+    }
+
+    /**
+     * @return name of the job
+     */
+    protected String getJob() {
+        return this.job;
+    }
+
+    @Override
+    public long getRuns() {
+        return this.runs.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return this.failures.sum();
+    }
+
+    @Override
+    public int getLastExitCode() {
+        return this.lastExitCode.get();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return this.timeouts.sum();
+    }
+
+    @Override
+    public long getMemoryKills() {
+        return this.memoryKills.sum();
+    }
+
+    @Override
+    public long getCpuMillis() {
+        return this.cpuMillis.sum();
+    }
+
+    @Override
+    public long getLastPeakRss() {
+        return this.lastPeakRss.get();
+    }
+
+    @Override
+    public long getReadBytes() {
+        return this.readBytes.sum();
+    }
+
+    @Override
+    public long getWriteBytes() {
+        return this.writeBytes.sum();
+    }
+
+    @Override
+    public long getOutputBytes() {
+        return this.outputBytes.sum();
+    }
+
+    @Override
+    public long getRotations() {
+        return this.rotations.sum();
+    }
+
+    @Override
+    public long getWaitTicks() {
+        return this.waitTicks.sum();
+    }
+
+    @Override
+    public double getSpawnLatencyMeanMillis() {
+        return this.spawnLatency.getMeanMillis();
+    }
+
+    @Override
+    public double getRunDurationMeanMillis() {
+        return this.runDuration.getMeanMillis();
+    }
+
+    @Override
+    public double getRunDurationMaxMillis() {
+        return this.runDuration.getMaxMillis();
+    }
+
+    @Override
+    public double getScheduleLagMeanMillis() {
+        return this.scheduleLag.getMeanMillis();
+    }
+
+    @Override
+    public double getWaitMeanMillis() {
+        return this.waitDuration.getMeanMillis();
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+/**
+ * JMX view of the metrics of a job
+ */
+public interface PdiJobMetricsMXBean {
+    /**
+     * @return number of runs spawned
+     */
+    long getRuns();
+
+    /**
+     * @return number of runs that exited with a non zero exit code
+     */
+    long getFailures();
+
+    /**
+     * @return exit code of the last completed run, -1 before the first run completed
+     */
+    int getLastExitCode();
+
+    /**
+     * @return number of output bytes written by the daemon for the job
+     */
+    long getOutputBytes();
+
+    /**
+     * @return number of command log rotations
+     */
+    long getRotations();
+
+    /**
+     * @return number of ticks that found the previous run still in flight
+     */
+    long getWaitTicks();
+
+    /**
+     * @return number of runs terminated after exceeding the timeout
+     */
+    long getTimeouts();
+
+    /**
+     * @return number of runs terminated after exceeding the memory hard limit
+     */
+    long getMemoryKills();
+
+    /**
+     * @return cpu time in milli seconds used by the sampled runs
+     */
+    long getCpuMillis();
+
+    /**
+     * @return peak resident memory in bytes of the last sampled run
+     */
+    long getLastPeakRss();
+
+    /**
+     * @return bytes read from storage by the sampled runs
+     */
+    long getReadBytes();
+
+    /**
+     * @return bytes written to storage by the sampled runs
+     */
+    long getWriteBytes();
+
+    /**
+     * @return mean time in milli seconds to start the process
+     */
+    double getSpawnLatencyMeanMillis();
+
+    /**
+     * @return mean run duration in milli seconds
+     */
+    double getRunDurationMeanMillis();
+
+    /**
+     * @return longest run duration in milli seconds
+     */
+    double getRunDurationMaxMillis();
+
+    /**
+     * @return mean delay in milli seconds between the due time and the tick
+     */
+    double getScheduleLagMeanMillis();
+
+    /**
+     * @return mean time in milli seconds a due spawn waited for the previous run
+     */
+    double getWaitMeanMillis();
+}
@@ -0,0 +1,1003 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Supervises a single job on behalf of the scheduler
+ * when the job is due it is dispatched to the worker pool unless the previous run is still in flight,
+ * in which case the overlap policy of the job decides whether the supervisor waits for the run to complete,
+ * skips the spawn or queues it until the run completes
+ * due times come from the schedule of the job and are kept on the monotonic clock
+ *
+ * every instance of the job that may be in flight at the same time has its own runnable
+ *
+ * a job with upstream jobs has no ticks, it is spawned once every upstream job has succeeded since its previous spawn
+ */
+public class PdiJobSupervisor implements Runnable {
+    /**
+     * log message for spawn wait time
+     */
+    public static final String MESSAGE_SPAWN_WAIT = "[%s] Waiting %d milliseconds to spawn\n\n";
+
+    /**
+     * log message for waiting on the previous run
+     */
+    public static final String MESSAGE_WAIT_FOR_PROCESS = "[%s] Waiting %d milliseconds to complete previous process\n\n";
+
+    /**
+     * log message for a failed run that is retried
+     */
+    public static final String MESSAGE_RETRY = "[%s] Run failed with exit code %d, retry %d of %d in %d milliseconds\n";
+
+    /**
+     * log message for a failed run that is not retried
+     */
+    public static final String MESSAGE_FAILED = "[%s] Run failed with exit code %d, %d failures in a row\n";
+
+    /**
+     * log message for an opened circuit breaker
+     */
+    public static final String MESSAGE_BREAKER_OPEN = "[%s] Circuit breaker open after %d failures in a row, no spawn for %d milliseconds\n";
+
+    /**
+     * log message for a spawn skipped by the open circuit breaker
+     */
+    public static final String MESSAGE_BREAKER_SKIP = "[%s] Circuit breaker open, skipping spawn\n";
+
+    /**
+     * log message for a run that exceeded its timeout
+     */
+    public static final String MESSAGE_TIMEOUT = "[%s] Run %d exceeded the timeout of %d milliseconds, terminating it\n";
+
+    /**
+     * log message for a run that cannot be written to the journal
+     */
+    public static final String MESSAGE_JOURNAL_FAILED = "[%s] Cannot write run %d to the journal: %s\n";
+
+    /**
+     * log message for the resource usage of a sampled run
+     */
+    public static final String MESSAGE_USAGE = "[%s] Run %d used %d milliseconds of cpu, peak memory %d bytes, read %d bytes, wrote %d bytes\n";
+
+    /**
+     * log message for a run above the memory soft limit
+     */
+    public static final String MESSAGE_MEMORY_SOFT = "[%s] Run %d uses %d bytes of memory, above the soft limit of %d bytes\n";
+
+    /**
+     * log message for a run above the memory hard limit
+     */
+    public static final String MESSAGE_MEMORY_HARD = "[%s] Run %d uses %d bytes of memory, above the hard limit of %d bytes, terminating it\n";
+
+    /**
+     * log message for a spawn skipped because a run is in flight
+     */
+    public static final String MESSAGE_OVERLAP_SKIP = "[%s] %d runs in flight, skipping spawn\n";
+
+    /**
+     * log message for a spawn queued until a run completes
+     */
+    public static final String MESSAGE_OVERLAP_QUEUED = "[%s] %d runs in flight, spawn queued until a run completes\n";
+
+    /**
+     * log message for a spawn coalesced into the spawn already queued
+     */
+    public static final String MESSAGE_OVERLAP_COALESCED = "[%s] %d runs in flight, spawn coalesced into the queued spawn\n";
+
+    /**
+     * log message for the interval chosen by an adaptive schedule
+     */
+    public static final String MESSAGE_ADAPTIVE = "[%s] Adaptive interval %d milliseconds for estimated run time %d milliseconds (deviation %d)\n";
+
+    /**
+     * log message for a spawn of a job whose upstream jobs have succeeded
+     */
+    public static final String MESSAGE_UPSTREAM = "[%s] Upstream jobs %s succeeded, spawning\n";
+
+    /**
+     * number of newest runs in the journal an adaptive schedule starts its estimate from
+     */
+    public static final int ADAPTIVE_HISTORY = 20;
+
+    /**
+     * event types of the json log format
+     */
+    public static final String EVENT_SPAWN_WAIT = "spawn_wait";
+    public static final String EVENT_PROCESS_WAIT = "process_wait";
+    public static final String EVENT_USAGE = "usage";
+
+    /**
+     * log message for a spawn that is due while the job is paused
+     */
+    public static final String MESSAGE_PAUSED_SKIP = "[%s] Paused, skipping spawn\n";
+
+    /**
+     * log message for a paused or resumed job
+     */
+    public static final String MESSAGE_PAUSED = "[%s] %s\n";
+
+    /**
+     * log message for a spawn triggered on the control channel
+     */
+    public static final String MESSAGE_TRIGGERED = "[%s] Triggered, spawning\n";
+
+    /**
+     * log message for runs killed on the control channel
+     */
+    public static final String MESSAGE_KILLED = "[%s] Terminating run %d on request\n";
+
+    /**
+     * job that is supervised
+     */
+    private final PdiJob job;
+
+    /**
+     * scheduler owning the timer and the worker pool
+     */
+    private final PdiScheduler scheduler;
+
+    /**
+     * runnables tracking the processes of the job, one per instance
+     */
+    private final List<PdiRunnable> runnables = new ArrayList<>();
+
+    /**
+     * runnables without a run in flight
+     */
+    private final Deque<PdiRunnable> idle = new ArrayDeque<>();
+
+    /**
+     * schedule deciding when the job is due
+     */
+    private final PdiSchedule schedule;
+
+    /**
+     * metrics of the job
+     */
+    private final PdiJobMetrics metrics;
+
+    /**
+     * policy deciding when failed runs are retried
+     */
+    private final PdiRetryPolicy retryPolicy;
+
+    /**
+     * number of retries done for the current failure
+     */
+    private int attempt = 0;
+
+    /**
+     * number of failed runs in a row
+     */
+    private int consecutiveFailures = 0;
+
+    /**
+     * true if the next tick is a retry rather than a scheduled spawn
+     */
+    private boolean retryPending = false;
+
+    /**
+     * true while the circuit breaker is open
+     */
+    private boolean breakerOpen = false;
+
+    /**
+     * nano time until which the circuit breaker is open
+     */
+    private long breakerOpenUntil;
+
+    /**
+     * nano time the first tick found the previous run still in flight
+     */
+    private long waitStart;
+
+    /**
+     * nano time of the first due time, grid of fixed rate schedules
+     */
+    private long anchor;
+
+    /**
+     * nano time the job is due next
+     */
+    private long due;
+
+    /**
+     * number of runs of the job dispatched to the worker pool
+     */
+    private int running = 0;
+
+    /**
+     * true while a spawn is queued until a run completes
+     */
+    private boolean queued = false;
+
+    /**
+     * next scheduled tick
+     */
+    private ScheduledFuture<?> nextTick = null;
+
+    /**
+     * true when a tick found the previous run still in flight
+     */
+    private boolean waiting = false;
+
+    /**
+     * true once the job is no longer supervised
+     */
+    private boolean stopped = false;
+
+    /**
+     * true while no spawn is due on the schedule or after the upstream jobs
+     */
+    private boolean paused = false;
+
+    /**
+     * upstream jobs that have succeeded since the previous spawn
+     */
+    private final Set<String> upstreamSucceeded = new HashSet<>();
+
+    /**
+     * supervisor replaced by this one after a config change, kept until its last run has completed
+     */
+    private PdiJobSupervisor predecessor = null;
+
+    /**
+     * Constructor
+     *
+     * @param job       job to be supervised
+     * @param scheduler scheduler owning the executors
+     */
+    public PdiJobSupervisor(PdiJob job, PdiScheduler scheduler) {
+        this.job = job;
+        this.scheduler = scheduler;
+        this.schedule = job.createSchedule();
+        this.retryPolicy = job.createRetryPolicy();
+        this.metrics = scheduler.getDaemon().getMetrics().register(job.getName());
+        if (PdiSchedule.MODE_ADAPTIVE.equals(job.getScheduleMode())) {
+            this.observeHistory();
+        }
+        for (int instance = 0; instance < job.getMaxInstances(); instance++) {
+            PdiRunnable runnable = this.createRunnable(instance);
+            this.runnables.add(runnable);
+            this.idle.add(runnable);
+        }
+    }
+
+    /**
+     * starts the estimate of an adaptive schedule from the runs of the job in the journal, oldest first
+     */
+    private void observeHistory() {
+        try {
+            List<PdiRunRecord> runs = this.scheduler.getDaemon().getJournal().last(this.getJob().getName(), ADAPTIVE_HISTORY);
+            for (int i = runs.size() - 1; i >= 0; i--) {
+                this.schedule.observe(runs.get(i).getDuration());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param instance index of the instance
+     * @return runnable tracking the processes of an instance of the job
+     */
+    private PdiRunnable createRunnable(int instance) {
+        PdiJob job = this.getJob();
+        PdiDaemon daemon = this.scheduler.getDaemon();
+        PdiRunnable runnable = new PdiRunnable(job.getCommand(), job.getCommandLogFile(instance));
+        runnable.setLogWriter(daemon.getLogWriter());
+        runnable.setArchiver(daemon.getArchiver());
+        runnable.setOutputMode(job.getOutputMode());
+        runnable.setMetrics(this.metrics);
+        if (job.isSegments()) {
+            runnable.setSegments(new PdiSegments(new File(job.getCommandLogFile(instance))));
+        }
+        if (job.getWorker() != null) {
+            PdiWorker worker = new PdiWorker(job.getWorker(), runnable.getWorkingDirectory(), daemon.getLogWriter());
+            worker.setMaxRuns(job.getWorkerRuns());
+            worker.setMaxRss(job.getWorkerMaxRss());
+            runnable.setWorker(worker);
+        }
+        return runnable;
+    }
+
+    /**
+     * starts supervising the job, the first run is spawned right away
+     */
+    public synchronized void start() {
+        this.start(null);
+    }
+
+    /**
+     * starts supervising the job in place of a supervisor of the previous definition of the job,
+     * the next spawn stays due when it was and waits for a run of the previous supervisor in flight
+     *
+     * @param predecessor supervisor that is replaced, null to spawn right away
+     */
+    public synchronized void start(PdiJobSupervisor predecessor) {
+        long now = System.nanoTime();
+        this.predecessor = predecessor;
+        if (predecessor != null && !PdiSchedule.MODE_CRON.equals(this.job.getScheduleMode())) {
+            this.due = predecessor.getDue();
+        } else {
+            this.due = this.schedule.firstDue(now);
+        }
+        this.anchor = this.due;
+        if (predecessor == null) {
+            this.adopt();
+        }
+        if (!this.isDownstream()) {
+            this.scheduleTick(this.due);
+        }
+    }
+
+    /**
+     * adopts the runs of the job left running by the previous daemon, they count against the instances of the job,
+     * only runs in file output mode are recorded for adoption
+     */
+    private void adopt() {
+        PdiStateFile state = this.scheduler.getDaemon().getState();
+        for (PdiRunnable runnable : this.runnables) {
+            String key = this.getStateKey(runnable);
+            ProcessHandle process = state.findRunning(key);
+            if (process == null) {
+                state.clear(key);
+                continue;
+            }
+            long startTime = state.getStartTime(key);
+            runnable.adopt(process, state.getRunId(key));
+            this.idle.remove(runnable);
+            this.running++;
+            this.scheduler.submit(() -> this.monitor(runnable, startTime));
+        }
+    }
+
+    /**
+     * stops supervising the job, runs in flight are left to complete, idle workers are stopped
+     * and busy workers are retired once their run is done, the call does not wait for either
+     */
+    public void stop() {
+        synchronized (this) {
+            this.stopped = true;
+            this.queued = false;
+            if (this.nextTick != null) {
+                this.nextTick.cancel(false);
+            }
+        }
+        for (PdiRunnable runnable : this.runnables) {
+            PdiWorker worker = runnable.getWorker();
+            if (worker != null) {
+                worker.stop();
+            }
+        }
+    }
+
+    /**
+     * tick of the job, dispatches a new run or applies the overlap policy when no run can be spawned
+     */
+    @Override
+    public synchronized void run() {
+        long now = System.nanoTime();
+        PdiDaemon daemon = this.scheduler.getDaemon();
+        PdiJob job = this.getJob();
+        if (this.retryPending) {
+            this.retryPending = false;
+            boolean dispatched = false;
+            if (this.paused) {
+                daemon.getLogWriter().writeLog(String.format(MESSAGE_PAUSED_SKIP, job.getName()));
+            } else if (this.canSpawn()) {
+                this.dispatch();
+                dispatched = true;
+            } else {
+                // a run of another instance is in flight, the retry follows it
+                this.queued = true;
+            }
+            if (!this.isDownstream() && !(dispatched && this.isFixedDelay())) {
+                this.scheduleTick(this.due);
+            }
+            return;
+        }
+        if (!this.waiting) {
+            this.metrics.recordScheduleLag(now - this.due);
+        }
+        if (!this.paused && !this.canSpawn() && PdiJob.OVERLAP_FORBID.equals(job.getOverlap())) {
+            if (!this.waiting) {
+                this.waitStart = now;
+            }
+            this.waiting = true;
+            this.metrics.recordWaitTick();
+            PdiLogWriter logWriter = daemon.getLogWriter();
+            if (logWriter.isStructured()) {
+                logWriter.event(EVENT_PROCESS_WAIT).field("job", job.getName()).field("delayMillis", job.getWaitMillis()).write();
+            } else {
+                logWriter.writeLog(String.format(MESSAGE_WAIT_FOR_PROCESS, job.getName(), job.getWaitMillis()));
+            }
+            this.scheduleTick(now + TimeUnit.MILLISECONDS.toNanos(job.getWaitMillis()));
+        } else {
+            if (this.waiting) {
+                this.metrics.recordWait(now - this.waitStart);
+            }
+            this.waiting = false;
+            if (this.paused) {
+                daemon.getLogWriter().writeLog(String.format(MESSAGE_PAUSED_SKIP, job.getName()));
+            } else if (this.breakerOpen && now - this.breakerOpenUntil < 0) {
+                daemon.getLogWriter().writeLog(String.format(MESSAGE_BREAKER_SKIP, job.getName()));
+            } else if (this.canSpawn()) {
+                this.dispatch();
+                if (this.isFixedDelay()) {
+                    // the next due time follows the completion of the run, see onRunCompleted
+                    this.nextTick = null;
+                    return;
+                }
+            } else {
+                this.overlap();
+            }
+            this.due = this.schedule.nextDue(this.anchor, this.due, now);
+            if (PdiSchedule.MODE_ADAPTIVE.equals(job.getScheduleMode())) {
+                long estimate = this.schedule.getEstimate();
+                String log = String.format(MESSAGE_ADAPTIVE, job.getName(), TimeUnit.NANOSECONDS.toMillis(this.due - now),
+                        estimate < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(estimate),
+                        TimeUnit.NANOSECONDS.toMillis(this.schedule.getDeviation()));
+                daemon.getLogWriter().writeLog(log);
+            }
+            this.logSpawnWait(now);
+            this.scheduleTick(this.due);
+        }
+    }
+
+    /**
+     * logs the time until the job is due
+     *
+     * @param now current nano time
+     */
+    private void logSpawnWait(long now) {
+        long delay = Math.max(0, TimeUnit.NANOSECONDS.toMillis(this.due - now));
+        PdiLogWriter logWriter = this.scheduler.getDaemon().getLogWriter();
+        if (logWriter.isStructured()) {
+            logWriter.event(EVENT_SPAWN_WAIT).field("job", this.getJob().getName()).field("delayMillis", delay).write();
+        } else {
+            logWriter.writeLog(String.format(MESSAGE_SPAWN_WAIT, this.getJob().getName(), delay));
+        }
+    }
+
+    /**
+     * spawns the job once every upstream job has succeeded since the previous spawn,
+     * a run still in flight is handled by the overlap policy, waiting for it queues the spawn
+     *
+     * @param name name of the upstream job that has succeeded
+     */
+    protected synchronized void onUpstreamSucceeded(String name) {
+        PdiJob job = this.getJob();
+        if (this.stopped) {
+            return;
+        }
+        this.upstreamSucceeded.add(name);
+        List<String> upstreamJobs = job.getUpstreamJobs();
+        if (!this.upstreamSucceeded.containsAll(upstreamJobs)) {
+            return;
+        }
+        this.upstreamSucceeded.clear();
+        PdiLogWriter logWriter = this.scheduler.getDaemon().getLogWriter();
+        if (this.paused) {
+            logWriter.writeLog(String.format(MESSAGE_PAUSED_SKIP, job.getName()));
+        } else if (this.breakerOpen && System.nanoTime() - this.breakerOpenUntil < 0) {
+            logWriter.writeLog(String.format(MESSAGE_BREAKER_SKIP, job.getName()));
+        } else if (this.canSpawn()) {
+            logWriter.writeLog(String.format(MESSAGE_UPSTREAM, job.getName(), String.join(", ", upstreamJobs)));
+            this.dispatch();
+        } else {
+            this.overlap();
+        }
+    }
+
+    /**
+     * spawns the job right away, whether or not it is paused or its circuit breaker is open,
+     * a run in flight is handled by the overlap policy and the schedule of the job is not changed
+     *
+     * @return what became of the spawn
+     */
+    protected synchronized String trigger() {
+        PdiJob job = this.getJob();
+        if (this.stopped) {
+            return "job is being replaced";
+        }
+        if (this.canSpawn()) {
+            this.scheduler.getDaemon().getLogWriter().writeLog(String.format(MESSAGE_TRIGGERED, job.getName()));
+            this.dispatch();
+            return "spawned";
+        }
+        // under forbid the spawn is queued as well rather than waiting for the next tick
+        this.overlap();
+        return (PdiJob.OVERLAP_SKIP.equals(job.getOverlap()) ? "skipped, " : "queued, ") + this.running + " runs in flight";
+    }
+
+    /**
+     * terminates the runs of the job in flight, SIGKILL follows after the kill grace of the job
+     *
+     * @return number of runs terminated
+     */
+    protected synchronized int kill() {
+        int count = 0;
+        for (PdiRunnable runnable : this.runnables) {
+            if (this.idle.contains(runnable) || runnable.isTerminated()) {
+                continue;
+            }
+            this.scheduler.getDaemon().getLogWriter().writeLog(String.format(MESSAGE_KILLED,
+                    this.getJob().getName(), runnable.getRunId()));
+            this.terminate(runnable);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * pauses or resumes the job, pausing drops a queued spawn
+     *
+     * @param paused true to pause the job, false to resume it
+     */
+    protected synchronized void setPaused(boolean paused) {
+        if (paused == this.paused) {
+            return;
+        }
+        this.paused = paused;
+        if (paused) {
+            this.queued = false;
+            this.upstreamSucceeded.clear();
+        }
+        String log = String.format(MESSAGE_PAUSED, this.getJob().getName(), paused ? "Paused" : "Resumed");
+        this.scheduler.getDaemon().getLogWriter().writeLog(log);
+    }
+
+    /**
+     * @return true if the job is paused
+     */
+    protected synchronized boolean isPaused() {
+        return this.paused;
+    }
+
+    /**
+     * appends the live state of the job as a JSON object
+     *
+     * @param json JSON being written
+     */
+    protected synchronized void appendStatus(StringBuilder json) {
+        PdiJob job = this.getJob();
+        json.append("{\"name\":");
+        PdiControl.quote(json, job.getName());
+        json.append(",\"schedule\":");
+        PdiControl.quote(json, PdiScheduler.describeSchedule(job));
+        json.append(",\"paused\":").append(this.paused);
+        json.append(",\"running\":").append(this.running);
+        json.append(",\"queued\":").append(this.queued);
+        json.append(",\"dueInMillis\":");
+        if (this.isDownstream() || this.stopped) {
+            json.append("null");
+        } else {
+            json.append(Math.max(0, TimeUnit.NANOSECONDS.toMillis(this.due - System.nanoTime())));
+        }
+        json.append(",\"failures\":").append(this.consecutiveFailures);
+        json.append(",\"breakerOpen\":").append(this.breakerOpen && System.nanoTime() - this.breakerOpenUntil < 0);
+        json.append(",\"runs\":[");
+        boolean first = true;
+        for (PdiRunnable runnable : this.runnables) {
+            if (this.idle.contains(runnable)) {
+                continue;
+            }
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append("{\"runId\":").append(runnable.getRunId());
+            json.append(",\"pid\":").append(runnable.getRunPid());
+            json.append(",\"terminated\":").append(runnable.isTerminated()).append('}');
+        }
+        json.append("]}");
+    }
+
+    /**
+     * applies the overlap policy of the job to a spawn that is due while no further run can be spawned
+     */
+    private void overlap() {
+        PdiJob job = this.getJob();
+        PdiLogWriter logWriter = this.scheduler.getDaemon().getLogWriter();
+        if (PdiJob.OVERLAP_SKIP.equals(job.getOverlap())) {
+            logWriter.writeLog(String.format(MESSAGE_OVERLAP_SKIP, job.getName(), this.running));
+        } else if (this.queued) {
+            // at most one spawn is queued, the run it starts covers every spawn due meanwhile
+            logWriter.writeLog(String.format(MESSAGE_OVERLAP_COALESCED, job.getName(), this.running));
+        } else {
+            this.queued = true;
+            logWriter.writeLog(String.format(MESSAGE_OVERLAP_QUEUED, job.getName(), this.running));
+        }
+    }
+
+    /**
+     * dispatches a run of the job on an idle runnable to the worker pool, a queued spawn is covered by the run
+     */
+    private void dispatch() {
+        PdiRunnable runnable = this.idle.poll();
+        this.queued = false;
+        this.running++;
+        this.scheduler.submit(() -> this.execute(runnable));
+    }
+
+    /**
+     * runs the job on a worker thread and holds the worker until the process completes
+     *
+     * @param runnable runnable of the instance the run is dispatched to
+     */
+    private void execute(PdiRunnable runnable) {
+        long startTime = System.currentTimeMillis();
+        boolean fileOutput = PdiRunnable.OUTPUT_FILE.equals(this.getJob().getOutputMode());
+        try {
+            if (fileOutput && !this.getJob().isSegments()
+                    && this.scheduler.getDaemon().logRotate(runnable.getLogFile())) {
+                this.metrics.recordRotation();
+            }
+            runnable.setLogLimit(this.scheduler.getDaemon().getLogLimit());
+            runnable.run();
+            Process process = runnable.getProcess();
+            // a piped run loses its output with the daemon, so only runs writing the log themselves are adopted
+            if (process != null && fileOutput && this.getJob().getWorker() == null) {
+                this.scheduler.getDaemon().getState().record(this.getStateKey(runnable), process.toHandle(),
+                        runnable.getRunId(), startTime);
+            }
+        } finally {
+            this.monitor(runnable, startTime);
+        }
+    }
+
+    /**
+     * holds the worker until the current run of a runnable completes, enforcing the timeout and sampling the run
+     *
+     * @param runnable  runnable of the run
+     * @param startTime wall clock time in milli seconds the run started
+     */
+    private void monitor(PdiRunnable runnable, long startTime) {
+        int exitCode = -1;
+        ScheduledFuture<?> timeoutTick = null;
+        ScheduledFuture<?> sampleTick = null;
+        try {
+            timeoutTick = this.scheduleTimeout(runnable);
+            sampleTick = this.scheduleSampling(runnable);
+            runnable.drainOutput();
+            runnable.awaitCompletion();
+            exitCode = runnable.getExitCode();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (timeoutTick != null) {
+                timeoutTick.cancel(false);
+            }
+            if (sampleTick != null) {
+                sampleTick.cancel(false);
+                this.recordUsage(runnable);
+            }
+            this.scheduler.getDaemon().getState().clear(this.getStateKey(runnable));
+            this.schedule.observe(System.currentTimeMillis() - startTime);
+            this.journal(runnable, startTime, exitCode);
+            if (runnable.getSegments() != null) {
+                this.scheduler.getDaemon().getArchiver().bundle(runnable.getSegments(), runnable.getRunId());
+            }
+            this.onRunCompleted(runnable, exitCode);
+            if (exitCode == 0) {
+                this.scheduler.onJobSucceeded(this.getJob().getName());
+            }
+        }
+    }
+
+    /**
+     * appends the completed run to the journal of the daemon
+     *
+     * @param runnable  runnable of the run
+     * @param startTime wall clock time in milli seconds the run started
+     * @param exitCode  exit code of the run
+     */
+    private void journal(PdiRunnable runnable, long startTime, int exitCode) {
+        PdiRunJournal journal = this.scheduler.getDaemon().getJournal();
+        PdiJob job = this.getJob();
+        long outputBytes = runnable.getOutputBytes();
+        if (PdiRunnable.OUTPUT_FILE.equals(job.getOutputMode()) && job.getWorker() == null) {
+            // the log file is redirected by the OS and truncated by every run
+            outputBytes = new File(runnable.getRunLogFile()).length();
+        }
+        PdiRunRecord run = new PdiRunRecord(runnable.getRunId(), job.getName(), startTime,
+                System.currentTimeMillis(), exitCode, runnable.getRunPid(), outputBytes);
+        try {
+            journal.append(run);
+        } catch (IOException e) {
+            String log = String.format(MESSAGE_JOURNAL_FAILED, job.getName(), run.getRunId(), e);
+            this.scheduler.getDaemon().getLogWriter().writeLog(log);
+        }
+    }
+
+    /**
+     * schedules the termination of the current run of a runnable that exceeds the timeout of the job
+     *
+     * @param runnable runnable of the run
+     * @return future of the timeout, null if the job has no timeout
+     */
+    private ScheduledFuture<?> scheduleTimeout(PdiRunnable runnable) {
+        long timeout = this.getJob().getTimeoutMillis();
+        if (timeout <= 0) {
+            return null;
+        }
+        long runId = runnable.getRunId();
+        return this.scheduler.scheduleTick(() -> this.onTimeout(runnable, runId), TimeUnit.MILLISECONDS.toNanos(timeout));
+    }
+
+    /**
+     * terminates the process tree of a run that exceeded the timeout and kills it after the grace period,
+     * killing only the /bin/sh wrapper would leave the Kettle JVM running
+     *
+     * @param runnable runnable of the run
+     * @param runId    id of the run
+     */
+    private void onTimeout(PdiRunnable runnable, long runId) {
+        PdiJob job = this.getJob();
+        if (runnable.getRunId() != runId) {
+            return;
+        }
+        this.metrics.recordTimeout();
+        String log = String.format(MESSAGE_TIMEOUT, job.getName(), runId, job.getTimeoutMillis());
+        this.scheduler.getDaemon().getLogWriter().writeLog(log);
+        this.terminate(runnable);
+    }
+
+    /**
+     * sends SIGTERM to the process tree of the current run of a runnable and SIGKILL after the grace period
+     *
+     * @param runnable runnable of the run
+     */
+    private void terminate(PdiRunnable runnable) {
+        List<ProcessHandle> tree = runnable.terminate();
+        long grace = TimeUnit.MILLISECONDS.toNanos(this.getJob().getKillGraceMillis());
+        this.scheduler.scheduleTick(() -> runnable.kill(tree), grace);
+    }
+
+    /**
+     * samples the resources of the current run of a runnable at the sample interval of the job
+     *
+     * @param runnable runnable of the run
+     * @return future of the sampling, null if the job is not sampled
+     */
+    private ScheduledFuture<?> scheduleSampling(PdiRunnable runnable) {
+        long interval = this.getJob().getSampleMillis();
+        if (interval <= 0) {
+            return null;
+        }
+        long runId = runnable.getRunId();
+        return this.scheduler.scheduleRepeating(() -> this.sample(runnable, runId),
+                TimeUnit.MILLISECONDS.toNanos(interval));
+    }
+
+    /**
+     * samples the process tree of a run and enforces the memory limits of the job
+     *
+     * @param runnable runnable of the run
+     * @param runId    id of the run
+     */
+    private synchronized void sample(PdiRunnable runnable, long runId) {
+        if (runnable.getRunId() != runId) {
+            return;
+        }
+        if (runnable.getSampler() == null) {
+            // in worker mode the worker is started by the run
+            ProcessHandle root = runnable.getProcessHandle();
+            if (root == null) {
+                return;
+            }
+            runnable.setSampler(new PdiProcessSampler(root));
+        }
+        PdiProcessSampler sampler = runnable.getSampler();
+        sampler.sample();
+        PdiJob job = this.getJob();
+        long rss = sampler.getRss();
+        PdiLogWriter logWriter = this.scheduler.getDaemon().getLogWriter();
+        if (!runnable.isMemoryWarned() && job.getMemorySoftLimit() > 0 && rss > job.getMemorySoftLimit()) {
+            runnable.setMemoryWarned(true);
+            logWriter.writeLog(String.format(MESSAGE_MEMORY_SOFT, job.getName(), runId, rss, job.getMemorySoftLimit()));
+        }
+        if (!runnable.isTerminated() && job.getMemoryHardLimit() > 0 && rss > job.getMemoryHardLimit()) {
+            this.metrics.recordMemoryKill();
+            logWriter.writeLog(String.format(MESSAGE_MEMORY_HARD, job.getName(), runId, rss, job.getMemoryHardLimit()));
+            this.terminate(runnable);
+        }
+    }
+
+    /**
+     * records and logs the resources used by the completed run of a runnable
+     *
+     * @param runnable runnable of the run
+     */
+    private synchronized void recordUsage(PdiRunnable runnable) {
+        PdiProcessSampler sampler = runnable.getSampler();
+        if (sampler == null) {
+            return;
+        }
+        runnable.setSampler(null);
+        this.metrics.recordUsage(sampler);
+        PdiLogWriter logWriter = this.scheduler.getDaemon().getLogWriter();
+        if (logWriter.isStructured()) {
+            logWriter.event(EVENT_USAGE).field("job", this.getJob().getName()).field("runId", runnable.getRunId())
+                    .field("cpuMillis", sampler.getCpuMillis()).field("peakRss", sampler.getPeakRss())
+                    .field("readBytes", sampler.getReadBytes()).field("writeBytes", sampler.getWriteBytes()).write();
+        } else {
+            String log = String.format(MESSAGE_USAGE, this.getJob().getName(), runnable.getRunId(), sampler.getCpuMillis(),
+                    sampler.getPeakRss(), sampler.getReadBytes(), sampler.getWriteBytes());
+            logWriter.writeLog(log);
+        }
+    }
+
+    /**
+     * schedules a retry of a failed run, respawns right away when a tick is already waiting for a run
+     * and dispatches a queued spawn, a fixed delay schedule is due a period after the completion
+     *
+     * @param runnable runnable of the completed run
+     * @param exitCode exit code of the run
+     */
+    private synchronized void onRunCompleted(PdiRunnable runnable, int exitCode) {
+        long now = System.nanoTime();
+        this.running--;
+        this.idle.push(runnable);
+        if (this.isFixedDelay()) {
+            this.due = this.schedule.nextDue(this.anchor, this.due, now);
+        }
+        if (exitCode == PdiRunnable.EXIT_UNKNOWN) {
+            // an adopted run neither resets nor adds to the failures
+        } else if (exitCode == 0) {
+            this.attempt = 0;
+            this.consecutiveFailures = 0;
+            this.breakerOpen = false;
+        } else {
+            this.onRunFailed(exitCode);
+        }
+        if (this.waiting) {
+            if (this.nextTick != null) {
+                this.nextTick.cancel(false);
+            }
+            this.scheduleTick(now);
+            return;
+        }
+        if (this.queued && !this.stopped && this.canSpawn()) {
+            if (this.breakerOpen && now - this.breakerOpenUntil < 0) {
+                this.queued = false;
+                this.scheduler.getDaemon().getLogWriter().writeLog(String.format(MESSAGE_BREAKER_SKIP, this.getJob().getName()));
+            } else {
+                this.dispatch();
+                return;
+            }
+        }
+        if (this.isFixedDelay() && !this.retryPending && !this.stopped) {
+            if (this.nextTick != null) {
+                this.nextTick.cancel(false);
+            }
+            this.logSpawnWait(now);
+            this.scheduleTick(this.due);
+        }
+    }
+
+    /**
+     * opens the circuit breaker or schedules a retry after a failed run
+     *
+     * @param exitCode exit code of the run
+     */
+    private void onRunFailed(int exitCode) {
+        PdiLogWriter logWriter = this.scheduler.getDaemon().getLogWriter();
+        String name = this.getJob().getName();
+        long now = System.nanoTime();
+        this.consecutiveFailures++;
+        if (this.retryPolicy.shouldOpenBreaker(this.consecutiveFailures)) {
+            this.breakerOpen = true;
+            this.breakerOpenUntil = now + TimeUnit.MILLISECONDS.toNanos(this.retryPolicy.getBreakerCooldown());
+            this.attempt = 0;
+            logWriter.writeLog(String.format(MESSAGE_BREAKER_OPEN, name, this.consecutiveFailures,
+                    this.retryPolicy.getBreakerCooldown()));
+            return;
+        }
+        if (!this.retryPolicy.shouldRetry(exitCode, this.attempt)) {
+            this.attempt = 0;
+            logWriter.writeLog(String.format(MESSAGE_FAILED, name, exitCode, this.consecutiveFailures));
+            return;
+        }
+        this.attempt++;
+        long delay = this.retryPolicy.backoff(this.attempt);
+        long retryTime = now + TimeUnit.MILLISECONDS.toNanos(delay);
+        if (this.waiting || this.queued || retryTime - this.due >= 0) {
+            // the next scheduled or queued spawn comes first and counts as the retry
+            return;
+        }
+        logWriter.writeLog(String.format(MESSAGE_RETRY, name, exitCode, this.attempt,
+                this.retryPolicy.getMaxAttempts(), delay));
+        if (this.nextTick != null) {
+            this.nextTick.cancel(false);
+        }
+        this.retryPending = true;
+        this.scheduleTick(retryTime);
+    }
+
+    /**
+     * @return true if a run of the job or of the replaced supervisor has not completed yet
+     */
+    protected synchronized boolean isInFlight() {
+        return this.running > 0 || this.isPredecessorInFlight();
+    }
+
+    /**
+     * @return true if another run may be spawned under the instances of the job
+     */
+    private boolean canSpawn() {
+        return !this.isPredecessorInFlight() && this.running < this.runnables.size();
+    }
+
+    /**
+     * @return true if a run of the replaced supervisor has not completed yet
+     */
+    private boolean isPredecessorInFlight() {
+        if (this.predecessor != null && !this.predecessor.isInFlight()) {
+            this.predecessor = null;
+        }
+        return this.predecessor != null;
+    }
+
+    /**
+     * @return true if the job is due a fixed delay after the completion of its previous run
+     */
+    private boolean isFixedDelay() {
+        return PdiSchedule.MODE_DELAY.equals(this.getJob().getScheduleMode()) && !this.isDownstream();
+    }
+
+    /**
+     * @return true if the job is spawned after its upstream jobs rather than on its schedule
+     */
+    private boolean isDownstream() {
+        return !this.getJob().getUpstreamJobs().isEmpty();
+    }
+
+    /**
+     * @param runnable runnable of an instance of the job
+     * @return key of the instance in the state file, the job name for the first instance
+     */
+    private String getStateKey(PdiRunnable runnable) {
+        int instance = this.runnables.indexOf(runnable);
+        return instance == 0 ? this.getJob().getName() : this.getJob().getName() + "#" + instance;
+    }
+
+    /**
+     * @return nano time the job is due next
+     */
+    protected synchronized long getDue() {
+        return this.due;
+    }
+
+    /**
+     * @param time nano time of the next tick
+     */
+    private void scheduleTick(long time) {
+        if (this.stopped) {
+            return;
+        }
+        this.nextTick = this.scheduler.scheduleTick(this, time - System.nanoTime());
+    }
+
+    /**
+     * @return job that is supervised
+     */
+    protected PdiJob getJob() {
+        return this.job;
+    }
+}
@@ -0,0 +1,316 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses rotated logs and enforces retention on a background thread
+ * so that rotation never delays spawning, rotated logs are gzipped and the oldest rotated
+ * logs are deleted once there are too many, they are too old or they use too much disk,
+ * the same limits apply to the daily archives of segmented command logs, a day at a time
+ */
+public class PdiLogArchiver {
+    /**
+     * suffix of compressed logs
+     */
+    public static final String GZIP_SUFFIX = ".gz";
+
+    /**
+     * suffix of a compressed log that is still being written
+     */
+    public static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * default gzip level of rotated logs
+     */
+    public static final int COMPRESSION_LEVEL_DEFAULT = 6;
+
+    /**
+     * log message for a compressed log
+     */
+    public static final String MESSAGE_COMPRESSED = "Compressed %s to %s (%d bytes to %d bytes)\n";
+
+    /**
+     * log message for a deleted log
+     */
+    public static final String MESSAGE_DELETED = "Deleted rotated log %s\n";
+
+    /**
+     * log message for a deleted daily archive of segments
+     */
+    public static final String MESSAGE_ARCHIVE_DELETED = "Deleted archive %s and its manifest\n";
+
+    /**
+     * size of the copy buffer
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * logwriter for autospawn logs
+     */
+    private final PdiLogWriter logWriter;
+
+    /**
+     * background thread compressing and deleting rotated logs
+     */
+    private final ExecutorService worker;
+
+    /**
+     * gzip level 1-9, 0 to keep rotated logs uncompressed
+     */
+    private int compressionLevel = COMPRESSION_LEVEL_DEFAULT;
+
+    /**
+     * max number of rotated logs kept per log, 0 for no limit
+     */
+    private int maxCount = 0;
+
+    /**
+     * max age in milli seconds of rotated logs, 0 for no limit
+     */
+    private long maxAge = 0;
+
+    /**
+     * max total bytes of rotated logs kept per log, 0 for no limit
+     */
+    private long maxBytes = 0;
+
+    /**
+     * Constructor
+     *
+     * @param logWriter logwriter for autospawn logs
+     */
+    public PdiLogArchiver(PdiLogWriter logWriter) {
+        this.logWriter = logWriter;
+        this.worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pdi-log-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * hands a rotated log to the background thread
+     *
+     * @param logFile     log file that was rotated
+     * @param rotatedFile file the log was renamed to
+     */
+    public void archive(File logFile, File rotatedFile) {
+        this.worker.execute(() -> {
+            try {
+                if (this.getCompressionLevel() > 0) {
+                    this.compress(rotatedFile);
+                }
+                this.enforceRetention(logFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * hands the segment of a completed run to the background thread to be appended to its daily archive
+     *
+     * @param segments segments of the command log
+     * @param runId    id of the completed run
+     */
+    public void bundle(PdiSegments segments, long runId) {
+        this.worker.execute(() -> {
+            try {
+                segments.bundle(runId, this.logWriter);
+                this.enforceRetention(segments);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * waits for the pending logs to be archived
+     */
+    public void shutdown() {
+        this.worker.shutdown();
+        try {
+            this.worker.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * gzips a rotated log and deletes the uncompressed file
+     *
+     * @param rotatedFile rotated log
+     * @throws IOException if the log cannot be compressed
+     */
+    private void compress(File rotatedFile) throws IOException {
+        if (!rotatedFile.exists()) {
+            // already removed by retention
+            return;
+        }
+        File compressedFile = new File(rotatedFile.getPath() + GZIP_SUFFIX);
+        File tempFile = new File(compressedFile.getPath() + TEMP_SUFFIX);
+        int level = this.getCompressionLevel();
+        try (InputStream in = new FileInputStream(rotatedFile);
+             OutputStream out = new GZIPOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE) {
+                 {
+                     this.def.setLevel(level);
+                 }
+             }) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, count);
+            }
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+        if (!tempFile.renameTo(compressedFile)) {
+            tempFile.delete();
+            throw new IOException("Cannot rename " + tempFile + " to " + compressedFile);
+        }
+        String log = String.format(MESSAGE_COMPRESSED, rotatedFile.getName(), compressedFile.getName(),
+                rotatedFile.length(), compressedFile.length());
+        this.logWriter.writeLog(log);
+        rotatedFile.delete();
+        // offsets of the index do not apply to the compressed log
+        PdiLogIndex.indexFile(rotatedFile).delete();
+    }
+
+    /**
+     * deletes the oldest rotated logs of a log beyond the count, age and size limits
+     *
+     * @param logFile log file whose rotated logs are checked
+     */
+    private void enforceRetention(File logFile) {
+        if (this.getMaxCount() <= 0 && this.getMaxAge() <= 0 && this.getMaxBytes() <= 0) {
+            return;
+        }
+        // only the names rotationTarget gives, logs of other jobs may start with the same name
+        File[] rotatedFiles = logFile.getAbsoluteFile().getParentFile().listFiles((dir, fileName) ->
+                PdiDaemon.isRotationOf(logFile, fileName));
+        if (rotatedFiles == null) {
+            return;
+        }
+        Arrays.sort(rotatedFiles, Comparator.comparingLong(File::lastModified).reversed());
+        long now = System.currentTimeMillis();
+        long totalBytes = 0;
+        for (int i = 0; i < rotatedFiles.length; i++) {
+            File rotatedFile = rotatedFiles[i];
+            totalBytes += rotatedFile.length();
+            boolean tooMany = this.getMaxCount() > 0 && i >= this.getMaxCount();
+            boolean tooOld = this.getMaxAge() > 0 && now - rotatedFile.lastModified() > this.getMaxAge();
+            boolean tooLarge = this.getMaxBytes() > 0 && totalBytes > this.getMaxBytes();
+            if ((tooMany || tooOld || tooLarge) && rotatedFile.delete()) {
+                PdiLogIndex.indexFile(rotatedFile).delete();
+                this.logWriter.writeLog(String.format(MESSAGE_DELETED, rotatedFile.getName()));
+            }
+        }
+    }
+
+    /**
+     * deletes the oldest daily archives of a segmented command log and their manifests beyond the limits
+     *
+     * @param segments segments of the command log
+     */
+    private void enforceRetention(PdiSegments segments) {
+        if (this.getMaxCount() <= 0 && this.getMaxAge() <= 0 && this.getMaxBytes() <= 0) {
+            return;
+        }
+        File[] archives = segments.archiveFiles();
+        // the day is in the name, newest first
+        Arrays.sort(archives, Comparator.comparing(File::getName).reversed());
+        long now = System.currentTimeMillis();
+        long totalBytes = 0;
+        for (int i = 0; i < archives.length; i++) {
+            File archive = archives[i];
+            File manifest = PdiSegments.manifestFile(archive);
+            totalBytes += archive.length() + manifest.length();
+            boolean tooMany = this.getMaxCount() > 0 && i >= this.getMaxCount();
+            boolean tooOld = this.getMaxAge() > 0 && now - archive.lastModified() > this.getMaxAge();
+            boolean tooLarge = this.getMaxBytes() > 0 && totalBytes > this.getMaxBytes();
+            if (tooMany || tooOld || tooLarge) {
+                // the manifest goes first so no run points into a deleted archive
+                manifest.delete();
+                if (archive.delete()) {
+                    this.logWriter.writeLog(String.format(MESSAGE_ARCHIVE_DELETED, archive.getName()));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return gzip level, 0 if rotated logs are kept uncompressed
+     */
+    protected int getCompressionLevel() {
+        return this.compressionLevel;
+    }
+
+    /**
+     * @param compressionLevel gzip level 1-9, 0 to keep rotated logs uncompressed
+     */
+    protected void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new IllegalArgumentException("Invalid compression level " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @return max number of rotated logs kept per log
+     */
+    protected int getMaxCount() {
+        return this.maxCount;
+    }
+
+    /**
+     * @param maxCount max number of rotated logs kept per log, 0 for no limit
+     */
+    protected void setMaxCount(int maxCount) {
+        this.maxCount = maxCount;
+    }
+
+    /**
+     * @return max age in milli seconds of rotated logs
+     */
+    protected long getMaxAge() {
+        return this.maxAge;
+    }
+
+    /**
+     * @param maxAge max age in milli seconds of rotated logs, 0 for no limit
+     */
+    protected void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @return max total bytes of rotated logs kept per log
+     */
+    protected long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    /**
+     * @param maxBytes max total bytes of rotated logs kept per log, 0 for no limit
+     */
+    protected void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded ring buffer of log messages waiting to be written by the flusher thread
+ * messages are stored with the time they were logged so no objects are created per message,
+ * a slot holds either a text message or a structured event, the overflow policy decides
+ * what happens when the buffer is full
+ *
+ * block - the caller waits until the flusher has made room
+ * drop  - the message is silently dropped
+ * count - the message is dropped and counted, the flusher logs how many were lost
+ */
+public class PdiLogBuffer {
+    /**
+     * overflow policies
+     */
+    public static final String OVERFLOW_BLOCK = "block";
+    public static final String OVERFLOW_DROP = "drop";
+    public static final String OVERFLOW_COUNT = "count";
+
+    /**
+     * messages in the ring
+     */
+    private final String[] messages;
+
+    /**
+     * structured events in the ring, null where the slot holds a text message
+     */
+    private final PdiLogEvent[] events;
+
+    /**
+     * time in milli seconds each message was logged
+     */
+    private final long[] times;
+
+    /**
+     * overflow policy
+     */
+    private final String overflow;
+
+    /**
+     * index of the oldest message
+     */
+    private int head = 0;
+
+    /**
+     * number of messages in the ring
+     */
+    private int size = 0;
+
+    /**
+     * number of messages dropped since the last call of takeDropped
+     */
+    private long dropped = 0;
+
+    /**
+     * true once no more messages are accepted
+     */
+    private boolean closed = false;
+
+    /**
+     * Constructor
+     *
+     * @param capacity max number of messages held
+     * @param overflow overflow policy block, drop or count
+     * @throws IllegalArgumentException for an unknown overflow policy
+     */
+    public PdiLogBuffer(int capacity, String overflow) {
+        switch (overflow) {
+            case OVERFLOW_BLOCK:
+            case OVERFLOW_DROP:
+            case OVERFLOW_COUNT:
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid overflow policy " + overflow);
+        }
+        this.messages = new String[capacity];
+        this.events = new PdiLogEvent[capacity];
+        this.times = new long[capacity];
+        this.overflow = overflow;
+    }
+
+    /**
+     * adds a message to the ring, applying the overflow policy when it is full
+     *
+     * @param time    time in milli seconds the message was logged
+     * @param message message to be written
+     * @return true if the message was added
+     */
+    public boolean offer(long time, String message) {
+        return this.offer(time, message, null);
+    }
+
+    /**
+     * adds a structured event to the ring, applying the overflow policy when it is full
+     *
+     * @param time  time in milli seconds the event was logged
+     * @param event event to be written, owned by the ring until drained
+     * @return true if the event was added
+     */
+    public boolean offer(long time, PdiLogEvent event) {
+        return this.offer(time, null, event);
+    }
+
+    /**
+     * @param time    time in milli seconds the entry was logged
+     * @param message text message, null for an event
+     * @param event   structured event, null for a text message
+     * @return true if the entry was added
+     */
+    private synchronized boolean offer(long time, String message, PdiLogEvent event) {
+        while (this.size == this.messages.length && !this.closed) {
+            if (!OVERFLOW_BLOCK.equals(this.overflow)) {
+                if (OVERFLOW_COUNT.equals(this.overflow)) {
+                    this.dropped++;
+                }
+                return false;
+            }
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        if (this.closed) {
+            return false;
+        }
+        int tail = (this.head + this.size) % this.messages.length;
+        this.messages[tail] = message;
+        this.events[tail] = event;
+        this.times[tail] = time;
+        this.size++;
+        if (this.size == 1) {
+            this.notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * moves the oldest messages into the given arrays, waiting for messages if the ring is empty
+     *
+     * @param messages array receiving the text messages, null for events
+     * @param events   array receiving the events, null for text messages
+     * @param times    array receiving the times of the messages
+     * @param timeout  max time to wait in milli seconds
+     * @return number of messages moved, 0 on timeout, -1 once closed and empty
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized int drain(String[] messages, PdiLogEvent[] events, long[] times, long timeout)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (this.size == 0) {
+            if (this.closed) {
+                return -1;
+            }
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return 0;
+            }
+            this.wait(remaining);
+        }
+        boolean wasFull = this.size == this.messages.length;
+        int count = Math.min(this.size, messages.length);
+        for (int i = 0; i < count; i++) {
+            int index = (this.head + i) % this.messages.length;
+            messages[i] = this.messages[index];
+            events[i] = this.events[index];
+            times[i] = this.times[index];
+            this.messages[index] = null;
+            this.events[index] = null;
+        }
+        this.head = (this.head + count) % this.messages.length;
+        this.size -= count;
+        if (wasFull) {
+            this.notifyAll();
+        }
+        return count;
+    }
+
+    /**
+     * @return number of messages dropped since the last call, the counter is reset
+     */
+    public synchronized long takeDropped() {
+        long dropped = this.dropped;
+        this.dropped = 0;
+        return dropped;
+    }
+
+    /**
+     * stops accepting messages, messages in the ring can still be drained
+     */
+    public synchronized void close() {
+        this.closed = true;
+        this.notifyAll();
+    }
+}
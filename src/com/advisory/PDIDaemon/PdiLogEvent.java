@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Structured event of the daemon log written as a JSON line
+ * fields are encoded as UTF-8 JSON straight into a buffer, events are pooled by the writer and reused,
+ * so logging an event creates no objects once the pool is warm and the buffers have grown to the largest event
+ *
+ * <pre>
+ * logWriter.event(EVENT_PROCESS_COMPLETED).field("runId", runId).field("exitCode", exitCode).write();
+ * </pre>
+ *
+ * {"time":"2015-06-01T12:00:00.250","event":"process_completed","runId":1433160000250,"exitCode":0}
+ */
+public class PdiLogEvent {
+    /**
+     * initial size in bytes of the event buffer
+     */
+    private static final int SIZE_DEFAULT = 256;
+
+    /**
+     * hex digits of escaped control characters
+     */
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    /**
+     * writer the event is written to
+     */
+    private final PdiLogWriter writer;
+
+    /**
+     * fields encoded so far, each preceded by a comma
+     */
+    private ByteBuffer buffer = ByteBuffer.allocate(SIZE_DEFAULT);
+
+    /**
+     * Constructor
+     *
+     * @param writer writer the event is written to
+     */
+    protected PdiLogEvent(PdiLogWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * starts a new event, the fields of the previous event are dropped
+     *
+     * @param event event type
+     * @return this event
+     */
+    protected PdiLogEvent start(String event) {
+        this.buffer.clear();
+        return this.field("event", event);
+    }
+
+    /**
+     * @param name  field name
+     * @param value field value, null is written as null
+     * @return this event
+     */
+    public PdiLogEvent field(String name, CharSequence value) {
+        if (value == null) {
+            this.name(name);
+            this.ensure(4);
+            putAscii(this.buffer, "null");
+            return this;
+        }
+        return this.field(name, value, 0, value.length());
+    }
+
+    /**
+     * @param name  field name
+     * @param value field value
+     * @param start index of the first character of the value
+     * @param end   index after the last character of the value
+     * @return this event
+     */
+    public PdiLogEvent field(String name, CharSequence value, int start, int end) {
+        this.name(name);
+        // an escaped control character is the longest encoding of a character
+        this.ensure(6 * (end - start) + 2);
+        putString(this.buffer, value, start, end);
+        return this;
+    }
+
+    /**
+     * @param name  field name
+     * @param value field value
+     * @return this event
+     */
+    public PdiLogEvent field(String name, long value) {
+        this.name(name);
+        this.ensure(20);
+        putLong(this.buffer, value);
+        return this;
+    }
+
+    /**
+     * @param name  field name
+     * @param value field value
+     * @return this event
+     */
+    public PdiLogEvent field(String name, boolean value) {
+        this.name(name);
+        this.ensure(5);
+        putAscii(this.buffer, value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * writes the event to the log, the event must not be used afterwards
+     */
+    public void write() {
+        this.writer.writeEvent(this);
+    }
+
+    /**
+     * @return fields encoded so far, each preceded by a comma
+     */
+    protected ByteBuffer getBuffer() {
+        return this.buffer;
+    }
+
+    /**
+     * @param name field name
+     */
+    private void name(String name) {
+        this.ensure(6 * name.length() + 4);
+        this.buffer.put((byte) ',');
+        putString(this.buffer, name, 0, name.length());
+        this.buffer.put((byte) ':');
+    }
+
+    /**
+     * grows the buffer so that it has room for more bytes
+     *
+     * @param bytes number of bytes to be put
+     */
+    private void ensure(int bytes) {
+        if (this.buffer.remaining() >= bytes) {
+            return;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(2 * this.buffer.capacity(), this.buffer.position() + bytes));
+        this.buffer.flip();
+        grown.put(this.buffer);
+        this.buffer = grown;
+    }
+
+    /**
+     * puts characters as a JSON string in UTF-8
+     *
+     * @param buffer buffer with room for 6 bytes per character and the quotes
+     * @param value  characters to be put
+     * @param start  index of the first character
+     * @param end    index after the last character
+     */
+    protected static void putString(ByteBuffer buffer, CharSequence value, int start, int end) {
+        buffer.put((byte) '"');
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                buffer.put((byte) '\\').put((byte) c);
+            } else if (c == '\n') {
+                buffer.put((byte) '\\').put((byte) 'n');
+            } else if (c == '\t') {
+                buffer.put((byte) '\\').put((byte) 't');
+            } else if (c < 0x20) {
+                buffer.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0')
+                        .put(HEX[c >> 4]).put(HEX[c & 0xf]);
+            } else if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | c >> 6)).put((byte) (0x80 | c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int code = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xf0 | code >> 18)).put((byte) (0x80 | code >> 12 & 0x3f))
+                        .put((byte) (0x80 | code >> 6 & 0x3f)).put((byte) (0x80 | code & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // a lone surrogate is not valid UTF-8
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xe0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3f)).put((byte) (0x80 | c & 0x3f));
+            }
+        }
+        buffer.put((byte) '"');
+    }
+
+    /**
+     * puts the decimal digits of a number
+     *
+     * @param buffer buffer with room for 20 bytes
+     * @param value  number to be put
+     */
+    protected static void putLong(ByteBuffer buffer, long value) {
+        if (value == Long.MIN_VALUE) {
+            putAscii(buffer, "-9223372036854775808");
+            return;
+        }
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + value / divisor % 10));
+        }
+    }
+
+    /**
+     * @param buffer buffer with room for the text
+     * @param text   ASCII text
+     */
+    private static void putAscii(ByteBuffer buffer, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            buffer.put((byte) text.charAt(i));
+        }
+    }
+}
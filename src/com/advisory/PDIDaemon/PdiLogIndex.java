@@ -0,0 +1,358 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sparse index of a command log written next to it while the daemon writes the log
+ * an entry maps a wall clock time to the offset of a line start and the run writing it,
+ * one is written when a run starts writing the log and then every index interval of output,
+ * so a reader seeks to a time or a run and reads at most an interval of output too much
+ *
+ * entry - time, offset, run id, kind (32 bytes)
+ *
+ * the index of a log is the hidden file .&lt;log name&gt;.idx, it is renamed with the log when the log is rotated
+ * and deleted with it when the rotated log is compressed or deleted, compressed logs are not indexed
+ *
+ * java -cp pdi-daemon.jar com.advisory.PDIDaemon.PdiLogIndex &lt;log&gt; time &lt;from&gt; [to] | run &lt;run id&gt;
+ */
+public class PdiLogIndex implements Closeable {
+    /**
+     * size in bytes of an entry
+     */
+    public static final int ENTRY_SIZE = 32;
+
+    /**
+     * output bytes between two entries
+     */
+    public static final long INTERVAL = 64 * 1024;
+
+    /**
+     * entry kinds
+     */
+    public static final int KIND_MARK = 0;
+    public static final int KIND_RUN = 1;
+
+    /**
+     * suffix of the index file name
+     */
+    public static final String INDEX_SUFFIX = ".idx";
+
+    /**
+     * size in bytes of the log regions mapped at a time by the reader
+     */
+    private static final long READ_WINDOW = 64L * 1024 * 1024;
+
+    /**
+     * index file
+     */
+    private final File file;
+
+    /**
+     * channel of the index file
+     */
+    private FileChannel channel;
+
+    /**
+     * buffer an entry is written from, reused for every entry
+     */
+    private final ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+
+    /**
+     * log offset of the last entry
+     */
+    private long lastOffset = -1;
+
+    /**
+     * Constructor opens the index of a log for appending
+     *
+     * @param logFile log file to be indexed
+     * @throws IOException if the index cannot be opened
+     */
+    public PdiLogIndex(File logFile) throws IOException {
+        this.file = indexFile(logFile);
+        this.open(false);
+    }
+
+    /**
+     * @param logFile log file
+     * @return index file of the log
+     */
+    public static File indexFile(File logFile) {
+        return new File(logFile.getAbsoluteFile().getParentFile(), "." + logFile.getName() + INDEX_SUFFIX);
+    }
+
+    /**
+     * appends an entry
+     *
+     * @param time   wall clock time in milli seconds
+     * @param offset log offset of a line start
+     * @param runId  id of the run writing the line
+     * @param kind   entry kind
+     * @throws IOException if the index cannot be written
+     */
+    public void append(long time, long offset, long runId, int kind) throws IOException {
+        this.entry.clear();
+        this.entry.putLong(time).putLong(offset).putLong(runId).putInt(kind).putInt(0);
+        this.entry.flip();
+        while (this.entry.hasRemaining()) {
+            this.channel.write(this.entry);
+        }
+        this.lastOffset = offset;
+    }
+
+    /**
+     * @param offset log offset of a line start
+     * @return true if an index interval of output was written since the last entry
+     */
+    public boolean isDue(long offset) {
+        return offset - this.lastOffset >= INTERVAL;
+    }
+
+    /**
+     * moves the index with its rotated log and starts an empty index for the log,
+     * an index that cannot be moved is emptied so its entries never point into the new log
+     *
+     * @param rotatedFile file the log was renamed to
+     * @throws IOException if the index cannot be reopened
+     */
+    public void rotate(File rotatedFile) throws IOException {
+        this.channel.close();
+        boolean moved = this.file.renameTo(indexFile(rotatedFile));
+        this.open(!moved);
+    }
+
+    /**
+     * closes the index
+     *
+     * @throws IOException if the index cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * opens the index file for appending
+     *
+     * @param truncate true to drop the entries already in the index file
+     * @throws IOException if the index cannot be opened
+     */
+    private void open(boolean truncate) throws IOException {
+        this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                truncate ? StandardOpenOption.TRUNCATE_EXISTING : StandardOpenOption.APPEND);
+        this.lastOffset = -1;
+    }
+
+    /**
+     * writes the output of a log and its rotated logs between two times, oldest first
+     *
+     * @param logFile log file
+     * @param from    wall clock time in milli seconds to start at
+     * @param to      wall clock time in milli seconds to end at
+     * @param out     channel the output is written to
+     * @throws IOException if a log cannot be read
+     */
+    public static void seekTime(File logFile, long from, long to, WritableByteChannel out) throws IOException {
+        List<File> logs = indexedLogs(logFile);
+        for (int i = 0; i < logs.size(); i++) {
+            MappedByteBuffer index = mapIndex(logs.get(i));
+            int count = index.capacity() / ENTRY_SIZE;
+            if (count == 0 || time(index, 0) > to) {
+                continue;
+            }
+            if (i + 1 < logs.size() && firstTime(logs.get(i + 1)) <= from) {
+                // the next log already starts before the window
+                continue;
+            }
+            // last entry not after from, first entry after to
+            int start = 0;
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (time(index, middle) <= from) {
+                    start = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            int end = start;
+            while (end < count && time(index, end) <= to) {
+                end++;
+            }
+            long endOffset = end < count ? offset(index, end) : -1;
+            copy(logs.get(i), offset(index, start), endOffset, out);
+        }
+    }
+
+    /**
+     * writes the output of a run from a log and its rotated logs
+     *
+     * @param logFile log file
+     * @param runId   id of the run
+     * @param out     channel the output is written to
+     * @throws IOException if a log cannot be read
+     */
+    public static void seekRun(File logFile, long runId, WritableByteChannel out) throws IOException {
+        for (File log : indexedLogs(logFile)) {
+            MappedByteBuffer index = mapIndex(log);
+            int count = index.capacity() / ENTRY_SIZE;
+            int start = 0;
+            while (start < count && index.getLong(start * ENTRY_SIZE + 16) != runId) {
+                start++;
+            }
+            if (start == count) {
+                continue;
+            }
+            int end = start;
+            while (end < count && index.getLong(end * ENTRY_SIZE + 16) == runId) {
+                end++;
+            }
+            copy(log, offset(index, start), end < count ? offset(index, end) : -1, out);
+        }
+    }
+
+    /**
+     * @param logFile log file
+     * @return the log and its rotated logs that have an index, oldest first
+     * @throws IOException if an index cannot be read
+     */
+    private static List<File> indexedLogs(File logFile) throws IOException {
+        String name = logFile.getName();
+        // the logs of other jobs may start with the same name, e.g. job.log2
+        File[] files = logFile.getAbsoluteFile().getParentFile().listFiles((dir, fileName) ->
+                (fileName.equals(name) || PdiDaemon.isRotationOf(logFile, fileName))
+                        && !fileName.endsWith(PdiLogArchiver.GZIP_SUFFIX));
+        List<File> logs = new ArrayList<>();
+        if (files == null) {
+            return logs;
+        }
+        Map<File, Long> firstTimes = new HashMap<>();
+        for (File file : files) {
+            if (indexFile(file).length() >= ENTRY_SIZE) {
+                logs.add(file);
+                firstTimes.put(file, firstTime(file));
+            }
+        }
+        logs.sort(Comparator.comparing(firstTimes::get));
+        return logs;
+    }
+
+    /**
+     * @param log indexed log
+     * @return time of the first entry of the index of the log
+     * @throws IOException if the index cannot be read
+     */
+    private static long firstTime(File log) throws IOException {
+        return time(mapIndex(log), 0);
+    }
+
+    /**
+     * @param log indexed log
+     * @return index of the log mapped read only, whole entries only
+     * @throws IOException if the index cannot be read
+     */
+    private static MappedByteBuffer mapIndex(File log) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile(log).toPath(), StandardOpenOption.READ)) {
+            long size = channel.size() - channel.size() % ENTRY_SIZE;
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * @param index mapped index
+     * @param entry number of the entry
+     * @return time of the entry
+     */
+    private static long time(ByteBuffer index, int entry) {
+        return index.getLong(entry * ENTRY_SIZE);
+    }
+
+    /**
+     * @param index mapped index
+     * @param entry number of the entry
+     * @return log offset of the entry
+     */
+    private static long offset(ByteBuffer index, int entry) {
+        return index.getLong(entry * ENTRY_SIZE + 8);
+    }
+
+    /**
+     * writes a region of a log through memory mapped windows
+     *
+     * @param log   log file
+     * @param start offset to start at
+     * @param end   offset to end at, -1 for the end of the log
+     * @param out   channel the region is written to
+     * @throws IOException if the log cannot be read
+     */
+    private static void copy(File log, long start, long end, WritableByteChannel out) throws IOException {
+        try (FileChannel channel = FileChannel.open(log.toPath(), StandardOpenOption.READ)) {
+            long limit = end < 0 ? channel.size() : Math.min(end, channel.size());
+            for (long position = start; position < limit; position += READ_WINDOW) {
+                ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(READ_WINDOW, limit - position));
+                while (window.hasRemaining()) {
+                    out.write(window);
+                }
+            }
+        }
+    }
+
+    /**
+     * writes the output of a command log between two times or of a run
+     *
+     * time - from and to as yyyy-mm-dd hh:mm:ss[.fff], to defaults to now
+     * run  - run id as printed in the daemon log and the run journal
+     *
+     * @param args log file, query and its arguments
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: PdiLogIndex <log> time <from> [to] | run <run id>");
+            System.exit(1);
+        }
+        File logFile = new File(args[0]);
+        try (FileOutputStream stdout = new FileOutputStream(FileDescriptor.out);
+             WritableByteChannel out = Channels.newChannel(stdout)) {
+            switch (args[1]) {
+                case "time":
+                    long from = Timestamp.valueOf(args[2]).getTime();
+                    long to = args.length > 3 ? Timestamp.valueOf(args[3]).getTime() : System.currentTimeMillis();
+                    seekTime(logFile, from, to, out);
+                    break;
+                case "run":
+                    seekRun(logFile, Long.parseLong(args[2]), out);
+                    break;
+                default:
+                    System.out.println("Invalid query " + args[1]);
+                    System.exit(1);
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -6,22 +6,206 @@
 package com.advisory.PDIDaemon;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.sql.Timestamp;
-import java.util.Date;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.TimeZone;
 
+/**
+ * Writes the daemon log
+ * by default every message is written and flushed by the calling thread,
+ * in async mode messages are queued in a bounded ring buffer and a flusher thread
+ * writes them in batches, flushing when enough bytes are pending or the flush interval elapsed
+ *
+ * in json format every line is a structured event, see PdiLogEvent, and text messages become message events,
+ * events are taken from a pool of the writer and returned once written, an event is encoded behind a cached
+ * timestamp and written right away or, in async mode, queued in the ring buffer like a text message
+ * so the flusher thread does all the writing and the overflow policy applies to events as well
+ *
+ * the writer counts the bytes it writes and rolls the log over itself, the file is closed, renamed and reopened
+ * once it exceeds the max size or, with a rollover interval, on the first write after a local time boundary,
+ * so the size of the log is never read from the file system,
+ * a log file that cannot be opened is opened again on the next write and the number of writes dropped
+ * meanwhile is logged once it is open again
+ */
 public class PdiLogWriter {
     /**
-     * FileWriter for log writing
+     * log formats
+     *
+     * text - timestamp and message on every line
+     * json - one JSON object per line
+     */
+    public static final String FORMAT_TEXT = "text";
+    public static final String FORMAT_JSON = "json";
+
+    /**
+     * event type of text messages in json format
      */
-    private FileWriter logWriter = null;
+    public static final String EVENT_MESSAGE = "message";
+
+    /**
+     * default number of pending bytes that triggers a write in async mode
+     */
+    public static final int FLUSH_SIZE_DEFAULT = 64 * 1024;
+
+    /**
+     * default max time in milli seconds messages stay pending in async mode
+     */
+    public static final long FLUSH_INTERVAL_DEFAULT = 1000;
+
+    /**
+     * max number of messages moved from the ring buffer at once
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * max number of idle events kept for reuse
+     */
+    private static final int EVENT_POOL_SIZE = 256;
+
+    /**
+     * initial size in bytes of an event line buffer
+     */
+    private static final int EVENT_LINE_SIZE = 512;
+
+    /**
+     * milli seconds in an hour, the timestamp is formatted from scratch once an hour
+     */
+    private static final long HOUR = 60 * 60 * 1000;
+
+    /**
+     * start of every event line
+     */
+    private static final byte[] EVENT_PREFIX = "{\"time\":\"".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * log message for messages dropped by the ring buffer
+     */
+    public static final String MESSAGE_DROPPED = "Dropped %d log messages, log buffer was full\n";
+
+    /**
+     * log message for a rollover whose rename failed
+     */
+    public static final String MESSAGE_ROLLOVER_FAILED = "Could not rename %s to %s, the log is rolled over again after another %d bytes\n";
+
+    /**
+     * log message for writes dropped while the log file could not be opened
+     */
+    public static final String MESSAGE_WRITES_DROPPED = "Dropped %d log writes, %s could not be opened\n";
+
+    /**
+     * channel of the log file, null once closed or while the log file cannot be opened
+     */
+    private FileChannel channel = null;
+
+    /**
+     * true once the log file is closed for good
+     */
+    private boolean closed = false;
+
+    /**
+     * true while the log file cannot be opened, the failure is reported once
+     */
+    private boolean openFailed = false;
+
+    /**
+     * number of writes dropped while the log file could not be opened
+     */
+    private long droppedWrites = 0;
+
+    /**
+     * number of bytes in the log file
+     */
+    private long written;
+
+    /**
+     * size in bytes the log is rolled over at, 0 for no limit
+     */
+    private volatile long maxBytes;
+
+    /**
+     * time in milli seconds between rollovers, 0 for no time based rollover
+     */
+    private long rolloverInterval;
+
+    /**
+     * time in milli seconds of the next time based rollover
+     */
+    private long rolloverAt = Long.MAX_VALUE;
+
+    /**
+     * archiver compressing the rolled over logs, null to keep them as they are
+     */
+    private PdiLogArchiver archiver;
+
+    /**
+     * metrics counting the rollovers, null for none
+     */
+    private PdiMetrics metrics;
 
     /**
      * log file name
      */
     private String logFileName = null;
 
+    /**
+     * ring buffer of pending messages, null unless in async mode
+     */
+    private volatile PdiLogBuffer buffer = null;
+
+    /**
+     * thread writing the pending messages in async mode
+     */
+    private Thread flusher = null;
+
+    /**
+     * number of pending bytes that triggers a write in async mode
+     */
+    private int flushSize = FLUSH_SIZE_DEFAULT;
+
+    /**
+     * max time in milli seconds messages stay pending in async mode
+     */
+    private long flushInterval = FLUSH_INTERVAL_DEFAULT;
+
+    /**
+     * log format text or json
+     */
+    private volatile String format = FORMAT_TEXT;
+
+    /**
+     * event line written right away, grown to the largest line, null unless in json format
+     */
+    private ByteBuffer events = null;
+
+    /**
+     * idle events, an event is taken for every log call and returned once it is written
+     */
+    private final ArrayDeque<PdiLogEvent> eventPool = new ArrayDeque<>();
+
+    /**
+     * event of the messages a rollover writes straight to the log file
+     */
+    private final PdiLogEvent rotationEvent = new PdiLogEvent(this);
+
+    /**
+     * local time of the last event as yyyy-MM-ddTHH:mm:ss.SSS, only minutes, seconds and milli seconds
+     * are updated within an hour
+     */
+    private final byte[] time = "0000-00-00T00:00:00.000".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * time in milli seconds the local hour of the cached timestamp starts at, -1 before the first event
+     */
+    private long hourStart = -1;
+
     /**
      * Constructor
      *
@@ -33,7 +217,7 @@ public class PdiLogWriter {
     }
 
     /**
-     * creates logwriter uses filewriter class
+     * opens the log file for appending, the bytes already in it count towards the max size
      */
     private void createLogWriter() {
         String fileName = this.getLogFileName();
@@ -41,48 +225,575 @@ public class PdiLogWriter {
         if (fileName != null) {
             File parentFile = new File(logFile.getParent());
             if (!parentFile.exists()) {
-                logFile.mkdirs();
+                parentFile.mkdirs();
             }
         }
         try {
-            FileWriter logWriter = new FileWriter(logFile, true);
-            this.setFileWriter(logWriter);
+            this.reopen();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * opens the log file unless it is open or closed for good, once it is open again after a failure
+     * the number of writes dropped meanwhile is logged
+     *
+     * @return true if the log file is open
+     * @throws IOException if the log file cannot be written
+     */
+    private synchronized boolean reopen() throws IOException {
+        if (this.channel != null) {
+            return true;
+        }
+        if (this.closed) {
+            return false;
+        }
+        try {
+            this.openChannel();
+        } catch (IOException e) {
+            if (!this.openFailed) {
+                this.openFailed = true;
+                e.printStackTrace();
+            }
+            return false;
+        }
+        this.openFailed = false;
+        if (this.droppedWrites > 0) {
+            this.writeDirect(String.format(MESSAGE_WRITES_DROPPED, this.droppedWrites, this.getLogFileName()));
+            this.droppedWrites = 0;
+        }
+        return true;
+    }
+
+    /**
+     * opens the channel of the log file
+     *
+     * @throws IOException if the log file cannot be opened
+     */
+    private void openChannel() throws IOException {
+        this.channel = FileChannel.open(new File(this.getLogFileName()).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.written = this.channel.size();
+    }
+
+    /**
+     * writes bytes to the log file, rolling it over before the write when a rollover boundary passed
+     * and after the write when the log exceeds the max size, the bytes are dropped and counted
+     * while the log file cannot be opened
+     *
+     * @param bytes bytes to be written
+     * @throws IOException if the log file cannot be written
+     */
+    private synchronized void write(ByteBuffer bytes) throws IOException {
+        if (!this.reopen()) {
+            this.dropWrite();
+            return;
+        }
+        if (this.rolloverInterval > 0 && this.written > 0 && System.currentTimeMillis() >= this.rolloverAt) {
+            this.rollover();
+            if (this.channel == null) {
+                this.dropWrite();
+                return;
+            }
+        }
+        this.written += bytes.remaining();
+        while (bytes.hasRemaining()) {
+            this.channel.write(bytes);
+        }
+        long maxBytes = this.maxBytes;
+        if (maxBytes > 0 && this.written > maxBytes) {
+            this.rollover();
+        }
+    }
+
+    /**
+     * counts a write dropped while the log file cannot be opened
+     */
+    private void dropWrite() {
+        if (!this.closed) {
+            this.droppedWrites++;
+        }
+    }
+
+    /**
+     * closes the log file, renames it and reopens a new one, the renamed file is handed to the archiver
+     * the rollover message is written straight to the new file so that no pending message is reordered,
+     * if the rename fails the failure is logged and the bytes are counted from zero again,
+     * so the next rollover is tried after another max size instead of on every write,
+     * if the new file cannot be opened the channel stays closed and the next write opens it again
+     *
+     * @throws IOException if the log file cannot be written
+     */
+    private synchronized void rollover() throws IOException {
+        File logFile = new File(this.getLogFileName());
+        File rotatedFile = PdiDaemon.rotationTarget(logFile);
+        this.channel.close();
+        this.channel = null;
+        boolean renamed = logFile.renameTo(rotatedFile);
+        this.scheduleRollover(System.currentTimeMillis());
+        if (renamed) {
+            if (this.archiver != null) {
+                this.archiver.archive(logFile, rotatedFile);
+            }
+            if (this.metrics != null) {
+                this.metrics.recordDaemonRotation();
+            }
+        }
+        if (!this.reopen()) {
+            return;
+        }
+        if (!renamed) {
+            this.written = 0;
+            this.writeDirect(String.format(MESSAGE_ROLLOVER_FAILED, logFile.getName(), rotatedFile.getName(),
+                    this.maxBytes));
+            return;
+        }
+        this.writeDirect(String.format(PdiDaemon.MESSAGE_COMPRESS, logFile.getName(), rotatedFile.getPath(),
+                logFile.getParent()));
+    }
+
+    /**
+     * writes a message straight to the log file, bypassing the pending messages and the rollover
+     *
+     * @param log log data
+     * @throws IOException if the log file cannot be written
+     */
+    private synchronized void writeDirect(String log) throws IOException {
+        ByteBuffer line;
+        if (this.events != null) {
+            ByteBuffer event = this.message(this.rotationEvent, log).getBuffer();
+            line = ByteBuffer.allocate(this.eventSize(event));
+            this.updateTime(System.currentTimeMillis());
+            this.putEvent(line, event);
+            line.flip();
+        } else {
+            line = ByteBuffer.wrap((new Timestamp(System.currentTimeMillis()) + " " + log)
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        this.written += line.remaining();
+        while (line.hasRemaining()) {
+            this.channel.write(line);
+        }
+    }
+
+    /**
+     * sets the time of the next time based rollover to the next multiple of the rollover interval in local time
+     *
+     * @param now time in milli seconds
+     */
+    private void scheduleRollover(long now) {
+        long interval = this.rolloverInterval;
+        if (interval <= 0) {
+            this.rolloverAt = Long.MAX_VALUE;
+            return;
+        }
+        long offset = TimeZone.getDefault().getOffset(now);
+        this.rolloverAt = ((now + offset) / interval + 1) * interval - offset;
+    }
+
+    /**
+     * switches to async mode, messages are written by a flusher thread from now on
+     *
+     * @param capacity max number of pending messages
+     * @param overflow overflow policy block, drop or count
+     */
+    public synchronized void enableAsync(int capacity, String overflow) {
+        if (this.buffer != null) {
+            return;
+        }
+        PdiLogBuffer buffer = new PdiLogBuffer(capacity, overflow);
+        Thread flusher = new Thread(() -> this.flush(buffer), "pdi-log-flusher");
+        flusher.setDaemon(true);
+        this.buffer = buffer;
+        this.flusher = flusher;
+        flusher.start();
+    }
+
+    /**
+     * writes pending messages in batches until the ring buffer is closed and empty
+     *
+     * @param buffer ring buffer of pending messages
+     */
+    private void flush(PdiLogBuffer buffer) {
+        String[] messages = new String[BATCH_SIZE];
+        PdiLogEvent[] events = new PdiLogEvent[BATCH_SIZE];
+        long[] times = new long[BATCH_SIZE];
+        ByteBuffer pending = ByteBuffer.allocateDirect(this.flushSize);
+        ByteBuffer line = ByteBuffer.allocate(EVENT_LINE_SIZE);
+        long lastFlush = System.nanoTime();
+        try {
+            int count;
+            while ((count = buffer.drain(messages, events, times, this.flushInterval)) >= 0) {
+                long dropped = buffer.takeDropped();
+                if (dropped > 0) {
+                    this.append(pending, System.currentTimeMillis(), String.format(MESSAGE_DROPPED, dropped));
+                }
+                for (int i = 0; i < count; i++) {
+                    if (events[i] != null) {
+                        line = this.encodeEvent(line, times[i], events[i].getBuffer());
+                        this.releaseEvent(events[i]);
+                        events[i] = null;
+                        this.append(pending, line);
+                    } else {
+                        this.append(pending, times[i], messages[i]);
+                        messages[i] = null;
+                    }
+                }
+                long elapsed = (System.nanoTime() - lastFlush) / 1000000;
+                if (pending.position() > 0 && (count == 0 || elapsed >= this.flushInterval)) {
+                    this.writeOut(pending);
+                    lastFlush = System.nanoTime();
+                }
+            }
+            this.writeOut(pending);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * adds a message to the pending bytes, writing them out when they exceed the flush size
+     *
+     * @param pending pending bytes
+     * @param time    time in milli seconds the message was logged
+     * @param log     log data
+     * @throws IOException if the log file cannot be written
+     */
+    private void append(ByteBuffer pending, long time, String log) throws IOException {
+        byte[] bytes = (new Timestamp(time) + " " + log).getBytes(StandardCharsets.UTF_8);
+        this.append(pending, ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * adds a line to the pending bytes, writing them out when they exceed the flush size
+     *
+     * @param pending pending bytes
+     * @param line    line to be added, consumed completely
+     * @throws IOException if the log file cannot be written
+     */
+    private void append(ByteBuffer pending, ByteBuffer line) throws IOException {
+        if (line.remaining() > pending.remaining()) {
+            this.writeOut(pending);
+        }
+        if (line.remaining() > pending.remaining()) {
+            this.write(line);
+        } else {
+            pending.put(line);
+        }
+    }
+
+    /**
+     * writes the pending bytes to the log file
+     *
+     * @param pending pending bytes
+     * @throws IOException if the log file cannot be written
+     */
+    private void writeOut(ByteBuffer pending) throws IOException {
+        pending.flip();
+        this.write(pending);
+        pending.clear();
+    }
+
+    /**
+     * writes the pending messages and closes the log file
+     */
+    public void close() {
+        PdiLogBuffer buffer;
+        Thread flusher;
+        synchronized (this) {
+            buffer = this.buffer;
+            flusher = this.flusher;
+        }
+        if (buffer != null) {
+            buffer.close();
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            this.closed = true;
+            try {
+                if (this.channel != null) {
+                    this.channel.close();
+                    this.channel = null;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * switches the log format, lines written or queued before are kept as they are
+     *
+     * @param format log format text or json
+     * @throws IllegalArgumentException for an unknown format
+     */
+    public synchronized void setFormat(String format) {
+        switch (format) {
+            case FORMAT_TEXT:
+                this.events = null;
+                break;
+            case FORMAT_JSON:
+                if (this.events == null) {
+                    this.events = ByteBuffer.allocate(EVENT_LINE_SIZE);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid log format " + format);
+        }
+        this.format = format;
+    }
+
+    /**
+     * @return true if the log is written as structured events
+     */
+    public boolean isStructured() {
+        return FORMAT_JSON.equals(this.format);
+    }
+
+    /**
+     * starts a structured event, the event is taken from the pool and goes back to it once written
+     *
+     * @param event event type
+     * @return event to add the fields to, it has to be written exactly once
+     */
+    public PdiLogEvent event(String event) {
+        return this.acquireEvent().start(event);
+    }
+
+    /**
+     * @return idle event from the pool, a new one if the pool is empty
+     */
+    private PdiLogEvent acquireEvent() {
+        PdiLogEvent event;
+        synchronized (this.eventPool) {
+            event = this.eventPool.poll();
+        }
+        return event != null ? event : new PdiLogEvent(this);
+    }
+
+    /**
+     * @param event written event, kept for reuse unless the pool is full
+     */
+    private void releaseEvent(PdiLogEvent event) {
+        synchronized (this.eventPool) {
+            if (this.eventPool.size() < EVENT_POOL_SIZE) {
+                this.eventPool.push(event);
+            }
+        }
+    }
+
+    /**
+     * writes an event, in async mode it is queued in the ring buffer and written by the flusher thread,
+     * an event started before the format was switched to text is written as a text message
+     *
+     * @param event event to be written, owned by the writer from now on
+     */
+    protected void writeEvent(PdiLogEvent event) {
+        PdiLogBuffer buffer = this.buffer;
+        if (buffer != null) {
+            if (!buffer.offer(System.currentTimeMillis(), event)) {
+                this.releaseEvent(event);
+            }
+            return;
+        }
+        synchronized (this) {
+            try {
+                if (this.events != null) {
+                    this.events = this.encodeEvent(this.events, System.currentTimeMillis(), event.getBuffer());
+                    this.write(this.events);
+                } else {
+                    this.writeLogSync(eventText(event.getBuffer()));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        this.releaseEvent(event);
+    }
+
+    /**
+     * encodes an event line behind its timestamp
+     *
+     * @param line  buffer the line is encoded into
+     * @param time  time in milli seconds the event was logged
+     * @param event fields of the event, each preceded by a comma
+     * @return buffer holding the line ready to be read, the given one or a larger one
+     */
+    private synchronized ByteBuffer encodeEvent(ByteBuffer line, long time, ByteBuffer event) {
+        this.updateTime(time);
+        int size = this.eventSize(event);
+        if (size > line.capacity()) {
+            // grown geometrically so a series of growing events does not allocate every time
+            line = ByteBuffer.allocate(Math.max(size, 2 * line.capacity()));
+        }
+        line.clear();
+        this.putEvent(line, event);
+        line.flip();
+        return line;
+    }
+
+    /**
+     * @param event fields of the event, each preceded by a comma
+     * @return event as a JSON object on a line of its own
+     */
+    private static String eventText(ByteBuffer event) {
+        return "{" + new String(event.array(), 1, event.position() - 1, StandardCharsets.UTF_8) + "}\n";
+    }
+
+    /**
+     * @param event fields of the event, each preceded by a comma
+     * @return size in bytes of the event line
+     */
+    private int eventSize(ByteBuffer event) {
+        return EVENT_PREFIX.length + this.time.length + 1 + event.position() + 2;
+    }
+
+    /**
+     * puts an event line behind the cached timestamp
+     *
+     * @param target buffer with room for the event line
+     * @param event  fields of the event, each preceded by a comma
+     */
+    private void putEvent(ByteBuffer target, ByteBuffer event) {
+        target.put(EVENT_PREFIX).put(this.time).put((byte) '"');
+        event.flip();
+        target.put(event);
+        target.put((byte) '}').put((byte) '\n');
+    }
+
+    /**
+     * updates the cached timestamp, the date and hour are formatted only when the local hour changes
+     *
+     * @param now time in milli seconds
+     */
+    private void updateTime(long now) {
+        if (this.hourStart < 0 || now < this.hourStart || now >= this.hourStart + HOUR) {
+            LocalDateTime local = LocalDateTime.ofInstant(Instant.ofEpochMilli(now), ZoneId.systemDefault());
+            this.hourStart = now - (local.getMinute() * 60000L + local.getSecond() * 1000L + local.getNano() / 1000000);
+            putDigits(this.time, 0, local.getYear(), 4);
+            putDigits(this.time, 5, local.getMonthValue(), 2);
+            putDigits(this.time, 8, local.getDayOfMonth(), 2);
+            putDigits(this.time, 11, local.getHour(), 2);
+        }
+        long inHour = now - this.hourStart;
+        putDigits(this.time, 14, (int) (inHour / 60000), 2);
+        putDigits(this.time, 17, (int) (inHour / 1000 % 60), 2);
+        putDigits(this.time, 20, (int) (inHour % 1000), 3);
+    }
+
+    /**
+     * @param bytes  target bytes
+     * @param offset index of the first digit
+     * @param value  non negative number
+     * @param digits number of digits, leading zeros are added
+     */
+    protected static void putDigits(byte[] bytes, int offset, int value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
     /**
      * writes to the log file
      *
      * @param log log data
      */
     protected void writeLog(String log) {
-        FileWriter logWriter = this.getFileWriter();
+        if (this.isStructured()) {
+            this.message(this.acquireEvent(), log).write();
+            return;
+        }
+        PdiLogBuffer buffer = this.buffer;
+        if (buffer != null) {
+            buffer.offer(System.currentTimeMillis(), log);
+            return;
+        }
+        this.writeLogSync(log);
+    }
+
+    /**
+     * starts a message event
+     *
+     * @param event event to be reused
+     * @param log   log data
+     * @return event with the message without the blank lines around it
+     */
+    private PdiLogEvent message(PdiLogEvent event, String log) {
+        int start = 0;
+        int end = log.length();
+        while (start < end && log.charAt(start) == '\n') {
+            start++;
+        }
+        while (end > start && log.charAt(end - 1) == '\n') {
+            end--;
+        }
+        return event.start(EVENT_MESSAGE).field("message", log, start, end);
+    }
+
+    /**
+     * writes to the log file on the calling thread
+     *
+     * @param log log data
+     */
+    private synchronized void writeLogSync(String log) {
         try {
-            if (logWriter != null) {
-                Date date = new Date();
-                Timestamp timestamp = new Timestamp(date.getTime());
-                logWriter.write(timestamp + " " + log);
-                logWriter.flush();
-            }
+            Timestamp timestamp = new Timestamp(System.currentTimeMillis());
+            this.write(ByteBuffer.wrap((timestamp + " " + log).getBytes(StandardCharsets.UTF_8)));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * @param logWriter sets filewriter class
+     * @param flushSize number of pending bytes that triggers a write in async mode
+     */
+    public void setFlushSize(int flushSize) {
+        this.flushSize = flushSize;
+    }
+
+    /**
+     * @param flushInterval max time in milli seconds messages stay pending in async mode
+     */
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * @param maxBytes size in bytes the log is rolled over at, 0 for no limit
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param rolloverInterval time in milli seconds between rollovers aligned to local time, e.g. a day rolls over
+     *                         at midnight, 0 for no time based rollover
+     */
+    public synchronized void setRolloverInterval(long rolloverInterval) {
+        this.rolloverInterval = rolloverInterval;
+        this.scheduleRollover(System.currentTimeMillis());
+    }
+
+    /**
+     * @param archiver archiver compressing the rolled over logs
      */
-    private void setFileWriter(FileWriter logWriter) {
-        this.logWriter = logWriter;
+    public synchronized void setArchiver(PdiLogArchiver archiver) {
+        this.archiver = archiver;
     }
 
     /**
-     * @return filewriter
+     * @param metrics metrics counting the rollovers
      */
-    private FileWriter getFileWriter() {
-        return this.logWriter;
+    public synchronized void setMetrics(PdiMetrics metrics) {
+        this.metrics = metrics;
     }
 
     /**
@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Registry of the job metrics
+ * every job is registered as an MXBean and all metrics can be scraped in the prometheus text format
+ * from a local HTTP endpoint
+ */
+public class PdiMetrics {
+    /**
+     * JMX domain of the job metrics
+     */
+    public static final String JMX_DOMAIN = "com.advisory.PDIDaemon";
+
+    /**
+     * path of the HTTP endpoint
+     */
+    public static final String METRICS_PATH = "/metrics";
+
+    /**
+     * content type of the prometheus text format
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * log message for the started endpoint
+     */
+    public static final String MESSAGE_ENDPOINT = "Serving metrics on http://%s:%d%s\n";
+
+    /**
+     * metrics by job name
+     */
+    private final Map<String, PdiJobMetrics> jobs = new ConcurrentSkipListMap<>();
+
+    /**
+     * number of daemon log rotations
+     */
+    private final LongAdder daemonRotations = new LongAdder();
+
+    /**
+     * HTTP server of the endpoint, null unless started
+     */
+    private HttpServer server = null;
+
+    /**
+     * returns the metrics of a job, registering them on first use
+     *
+     * @param job name of the job
+     * @return metrics of the job
+     */
+    public PdiJobMetrics register(String job) {
+        return this.jobs.computeIfAbsent(job, name -> {
+            PdiJobMetrics metrics = new PdiJobMetrics(name);
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName(name));
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+            return metrics;
+        });
+    }
+
+    /**
+     * removes the metrics of a job
+     *
+     * @param job name of the job
+     */
+    public void unregister(String job) {
+        if (this.jobs.remove(job) != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                server.unregisterMBean(objectName(job));
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * counts a daemon log rotation
+     */
+    public void recordDaemonRotation() {
+        this.daemonRotations.increment();
+    }
+
+    /**
+     * starts the HTTP endpoint on the loopback interface
+     *
+     * @param port port to listen on
+     * @return address of the endpoint
+     * @throws IOException if the port cannot be bound
+     */
+    public synchronized InetSocketAddress start(int port) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        HttpServer server = HttpServer.create(address, 0);
+        server.createContext(METRICS_PATH, this::handle);
+        server.start();
+        this.server = server;
+        return server.getAddress();
+    }
+
+    /**
+     * stops the HTTP endpoint
+     */
+    public synchronized void stop() {
+        if (this.server != null) {
+            this.server.stop(0);
+            this.server = null;
+        }
+    }
+
+    /**
+     * @return all metrics in the prometheus text format
+     */
+    public String render() {
+        StringBuilder out = new StringBuilder(4096);
+        out.append("# TYPE pdi_daemon_log_rotations_total counter\n");
+        out.append("pdi_daemon_log_rotations_total ").append(this.daemonRotations.sum()).append('\n');
+        this.appendValues(out, "pdi_job_runs_total", "counter", PdiJobMetrics::getRuns);
+        this.appendValues(out, "pdi_job_failures_total", "counter", PdiJobMetrics::getFailures);
+        this.appendValues(out, "pdi_job_last_exit_code", "gauge", PdiJobMetrics::getLastExitCode);
+        this.appendValues(out, "pdi_job_output_bytes_total", "counter", PdiJobMetrics::getOutputBytes);
+        this.appendValues(out, "pdi_job_rotations_total", "counter", PdiJobMetrics::getRotations);
+        this.appendValues(out, "pdi_job_wait_ticks_total", "counter", PdiJobMetrics::getWaitTicks);
+        this.appendValues(out, "pdi_job_timeouts_total", "counter", PdiJobMetrics::getTimeouts);
+        this.appendValues(out, "pdi_job_memory_kills_total", "counter", PdiJobMetrics::getMemoryKills);
+        this.appendValues(out, "pdi_job_cpu_milliseconds_total", "counter", PdiJobMetrics::getCpuMillis);
+        this.appendValues(out, "pdi_job_last_peak_rss_bytes", "gauge", PdiJobMetrics::getLastPeakRss);
+        this.appendValues(out, "pdi_job_read_bytes_total", "counter", PdiJobMetrics::getReadBytes);
+        this.appendValues(out, "pdi_job_write_bytes_total", "counter", PdiJobMetrics::getWriteBytes);
+        this.appendHistograms(out, "pdi_job_spawn_latency_seconds", PdiJobMetrics::getSpawnLatency);
+        this.appendHistograms(out, "pdi_job_run_duration_seconds", PdiJobMetrics::getRunDuration);
+        this.appendHistograms(out, "pdi_job_schedule_lag_seconds", PdiJobMetrics::getScheduleLag);
+        this.appendHistograms(out, "pdi_job_wait_seconds", PdiJobMetrics::getWaitDuration);
+        return out.toString();
+    }
+
+    /**
+     * appends a single valued metric of every job
+     *
+     * @param out   buffer to append to
+     * @param name  metric name
+     * @param type  prometheus metric type
+     * @param value value of the metric for a job
+     */
+    private void appendValues(StringBuilder out, String name, String type, ToLongFunction<PdiJobMetrics> value) {
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        for (PdiJobMetrics metrics : this.jobs.values()) {
+            out.append(name).append('{').append(metrics.getLabels()).append("} ")
+                    .append(value.applyAsLong(metrics)).append('\n');
+        }
+    }
+
+    /**
+     * appends a histogram of every job
+     *
+     * @param out       buffer to append to
+     * @param name      metric name
+     * @param histogram histogram of a job
+     */
+    private void appendHistograms(StringBuilder out, String name, Function<PdiJobMetrics, PdiHistogram> histogram) {
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        for (PdiJobMetrics metrics : this.jobs.values()) {
+            histogram.apply(metrics).appendTo(out, name, metrics.getLabels());
+        }
+    }
+
+    /**
+     * answers a scrape of the endpoint
+     *
+     * @param exchange HTTP exchange
+     * @throws IOException if the response cannot be written
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body = this.render().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * @param job name of the job
+     * @return JMX name of the job metrics
+     * @throws JMException if the name is invalid
+     */
+    private static ObjectName objectName(String job) throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=Job,name=" + ObjectName.quote(job));
+    }
+}
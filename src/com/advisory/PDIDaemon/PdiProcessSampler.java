@@ -0,0 +1,309 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Samples CPU time, resident memory and I/O of a process tree from /proc
+ * one sampler is used per run, the root process and all of its descendants are read at every sample
+ * and the figures of processes that have already exited are kept from their last sample
+ *
+ * cpu time    - utime and stime of /proc/&lt;pid&gt;/stat
+ * memory      - VmRSS of /proc/&lt;pid&gt;/status summed over the tree
+ * I/O         - read_bytes and write_bytes of /proc/&lt;pid&gt;/io, zero where it is not readable
+ *
+ * figures of a long lived root such as a worker are counted from the first sample
+ */
+public class PdiProcessSampler {
+    /**
+     * clock ticks per second of the stat cpu times, USER_HZ is 100 on every Linux platform
+     */
+    public static final int CLOCK_TICKS = 100;
+
+    /**
+     * size of the buffer the /proc files are read into
+     */
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * index of the cpu ticks in the figures of a process
+     */
+    private static final int CPU = 0;
+
+    /**
+     * index of the resident memory in the figures of a process
+     */
+    private static final int RSS = 1;
+
+    /**
+     * index of the bytes read in the figures of a process
+     */
+    private static final int READ = 2;
+
+    /**
+     * index of the bytes written in the figures of a process
+     */
+    private static final int WRITE = 3;
+
+    /**
+     * root process of the sampled tree
+     */
+    private final ProcessHandle root;
+
+    /**
+     * buffer the /proc files are read into, reused for every file
+     */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * figures of the first sample of every process, subtracted from the later samples
+     */
+    private final Map<Long, long[]> baseline = new HashMap<>();
+
+    /**
+     * figures of the last sample of every process
+     */
+    private final Map<Long, long[]> last = new HashMap<>();
+
+    /**
+     * true once the first sample was taken
+     */
+    private boolean started = false;
+
+    /**
+     * resident memory in bytes of the tree at the last sample
+     */
+    private long rss = 0;
+
+    /**
+     * highest resident memory in bytes of the tree
+     */
+    private long peakRss = 0;
+
+    /**
+     * Constructor
+     *
+     * @param root root process of the tree to be sampled
+     */
+    public PdiProcessSampler(ProcessHandle root) {
+        this.root = root;
+    }
+
+    /**
+     * reads the figures of every process of the tree
+     */
+    public synchronized void sample() {
+        long rss = 0;
+        rss += this.sample(this.root);
+        for (ProcessHandle handle : (Iterable<ProcessHandle>) this.root.descendants()::iterator) {
+            rss += this.sample(handle);
+        }
+        this.started = true;
+        this.rss = rss;
+        this.peakRss = Math.max(this.peakRss, rss);
+    }
+
+    /**
+     * @return cpu time in milli seconds used by the tree since the first sample
+     */
+    public synchronized long getCpuMillis() {
+        return this.total(CPU) * 1000 / CLOCK_TICKS;
+    }
+
+    /**
+     * @return resident memory in bytes of the tree at the last sample
+     */
+    public synchronized long getRss() {
+        return this.rss;
+    }
+
+    /**
+     * @return highest resident memory in bytes of the tree
+     */
+    public synchronized long getPeakRss() {
+        return this.peakRss;
+    }
+
+    /**
+     * @return bytes read from storage by the tree since the first sample
+     */
+    public synchronized long getReadBytes() {
+        return this.total(READ);
+    }
+
+    /**
+     * @return bytes written to storage by the tree since the first sample
+     */
+    public synchronized long getWriteBytes() {
+        return this.total(WRITE);
+    }
+
+    /**
+     * reads the resident memory of a single process
+     *
+     * @param pid pid of the process
+     * @return resident memory in bytes, 0 if unknown
+     */
+    public static long readRss(long pid) {
+        PdiProcessSampler sampler = new PdiProcessSampler(null);
+        long[] figures = new long[4];
+        return sampler.readProc(pid, figures) ? figures[RSS] : 0;
+    }
+
+    /**
+     * samples a single process
+     *
+     * @param handle process to be sampled
+     * @return resident memory in bytes of the process, 0 if it has exited
+     */
+    private long sample(ProcessHandle handle) {
+        long pid = handle.pid();
+        long[] figures = new long[4];
+        if (!this.readProc(pid, figures)) {
+            return 0;
+        }
+        this.last.put(pid, figures);
+        if (!this.started) {
+            this.baseline.put(pid, figures);
+        }
+        return figures[RSS];
+    }
+
+    /**
+     * @param field index of the figure
+     * @return figure summed over every process seen, less the first sample
+     */
+    private long total(int field) {
+        long total = 0;
+        for (Map.Entry<Long, long[]> entry : this.last.entrySet()) {
+            long[] first = this.baseline.get(entry.getKey());
+            total += entry.getValue()[field] - (first == null ? 0 : first[field]);
+        }
+        return total;
+    }
+
+    /**
+     * reads the figures of a process from /proc
+     *
+     * @param pid     pid of the process
+     * @param figures array receiving cpu ticks, resident memory, bytes read and bytes written
+     * @return false if the process has exited or there is no /proc
+     */
+    private boolean readProc(long pid, long[] figures) {
+        String folder = "/proc/" + pid + "/";
+        int length = this.read(folder + "stat");
+        if (length <= 0) {
+            return false;
+        }
+        // the command name in parentheses may contain spaces, fields are counted after it
+        int index = length - 1;
+        while (index > 0 && this.buffer[index] != ')') {
+            index--;
+        }
+        // utime and stime are fields 14 and 15, the state after the name is field 3
+        figures[CPU] = this.field(index + 2, length, 11) + this.field(index + 2, length, 12);
+
+        length = this.read(folder + "status");
+        figures[RSS] = this.value(length, "VmRSS:") * 1024;
+
+        length = this.read(folder + "io");
+        figures[READ] = this.value(length, "read_bytes:");
+        figures[WRITE] = this.value(length, "write_bytes:");
+        return true;
+    }
+
+    /**
+     * reads a /proc file into the buffer
+     *
+     * @param fileName file name
+     * @return number of bytes read, -1 if the file cannot be read
+     */
+    private int read(String fileName) {
+        try (InputStream in = new FileInputStream(fileName)) {
+            int length = 0;
+            int count;
+            while (length < this.buffer.length && (count = in.read(this.buffer, length, this.buffer.length - length)) > 0) {
+                length += count;
+            }
+            return length;
+        } catch (IOException e) {
+            // the process has exited or the file is not readable
+            return -1;
+        }
+    }
+
+    /**
+     * parses a space separated number of the buffer
+     *
+     * @param start  index the fields start at
+     * @param length number of bytes in the buffer
+     * @param field  index of the field counted from start
+     * @return value of the field, 0 if missing
+     */
+    private long field(int start, int length, int field) {
+        int index = start;
+        for (int i = 0; i < field && index < length; index++) {
+            if (this.buffer[index] == ' ') {
+                i++;
+            }
+        }
+        return this.number(index, length);
+    }
+
+    /**
+     * parses the number following a key of a key value file in the buffer
+     *
+     * @param length number of bytes in the buffer
+     * @param key    key including the colon
+     * @return value of the key, 0 if missing
+     */
+    private long value(int length, String key) {
+        int keyLength = key.length();
+        for (int index = 0; index + keyLength <= length; index++) {
+            if ((index == 0 || this.buffer[index - 1] == '\n') && this.matches(index, key)) {
+                index += keyLength;
+                while (index < length && (this.buffer[index] == ' ' || this.buffer[index] == '\t')) {
+                    index++;
+                }
+                return this.number(index, length);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param index index in the buffer
+     * @param key   key to be compared
+     * @return true if the buffer holds the key at the index
+     */
+    private boolean matches(int index, String key) {
+        for (int i = 0; i < key.length(); i++) {
+            if (this.buffer[index + i] != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param index  index the number starts at
+     * @param length number of bytes in the buffer
+     * @return decimal number at the index
+     */
+    private long number(int index, int length) {
+        long value = 0;
+        while (index < length && this.buffer[index] >= '0' && this.buffer[index] <= '9') {
+            value = value * 10 + this.buffer[index] - '0';
+            index++;
+        }
+        return value;
+    }
+}
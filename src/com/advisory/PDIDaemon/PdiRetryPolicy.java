@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether and when a failed run is retried
+ * a run is retried when its exit code is retryable, up to a max number of attempts,
+ * with an exponential backoff where half of the delay is random so that daemons on several hosts
+ * do not retry at the same moment, after too many failures in a row the circuit breaker opens and
+ * no run is spawned until the cool down has passed
+ */
+public class PdiRetryPolicy {
+    /**
+     * default consecutive failures that open the circuit breaker, 0 to never open it
+     */
+    public static final int BREAKER_THRESHOLD_DEFAULT = 0;
+
+    /**
+     * exit codes that are retried, empty to retry every non zero exit code
+     */
+    private final Set<Integer> retryableCodes;
+
+    /**
+     * max number of retries after a failed run, 0 to disable retries
+     */
+    private final int maxAttempts;
+
+    /**
+     * delay in milli seconds before the first retry
+     */
+    private final long baseDelay;
+
+    /**
+     * max delay in milli seconds between retries
+     */
+    private final long maxDelay;
+
+    /**
+     * consecutive failures that open the circuit breaker, 0 to never open it
+     */
+    private final int breakerThreshold;
+
+    /**
+     * time in milli seconds the circuit breaker stays open
+     */
+    private final long breakerCooldown;
+
+    /**
+     * Constructor
+     *
+     * @param retryableCodes   comma separated exit codes that are retried, null or empty for every non zero code
+     * @param maxAttempts      max number of retries after a failed run, 0 to disable retries
+     * @param baseDelay        delay in milli seconds before the first retry
+     * @param maxDelay         max delay in milli seconds between retries
+     * @param breakerThreshold consecutive failures that open the circuit breaker, 0 to never open it
+     * @param breakerCooldown  time in milli seconds the circuit breaker stays open
+     * @throws IllegalArgumentException for an invalid exit code list
+     */
+    public PdiRetryPolicy(String retryableCodes, int maxAttempts, long baseDelay, long maxDelay,
+                          int breakerThreshold, long breakerCooldown) {
+        Set<Integer> codes = new HashSet<>();
+        if (retryableCodes != null) {
+            for (String code : retryableCodes.split(",")) {
+                if (!code.trim().isEmpty()) {
+                    codes.add(Integer.parseInt(code.trim()));
+                }
+            }
+        }
+        this.retryableCodes = codes;
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = Math.max(1, baseDelay);
+        this.maxDelay = Math.max(this.baseDelay, maxDelay);
+        this.breakerThreshold = breakerThreshold;
+        this.breakerCooldown = breakerCooldown;
+    }
+
+    /**
+     * @param exitCode exit code of the failed run
+     * @param attempt  number of retries already done for the failure
+     * @return true if the run should be retried
+     */
+    public boolean shouldRetry(int exitCode, int attempt) {
+        if (exitCode == 0 || attempt >= this.maxAttempts) {
+            return false;
+        }
+        return this.retryableCodes.isEmpty() || this.retryableCodes.contains(exitCode);
+    }
+
+    /**
+     * computes the delay before a retry, doubling with every attempt up to the max delay,
+     * the second half of the delay is random
+     *
+     * @param attempt number of the retry starting at 1
+     * @return delay in milli seconds
+     */
+    public long backoff(int attempt) {
+        int shift = Math.min(attempt - 1, 62);
+        long delay = this.baseDelay << shift;
+        if (delay <= 0 || delay > this.maxDelay || (delay >> shift) != this.baseDelay) {
+            delay = this.maxDelay;
+        }
+        long half = delay / 2;
+        return delay - half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    /**
+     * @param consecutiveFailures number of failed runs in a row
+     * @return true if the circuit breaker should open
+     */
+    public boolean shouldOpenBreaker(int consecutiveFailures) {
+        return this.breakerThreshold > 0 && consecutiveFailures >= this.breakerThreshold;
+    }
+
+    /**
+     * @return max number of retries after a failed run
+     */
+    protected int getMaxAttempts() {
+        return this.maxAttempts;
+    }
+
+    /**
+     * @return time in milli seconds the circuit breaker stays open
+     */
+    protected long getBreakerCooldown() {
+        return this.breakerCooldown;
+    }
+}
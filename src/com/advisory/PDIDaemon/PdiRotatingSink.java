@@ -0,0 +1,315 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Command log written by the daemon while the command is running
+ * the log is rotated as soon as it reaches the size limit instead of between spawns,
+ * optionally every line is prefixed with a timestamp and the run id,
+ * the prefix is kept in a reused buffer and its date and time are formatted once a second
+ * and a sparse time index of the log is kept next to it, see PdiLogIndex
+ */
+public class PdiRotatingSink implements Closeable {
+    /**
+     * log file written to
+     */
+    private final File file;
+
+    /**
+     * size in bytes at which the log is rotated
+     */
+    private final long limit;
+
+    /**
+     * logwriter for autospawn logs
+     */
+    private final PdiLogWriter logWriter;
+
+    /**
+     * archiver compressing and deleting rotated logs, may be null
+     */
+    private final PdiLogArchiver archiver;
+
+    /**
+     * run id written in the line prefix, null to write the output as is
+     */
+    private final String runId;
+
+    /**
+     * line prefix as yyyy-MM-dd HH:mm:ss.SSS [runId], null to write the output as is
+     */
+    private final byte[] prefix;
+
+    /**
+     * buffer wrapping the line prefix
+     */
+    private final ByteBuffer prefixBuffer;
+
+    /**
+     * epoch second the date and time of the line prefix are formatted for
+     */
+    private long prefixSecond = Long.MIN_VALUE;
+
+    /**
+     * channel of the current log file
+     */
+    private FileChannel channel;
+
+    /**
+     * size in bytes of the current log file
+     */
+    private long size;
+
+    /**
+     * size in bytes of the current log file at which the next rotation is tried,
+     * moved on by another limit when a rename fails
+     */
+    private long rotateAt;
+
+    /**
+     * total number of output bytes written
+     */
+    private long written = 0;
+
+    /**
+     * number of rotations done
+     */
+    private long rotations = 0;
+
+    /**
+     * true if the next byte starts a new line
+     */
+    private boolean lineStart = true;
+
+    /**
+     * time index of the log, null if the log is not indexed
+     */
+    private PdiLogIndex index = null;
+
+    /**
+     * id of the run written to the index
+     */
+    private long indexRunId;
+
+    /**
+     * Constructor opens the log file for appending
+     *
+     * @param fileName  log file name
+     * @param limit     size in bytes at which the log is rotated
+     * @param runId     run id for the line prefix, null for no prefix
+     * @param logWriter logwriter for autospawn logs
+     * @param archiver  archiver for rotated logs, null to keep them as they are
+     * @throws IOException if the log file cannot be opened
+     */
+    public PdiRotatingSink(String fileName, long limit, String runId, PdiLogWriter logWriter,
+                           PdiLogArchiver archiver) throws IOException {
+        this.file = new File(fileName);
+        this.limit = limit;
+        this.runId = runId;
+        this.prefix = runId == null ? null : ("0000-00-00 00:00:00.000 [" + runId + "] ").getBytes(StandardCharsets.UTF_8);
+        this.prefixBuffer = runId == null ? null : ByteBuffer.wrap(this.prefix);
+        this.logWriter = logWriter;
+        this.archiver = archiver;
+        this.open();
+    }
+
+    /**
+     * writes output of the command, rotating the log when it reaches the limit
+     *
+     * @param data output bytes, consumed completely
+     * @throws IOException if the log cannot be written or rotated
+     */
+    public void write(ByteBuffer data) throws IOException {
+        if (this.runId == null) {
+            this.rotateIfFull();
+            if (this.index != null && this.index.isDue(this.size)) {
+                this.writeIndexed(data);
+            }
+            this.writeFully(data);
+            return;
+        }
+        while (data.hasRemaining()) {
+            if (this.lineStart) {
+                long now = System.currentTimeMillis();
+                this.rotateIfFull();
+                if (this.index != null && this.index.isDue(this.size)) {
+                    this.index.append(now, this.size, this.indexRunId, PdiLogIndex.KIND_MARK);
+                }
+                this.updatePrefix(now);
+                this.prefixBuffer.clear();
+                this.writeFully(this.prefixBuffer);
+                this.lineStart = false;
+            }
+            int end = data.position();
+            while (end < data.limit() && data.get(end) != '\n') {
+                end++;
+            }
+            if (end < data.limit()) {
+                end++;
+                this.lineStart = true;
+            }
+            ByteBuffer line = data.duplicate();
+            line.limit(end);
+            this.writeFully(line);
+            data.position(end);
+        }
+    }
+
+    /**
+     * updates the timestamp of the line prefix, the date and time are formatted only when the second changes
+     *
+     * @param now time in milli seconds
+     */
+    private void updatePrefix(long now) {
+        long second = Math.floorDiv(now, 1000);
+        if (second != this.prefixSecond) {
+            this.prefixSecond = second;
+            LocalDateTime local = LocalDateTime.ofInstant(Instant.ofEpochMilli(now), ZoneId.systemDefault());
+            PdiLogWriter.putDigits(this.prefix, 0, local.getYear(), 4);
+            PdiLogWriter.putDigits(this.prefix, 5, local.getMonthValue(), 2);
+            PdiLogWriter.putDigits(this.prefix, 8, local.getDayOfMonth(), 2);
+            PdiLogWriter.putDigits(this.prefix, 11, local.getHour(), 2);
+            PdiLogWriter.putDigits(this.prefix, 14, local.getMinute(), 2);
+            PdiLogWriter.putDigits(this.prefix, 17, local.getSecond(), 2);
+        }
+        PdiLogWriter.putDigits(this.prefix, 20, Math.floorMod(now, 1000), 3);
+    }
+
+    /**
+     * starts indexing the log for a run, the first entry marks the offset the output of the run starts at
+     *
+     * @param runId id of the run
+     * @throws IOException if the index cannot be opened
+     */
+    public void index(long runId) throws IOException {
+        this.index = new PdiLogIndex(this.file);
+        this.indexRunId = runId;
+        this.index.append(System.currentTimeMillis(), this.size, runId, PdiLogIndex.KIND_RUN);
+    }
+
+    /**
+     * @return total number of output bytes written
+     */
+    public long getWritten() {
+        return this.written;
+    }
+
+    /**
+     * @return number of rotations done
+     */
+    public long getRotations() {
+        return this.rotations;
+    }
+
+    /**
+     * closes the current log file
+     *
+     * @throws IOException if the log cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+        if (this.index != null) {
+            this.index.close();
+        }
+    }
+
+    /**
+     * opens the log file for appending
+     *
+     * @throws IOException if the log file cannot be opened
+     */
+    private void open() throws IOException {
+        File parent = this.file.getAbsoluteFile().getParentFile();
+        if (!parent.exists()) {
+            parent.mkdirs();
+        }
+        this.channel = FileChannel.open(this.file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.size = this.channel.size();
+        this.rotateAt = this.limit;
+    }
+
+    /**
+     * rotates the log when it has reached the limit, if the rename fails the failure is logged
+     * and the log is appended to and rotated again after another limit instead of on every write
+     *
+     * @throws IOException if the log cannot be rotated
+     */
+    private void rotateIfFull() throws IOException {
+        if (this.size < this.rotateAt) {
+            return;
+        }
+        this.channel.close();
+        File rotatedFile = PdiDaemon.rotationTarget(this.file);
+        if (!this.file.renameTo(rotatedFile)) {
+            this.open();
+            this.rotateAt = this.size + this.limit;
+            this.logWriter.writeLog(String.format(PdiLogWriter.MESSAGE_ROLLOVER_FAILED, this.file.getName(),
+                    rotatedFile.getName(), this.limit));
+            return;
+        }
+        this.rotations++;
+        if (this.index != null) {
+            this.index.rotate(rotatedFile);
+        }
+        if (this.archiver != null) {
+            this.archiver.archive(this.file, rotatedFile);
+        }
+        String log = String.format(PdiDaemon.MESSAGE_COMPRESS, this.file.getName(), rotatedFile.getPath(), this.file.getParent());
+        this.logWriter.writeLog(log);
+        this.open();
+        if (this.index != null) {
+            // every log starts with the run writing it
+            this.index.append(System.currentTimeMillis(), 0, this.indexRunId, PdiLogIndex.KIND_RUN);
+        }
+    }
+
+    /**
+     * writes the output up to the first line end and indexes the next line start,
+     * unprefixed output is only split at line ends for the index
+     *
+     * @param data output bytes, the bytes up to the first line end are consumed
+     * @throws IOException if the log or the index cannot be written
+     */
+    private void writeIndexed(ByteBuffer data) throws IOException {
+        int end = data.position();
+        while (end < data.limit() && data.get(end) != '\n') {
+            end++;
+        }
+        if (end == data.limit()) {
+            return;
+        }
+        ByteBuffer line = data.duplicate();
+        line.limit(end + 1);
+        this.writeFully(line);
+        data.position(end + 1);
+        this.index.append(System.currentTimeMillis(), this.size, this.indexRunId, PdiLogIndex.KIND_MARK);
+    }
+
+    /**
+     * @param data bytes to be written completely
+     * @throws IOException if the log cannot be written
+     */
+    private void writeFully(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            int count = this.channel.write(data);
+            this.size += count;
+            this.written += count;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append only journal of completed runs written through a memory mapped file
+ * every run is a fixed size record so appending is a put into the mapped window and
+ * queries scan the records from the newest backwards without parsing text
+ *
+ * header  - magic, version, record size, number of records
+ * record  - run id, job name (24 bytes UTF-8), start, end, exit code, pid, output bytes
+ *
+ * a job name longer than the field is stored as its first characters that fit in 15 bytes,
+ * a tilde and the CRC32 of the full name in hex, so long names sharing a prefix stay apart
+ *
+ * the record count in the header is written after the record, a record torn by a crash is ignored
+ *
+ * the journal can be queried while the daemon is running
+ *
+ * java -cp pdi-daemon.jar com.advisory.PDIDaemon.PdiRunJournal &lt;journal&gt; last|stats|streak [job] [count]
+ */
+public class PdiRunJournal implements Closeable {
+    /**
+     * file name of the journal in the log folder
+     */
+    public static final String JOURNAL_NAME = "pdi_run_journal.dat";
+
+    /**
+     * size in bytes of a record and of the header
+     */
+    public static final int RECORD_SIZE = 64;
+
+    /**
+     * size in bytes of the job name field
+     */
+    public static final int JOB_SIZE = 24;
+
+    /**
+     * size in bytes of the name prefix kept of a job name longer than the field
+     */
+    private static final int JOB_PREFIX_SIZE = JOB_SIZE - 9;
+
+    /**
+     * number of records mapped at a time for appending and querying
+     */
+    private static final int WINDOW_RECORDS = 4096;
+
+    /**
+     * magic number at the start of the file
+     */
+    private static final int MAGIC = 0x50444A31;
+
+    /**
+     * version of the record layout
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * offset of the record count in the header
+     */
+    private static final int COUNT_OFFSET = 12;
+
+    /**
+     * journal file
+     */
+    private final File file;
+
+    /**
+     * channel of the journal file
+     */
+    private final FileChannel channel;
+
+    /**
+     * mapped header
+     */
+    private final MappedByteBuffer header;
+
+    /**
+     * mapped window the next records are appended to, null for a read only journal
+     */
+    private MappedByteBuffer window = null;
+
+    /**
+     * index of the first record of the window
+     */
+    private long windowStart = -1;
+
+    /**
+     * number of records in the journal
+     */
+    private long count;
+
+    /**
+     * Constructor opens or creates the journal
+     *
+     * @param file     journal file
+     * @param readOnly true to only query the journal
+     * @throws IOException if the journal cannot be opened or is not a run journal
+     */
+    public PdiRunJournal(File file, boolean readOnly) throws IOException {
+        this.file = file;
+        if (readOnly) {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            this.header = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, RECORD_SIZE);
+        } else {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (!parent.exists()) {
+                parent.mkdirs();
+            }
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            boolean created = this.channel.size() == 0;
+            this.header = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, RECORD_SIZE);
+            if (created) {
+                this.header.putInt(0, MAGIC);
+                this.header.putInt(4, VERSION);
+                this.header.putInt(8, RECORD_SIZE);
+                this.header.putLong(COUNT_OFFSET, 0);
+            }
+        }
+        if (this.header.getInt(0) != MAGIC || this.header.getInt(8) != RECORD_SIZE) {
+            this.channel.close();
+            throw new IOException(file + " is not a run journal");
+        }
+        this.count = this.header.getLong(COUNT_OFFSET);
+    }
+
+    /**
+     * appends a completed run
+     *
+     * @param run completed run
+     * @throws IOException if the journal cannot be extended
+     */
+    public synchronized void append(PdiRunRecord run) throws IOException {
+        long index = this.count;
+        if (this.window == null || index >= this.windowStart + WINDOW_RECORDS) {
+            this.windowStart = index - index % WINDOW_RECORDS;
+            this.window = this.channel.map(FileChannel.MapMode.READ_WRITE,
+                    RECORD_SIZE + this.windowStart * RECORD_SIZE, (long) WINDOW_RECORDS * RECORD_SIZE);
+        }
+        int offset = (int) (index - this.windowStart) * RECORD_SIZE;
+        this.window.putLong(offset, run.getRunId());
+        this.window.put(offset + 8, encodeJob(run.getJob()));
+        this.window.putLong(offset + 32, run.getStartTime());
+        this.window.putLong(offset + 40, run.getEndTime());
+        this.window.putInt(offset + 48, run.getExitCode());
+        this.window.putInt(offset + 52, (int) run.getPid());
+        this.window.putLong(offset + 56, run.getOutputBytes());
+        this.count = index + 1;
+        this.header.putLong(COUNT_OFFSET, this.count);
+    }
+
+    /**
+     * returns the newest runs, newest first
+     *
+     * @param job   name of the job, null for every job
+     * @param limit max number of runs
+     * @return newest runs of the job
+     * @throws IOException if the journal cannot be read
+     */
+    public synchronized List<PdiRunRecord> last(String job, int limit) throws IOException {
+        List<PdiRunRecord> runs = new ArrayList<>();
+        long count = this.getCount();
+        if (count == 0 || limit <= 0) {
+            return runs;
+        }
+        byte[] name = job == null ? null : encodeJob(job);
+        ByteBuffer records = null;
+        long start = count;
+        for (long index = count - 1; index >= 0 && runs.size() < limit; index--) {
+            if (index < start) {
+                // the records are mapped a window at a time so offsets fit into an int
+                start = index - index % WINDOW_RECORDS;
+                records = this.channel.map(FileChannel.MapMode.READ_ONLY, RECORD_SIZE + start * RECORD_SIZE,
+                        (index - start + 1) * RECORD_SIZE);
+            }
+            int offset = (int) (index - start) * RECORD_SIZE;
+            if (name == null || this.matches(records, offset + 8, name)) {
+                runs.add(read(records, offset));
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * counts the failed runs of a job in a row up to the newest run,
+     * the records are scanned newest first and only up to the newest success
+     *
+     * @param job name of the job, null for every job
+     * @return number of newest runs that failed in a row
+     * @throws IOException if the journal cannot be read
+     */
+    public synchronized int failureStreak(String job) throws IOException {
+        byte[] name = job == null ? null : encodeJob(job);
+        ByteBuffer records = null;
+        long start = this.getCount();
+        int streak = 0;
+        for (long index = this.getCount() - 1; index >= 0; index--) {
+            if (index < start) {
+                start = index - index % WINDOW_RECORDS;
+                records = this.channel.map(FileChannel.MapMode.READ_ONLY, RECORD_SIZE + start * RECORD_SIZE,
+                        (index - start + 1) * RECORD_SIZE);
+            }
+            int offset = (int) (index - start) * RECORD_SIZE;
+            if (name == null || this.matches(records, offset + 8, name)) {
+                if (records.getInt(offset + 48) == 0) {
+                    break;
+                }
+                streak++;
+            }
+        }
+        return streak;
+    }
+
+    /**
+     * computes a percentile of the run time
+     *
+     * @param runs       runs to be evaluated
+     * @param percentile percentile between 0 and 100
+     * @return run time in milli seconds of the percentile, 0 without runs
+     */
+    public static long percentile(List<PdiRunRecord> runs, double percentile) {
+        if (runs.isEmpty()) {
+            return 0;
+        }
+        long[] durations = new long[runs.size()];
+        for (int i = 0; i < durations.length; i++) {
+            durations[i] = runs.get(i).getDuration();
+        }
+        Arrays.sort(durations);
+        int index = (int) Math.ceil(percentile / 100 * durations.length) - 1;
+        return durations[Math.max(0, Math.min(durations.length - 1, index))];
+    }
+
+    /**
+     * @return number of records in the journal
+     */
+    public synchronized long getCount() {
+        // another process may append while a read only journal is open
+        this.count = Math.max(this.count, this.header.getLong(COUNT_OFFSET));
+        return this.count;
+    }
+
+    /**
+     * writes the mapped records to the disk and closes the journal
+     *
+     * @throws IOException if the journal cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.window != null) {
+            this.window.force();
+            this.header.force();
+        }
+        this.channel.close();
+    }
+
+    /**
+     * @param job name of the job
+     * @return job name field, the name padded with zeros or a name prefix and hash if it does not fit
+     */
+    protected static byte[] encodeJob(String job) {
+        byte[] name = job.getBytes(StandardCharsets.UTF_8);
+        if (name.length <= JOB_SIZE) {
+            return Arrays.copyOf(name, JOB_SIZE);
+        }
+        int length = JOB_PREFIX_SIZE;
+        while ((name[length] & 0xC0) == 0x80) {
+            // never cut a multi byte character
+            length--;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        byte[] hash = String.format("~%08x", crc.getValue()).getBytes(StandardCharsets.US_ASCII);
+        byte[] field = new byte[JOB_SIZE];
+        System.arraycopy(name, 0, field, 0, length);
+        System.arraycopy(hash, 0, field, length, hash.length);
+        return field;
+    }
+
+    /**
+     * @param records mapped records
+     * @param offset  offset of the record
+     * @return run read from the record
+     */
+    private static PdiRunRecord read(ByteBuffer records, int offset) {
+        byte[] name = new byte[JOB_SIZE];
+        int length = 0;
+        for (; length < JOB_SIZE && records.get(offset + 8 + length) != 0; length++) {
+            name[length] = records.get(offset + 8 + length);
+        }
+        return new PdiRunRecord(records.getLong(offset), new String(name, 0, length, StandardCharsets.UTF_8),
+                records.getLong(offset + 32), records.getLong(offset + 40), records.getInt(offset + 48),
+                records.getInt(offset + 52), records.getLong(offset + 56));
+    }
+
+    /**
+     * @param records mapped records
+     * @param offset  offset of the job name field
+     * @param name    job name padded to the field size
+     * @return true if the field holds the job name
+     */
+    private boolean matches(ByteBuffer records, int offset, byte[] name) {
+        for (int i = 0; i < JOB_SIZE; i++) {
+            if (records.get(offset + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return journal file
+     */
+    protected File getFile() {
+        return this.file;
+    }
+
+    /**
+     * queries the journal
+     *
+     * last   - newest runs, 20 by default
+     * stats  - count, failures and run time percentiles of the newest runs, 500 by default
+     * streak - number of newest runs that failed in a row
+     *
+     * @param args journal file, query, optional job name and count
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: PdiRunJournal <journal> last|stats|streak [job] [count]");
+            System.exit(1);
+        }
+        String job = args.length > 2 && !"-".equals(args[2]) ? args[2] : null;
+        try (PdiRunJournal journal = new PdiRunJournal(new File(args[0]), true)) {
+            switch (args[1]) {
+                case "last":
+                    int last = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+                    for (PdiRunRecord run : journal.last(job, last)) {
+                        System.out.println(run);
+                    }
+                    break;
+                case "stats":
+                    List<PdiRunRecord> runs = journal.last(job, args.length > 3 ? Integer.parseInt(args[3]) : 500);
+                    long failures = runs.stream().filter(run -> run.getExitCode() != 0).count();
+                    System.out.printf("runs %d failures %d p50 %d ms p90 %d ms p99 %d ms max %d ms%n", runs.size(), failures,
+                            percentile(runs, 50), percentile(runs, 90), percentile(runs, 99), percentile(runs, 100));
+                    break;
+                case "streak":
+                    System.out.println(journal.failureStreak(job));
+                    break;
+                default:
+                    System.out.println("Invalid query " + args[1]);
+                    System.exit(1);
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.sql.Timestamp;
+
+/**
+ * A completed run as stored in the run journal
+ */
+public class PdiRunRecord {
+    /**
+     * id of the run
+     */
+    private final long runId;
+
+    /**
+     * name of the job, truncated to the journal field size
+     */
+    private final String job;
+
+    /**
+     * wall clock time in milli seconds the run started
+     */
+    private final long startTime;
+
+    /**
+     * wall clock time in milli seconds the run ended
+     */
+    private final long endTime;
+
+    /**
+     * exit code of the run
+     */
+    private final int exitCode;
+
+    /**
+     * pid of the process that ran the command, -1 if it could not be started
+     */
+    private final long pid;
+
+    /**
+     * output bytes written by the run
+     */
+    private final long outputBytes;
+
+    /**
+     * Constructor
+     *
+     * @param runId       id of the run
+     * @param job         name of the job
+     * @param startTime   wall clock time in milli seconds the run started
+     * @param endTime     wall clock time in milli seconds the run ended
+     * @param exitCode    exit code of the run
+     * @param pid         pid of the process that ran the command
+     * @param outputBytes output bytes written by the run
+     */
+    public PdiRunRecord(long runId, String job, long startTime, long endTime, int exitCode, long pid, long outputBytes) {
+        this.runId = runId;
+        this.job = job;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.exitCode = exitCode;
+        this.pid = pid;
+        this.outputBytes = outputBytes;
+    }
+
+    /**
+     * @return run time in milli seconds
+     */
+    public long getDuration() {
+        return this.endTime - this.startTime;
+    }
+
+    /**
+     * @return id of the run
+     */
+    public long getRunId() {
+        return this.runId;
+    }
+
+    /**
+     * @return name of the job
+     */
+    public String getJob() {
+        return this.job;
+    }
+
+    /**
+     * @return wall clock time in milli seconds the run started
+     */
+    public long getStartTime() {
+        return this.startTime;
+    }
+
+    /**
+     * @return wall clock time in milli seconds the run ended
+     */
+    public long getEndTime() {
+        return this.endTime;
+    }
+
+    /**
+     * @return exit code of the run
+     */
+    public int getExitCode() {
+        return this.exitCode;
+    }
+
+    /**
+     * @return pid of the process that ran the command
+     */
+    public long getPid() {
+        return this.pid;
+    }
+
+    /**
+     * @return output bytes written by the run
+     */
+    public long getOutputBytes() {
+        return this.outputBytes;
+    }
+
+    /**
+     * @return run as a line of the journal query output
+     */
+    @Override
+    public String toString() {
+        return String.format("%d %s %s %d ms exit %d pid %d output %d bytes", this.runId, this.job,
+                new Timestamp(this.startTime), this.getDuration(), this.exitCode, this.pid, this.outputBytes);
+    }
+}
@@ -5,8 +5,15 @@
 
 package com.advisory.PDIDaemon;
 
-import java.io.*;
-import java.lang.reflect.Field;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class PdiRunnable {
     /**
@@ -19,6 +26,73 @@ public class PdiRunnable {
      */
     public static final String MESSAGE_PROCESS_STARTED = "Started running a process with PID #%d\n";
 
+    /**
+     * event types of the json log format
+     */
+    public static final String EVENT_PROCESS_STARTED = "process_started";
+    public static final String EVENT_PROCESS_COMPLETED = "process_completed";
+
+    /**
+     * output mode where the OS redirects the command output to the log file
+     */
+    public static final String OUTPUT_FILE = "file";
+
+    /**
+     * output mode where the daemon writes the command output and rotates the log while running
+     */
+    public static final String OUTPUT_PIPE = "pipe";
+
+    /**
+     * output mode like pipe with every line prefixed by a timestamp and the run id
+     */
+    public static final String OUTPUT_PREFIX = "prefix";
+
+    /**
+     * size of the buffer the command output is read into
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * source of run ids, unique within the daemon and increasing across restarts,
+     * a run id is the spawn time in epoch milli seconds unless runs are spawned faster than one a milli second
+     */
+    private static final AtomicLong RUN_SEQUENCE = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * log message for a process that has completed
+     */
+    public static final String MESSAGE_PROCESS_COMPLETED = "Process with PID #%d completed with exit code %d\n";
+
+    /**
+     * log message for a process adopted from the previous daemon
+     */
+    public static final String MESSAGE_PROCESS_ADOPTED = "Adopted process with PID #%d of run %d left by the previous daemon\n";
+
+    /**
+     * log message for an adopted process that has completed
+     */
+    public static final String MESSAGE_ADOPTED_COMPLETED = "Adopted process with PID #%d completed, its exit code is unknown\n";
+
+    /**
+     * exit code of an adopted process, which cannot be read by a process that is not its parent
+     */
+    public static final int EXIT_UNKNOWN = -2;
+
+    /**
+     * log message for a process tree sent SIGTERM
+     */
+    public static final String MESSAGE_PROCESS_TERMINATED = "Sent SIGTERM to PID #%d and %d descendants\n";
+
+    /**
+     * log message for processes killed after the grace period
+     */
+    public static final String MESSAGE_PROCESS_KILLED = "Sent SIGKILL to %d processes still running after the grace period\n";
+
+    /**
+     * log message for a run completed by the worker
+     */
+    public static final String MESSAGE_WORKER_COMPLETED = "Run %d completed by worker with exit code %d\n";
+
     /**
      * command that needs to run in regular intervals
      */
@@ -29,6 +103,45 @@ public class PdiRunnable {
      */
     private int pid = -1;
 
+    /**
+     * id of the current run
+     */
+    private long runId = -1;
+
+    /**
+     * how command output is written file, pipe or prefix
+     */
+    private String outputMode = OUTPUT_FILE;
+
+    /**
+     * size in bytes at which the command log is rotated in pipe and prefix mode
+     */
+    private long logLimit = Long.MAX_VALUE;
+
+    /**
+     * number of output bytes written by the current run in pipe and prefix mode
+     */
+    private long outputBytes = 0;
+
+    /**
+     * working directory of the command
+     */
+    private String workingDirectory = ProcessCreator.WORKING_DIRECTORY_DEFAULT;
+
+    /**
+     * process that is currently being tracked
+     */
+    private Process process = null;
+
+    /**
+     * lock of the completion condition, a lock rather than a monitor so a waiting virtual thread is not pinned
+     */
+    private final ReentrantLock completionLock = new ReentrantLock();
+
+    /**
+     * condition signalled when the tracked process exits
+     */
+    private final Condition completed = this.completionLock.newCondition();
 
     /**
      * log file to store command output
@@ -40,6 +153,61 @@ public class PdiRunnable {
      */
     private PdiLogWriter logWriter = null;
 
+    /**
+     * metrics of the job, may be null
+     */
+    private PdiJobMetrics metrics = null;
+
+    /**
+     * nano time the current run was started
+     */
+    private long startTime;
+
+    /**
+     * archiver for command logs rotated while the command runs
+     */
+    private PdiLogArchiver archiver = null;
+
+    /**
+     * long lived worker running the command, null to spawn the command
+     */
+    private PdiWorker worker = null;
+
+    /**
+     * true while the worker runs the current run
+     */
+    private volatile boolean workerBusy = false;
+
+    /**
+     * exit code of the last run done by the worker
+     */
+    private volatile int workerExitCode = -1;
+
+    /**
+     * process of the current run adopted from the previous daemon, null for a process started by this daemon
+     */
+    private volatile ProcessHandle adopted = null;
+
+    /**
+     * per run segments of the command log, null if every run appends to the command log
+     */
+    private PdiSegments segments = null;
+
+    /**
+     * resource sampler of the current run, null until the process of the run is known
+     */
+    private PdiProcessSampler sampler = null;
+
+    /**
+     * true once the current run went above the memory soft limit
+     */
+    private boolean memoryWarned = false;
+
+    /**
+     * true once the current run was sent SIGTERM
+     */
+    private volatile boolean terminated = false;
+
     /**
      * constructor for the runnable process
      *
@@ -54,46 +222,342 @@ public class PdiRunnable {
      * runs the command and stores the pid for the process that is executed
      */
     public void run() {
+        this.adopted = null;
+        this.resetRunState();
+        if (this.getWorker() != null) {
+            this.runId = nextRunId();
+            this.outputBytes = 0;
+            this.startTime = System.nanoTime();
+            this.workerBusy = true;
+            return;
+        }
         String command = this.getCommand();
-        String logFile = this.getLogFile();
+        this.runId = nextRunId();
+        String logFile = this.getRunLogFile();
         ProcessCreator pc = new ProcessCreator(command, logFile);
+        pc.setCapture(this.isCapture());
+        pc.setWorkingDirectory(this.getWorkingDirectory());
+        this.outputBytes = 0;
+        long startTime = System.nanoTime();
         int pid = pc.execute();
+        Process process = pc.getProcess();
+        this.startTime = System.nanoTime();
+        if (this.metrics != null && process != null) {
+            this.metrics.recordSpawn(this.startTime - startTime);
+        }
         this.setPid(pid);
-        String log = String.format(MESSAGE_PROCESS_STARTED, pid);
+        this.setProcess(process);
+        PdiLogWriter logWriter = this.getLogWriter();
+        if (logWriter.isStructured()) {
+            logWriter.event(EVENT_PROCESS_STARTED).field("runId", this.getRunId()).field("pid", pid).write();
+        } else {
+            logWriter.writeLog(String.format(MESSAGE_PROCESS_STARTED, pid));
+        }
+        if (process != null) {
+            process.onExit().thenAccept(this::onProcessExit);
+        }
+    }
+
+    /**
+     * @return new run id, the current time in milli seconds or one more than the last run id if that is later
+     */
+    private static long nextRunId() {
+        return RUN_SEQUENCE.accumulateAndGet(System.currentTimeMillis(), (last, now) -> Math.max(last + 1, now));
+    }
+
+    /**
+     * tracks a process of the job left running by the previous daemon as the current run
+     *
+     * @param process process to be adopted
+     * @param runId   id of the run of the process
+     */
+    public void adopt(ProcessHandle process, long runId) {
+        this.resetRunState();
+        this.runId = runId;
+        this.outputBytes = 0;
+        this.startTime = System.nanoTime();
+        this.setProcess(null);
+        this.setPid((int) process.pid());
+        this.adopted = process;
+        this.getLogWriter().writeLog(String.format(MESSAGE_PROCESS_ADOPTED, process.pid(), runId));
+        process.onExit().thenAccept(handle -> {
+            this.getLogWriter().writeLog(String.format(MESSAGE_ADOPTED_COMPLETED, handle.pid()));
+            this.signalCompletion();
+        });
+    }
+
+    /**
+     * writes the output of the current run to the command log until the process closes it,
+     * does nothing unless the output is piped to the daemon
+     */
+    public void drainOutput() {
+        if (this.getWorker() != null) {
+            this.runOnWorker();
+            return;
+        }
+        Process process = this.getProcess();
+        if (process == null || !this.isCapture()) {
+            return;
+        }
+        String prefix = OUTPUT_PREFIX.equals(this.getOutputMode()) ? String.valueOf(this.getRunId()) : null;
+        // read straight from the stream, a channel wrapping it would hold its monitor across every blocking read
+        try (InputStream output = process.getInputStream();
+             PdiRotatingSink sink = this.openSink(prefix)) {
+            ByteBuffer buffer = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+            long rotations = 0;
+            int count;
+            while ((count = output.read(buffer.array(), 0, buffer.capacity())) >= 0) {
+                buffer.limit(count);
+                sink.write(buffer);
+                buffer.clear();
+                rotations = this.recordOutput(sink, rotations);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * hands the current run to the worker and writes its output to the command log,
+     * the output always goes through the daemon as the worker has a single stdout
+     */
+    private void runOnWorker() {
+        PdiWorker worker = this.getWorker();
+        String prefix = OUTPUT_PREFIX.equals(this.getOutputMode()) ? String.valueOf(this.getRunId()) : null;
+        int exitCode = -1;
+        try (PdiRotatingSink sink = this.openSink(prefix)) {
+            long startTime = System.nanoTime();
+            exitCode = worker.execute(this.getRunId(), this.getCommand(), sink);
+            if (this.metrics != null && sink.getWritten() == 0) {
+                // without output the round trip to the worker is the spawn latency
+                this.metrics.recordSpawn(System.nanoTime() - startTime);
+            }
+            this.recordOutput(sink, 0);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (this.metrics != null) {
+                this.metrics.recordExit(System.nanoTime() - this.startTime, exitCode);
+            }
+            this.getLogWriter().writeLog(String.format(MESSAGE_WORKER_COMPLETED, this.getRunId(), exitCode));
+            this.completionLock.lock();
+            try {
+                this.workerExitCode = exitCode;
+                this.workerBusy = false;
+                this.completed.signalAll();
+            } finally {
+                this.completionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * records the output written to the sink since the last call
+     *
+     * @param sink      command log of the current run
+     * @param rotations number of rotations already recorded
+     * @return number of rotations recorded
+     */
+    private long recordOutput(PdiRotatingSink sink, long rotations) {
+        if (this.metrics != null) {
+            this.metrics.recordOutput(sink.getWritten() - this.outputBytes);
+            for (; rotations < sink.getRotations(); rotations++) {
+                this.metrics.recordRotation();
+            }
+        }
+        this.outputBytes = sink.getWritten();
+        return rotations;
+    }
+
+    /**
+     * completion callback for the tracked process, wakes up any waiter
+     *
+     * @param process process that has exited
+     */
+    private void onProcessExit(Process process) {
+        long duration = System.nanoTime() - this.startTime;
+        if (this.metrics != null) {
+            this.metrics.recordExit(duration, process.exitValue());
+        }
+        PdiLogWriter logWriter = this.getLogWriter();
+        if (logWriter.isStructured()) {
+            logWriter.event(EVENT_PROCESS_COMPLETED).field("runId", this.getRunId()).field("pid", process.pid())
+                    .field("exitCode", process.exitValue()).field("durationMillis", duration / 1000000).write();
+        } else {
+            logWriter.writeLog(String.format(MESSAGE_PROCESS_COMPLETED, process.pid(), process.exitValue()));
+        }
+        this.signalCompletion();
+    }
+
+    /**
+     * wakes up the threads waiting for the tracked process to complete
+     */
+    private void signalCompletion() {
+        this.completionLock.lock();
+        try {
+            this.completed.signalAll();
+        } finally {
+            this.completionLock.unlock();
+        }
+    }
+
+    /**
+     * sends SIGTERM to the process of the current run and all of its descendants, the descendants
+     * are collected first as they are reparented once the /bin/sh wrapper exits
+     *
+     * @return processes signalled, to be killed if they outlive the grace period
+     */
+    public List<ProcessHandle> terminate() {
+        List<ProcessHandle> tree = new ArrayList<>();
+        ProcessHandle root = this.getProcessHandle();
+        if (root == null || !this.isRunning() || this.terminated) {
+            return tree;
+        }
+        this.terminated = true;
+        root.descendants().forEach(tree::add);
+        tree.add(root);
+        for (ProcessHandle handle : tree) {
+            handle.destroy();
+        }
+        String log = String.format(MESSAGE_PROCESS_TERMINATED, root.pid(), tree.size() - 1);
         this.getLogWriter().writeLog(log);
+        return tree;
     }
 
     /**
-     * checks whether process exists or not
+     * sends SIGKILL to the processes of a terminated run that are still running,
+     * including descendants they started after SIGTERM
      *
-     * @return process exists or not
+     * @param tree processes signalled by terminate
      */
-    public boolean isProcessExists() {
-        int pid = this.getPid();
+    public void kill(List<ProcessHandle> tree) {
+        List<ProcessHandle> alive = new ArrayList<>();
+        for (ProcessHandle handle : tree) {
+            if (handle.isAlive()) {
+                handle.descendants().forEach(alive::add);
+                alive.add(handle);
+            }
+        }
+        if (alive.isEmpty()) {
+            return;
+        }
+        for (ProcessHandle handle : alive) {
+            handle.destroyForcibly();
+        }
+        this.getLogWriter().writeLog(String.format(MESSAGE_PROCESS_KILLED, alive.size()));
+    }
+
+    /**
+     * waits until the tracked process completes
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitCompletion() throws InterruptedException {
+        this.completionLock.lock();
+        try {
+            while (this.isRunning()) {
+                this.completed.await();
+            }
+        } finally {
+            this.completionLock.unlock();
+        }
+    }
+
+    /**
+     * waits until the tracked process completes or the timeout elapses
+     *
+     * @param timeout max time to wait in milli seconds
+     * @return true if no process is running anymore
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitCompletion(long timeout) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+        this.completionLock.lock();
         try {
-            if(pid >0) {
-                String cmd = "ps -ef | awk '{printf \"%s\\n\",$2;}' | grep " + pid;
-                Process process = Runtime.getRuntime().exec(cmd);
-                InputStream is = process.getInputStream();
-                BufferedReader bf = new BufferedReader(new InputStreamReader(is));
-                String temp = null;
-                while ((temp = bf.readLine()) != null) {
-                    int returnedPid = Integer.parseInt(temp);
-                    if (returnedPid == pid && pid > 0) {
-                        String log = String.format(MESSAGE_PID_EXISTS, pid);
-                        this.getLogWriter().writeLog(log);
-                        return true;
-                    }
+            while (this.isRunning()) {
+                if (remaining <= 0) {
+                    return false;
                 }
-                bf.close();
+                remaining = this.completed.awaitNanos(remaining);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+        } finally {
+            this.completionLock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * @return exit code of the completed run, -1 if no process could be started
+     */
+    public int getExitCode() {
+        if (this.adopted != null) {
+            return EXIT_UNKNOWN;
+        }
+        if (this.getWorker() != null) {
+            return this.workerExitCode;
+        }
+        Process process = this.getProcess();
+        if (process == null) {
+            return -1;
+        }
+        return process.exitValue();
+    }
+
+    /**
+     * checks whether process exists or not
+     *
+     * @return process exists or not
+     */
+    public boolean isProcessExists() {
+        if (this.isRunning()) {
+            long pid = this.getWorker() != null ? this.getWorker().getPid() : this.getPid();
+            String log = String.format(MESSAGE_PID_EXISTS, pid);
+            this.getLogWriter().writeLog(log);
+            return true;
         }
 
         return false;
     }
 
+    /**
+     * @return true while the current run has not completed
+     */
+    private boolean isRunning() {
+        ProcessHandle adopted = this.adopted;
+        if (adopted != null) {
+            return adopted.isAlive();
+        }
+        if (this.getWorker() != null) {
+            return this.workerBusy;
+        }
+        Process process = this.getProcess();
+        return process != null && process.isAlive();
+    }
+
+    /**
+     * forgets the sampling and termination state of the previous run
+     */
+    private void resetRunState() {
+        this.sampler = null;
+        this.memoryWarned = false;
+        this.terminated = false;
+    }
+
+    /**
+     * @return handle of the process running the current run, the worker in worker mode
+     */
+    protected ProcessHandle getProcessHandle() {
+        ProcessHandle adopted = this.adopted;
+        if (adopted != null) {
+            return adopted;
+        }
+        if (this.getWorker() != null) {
+            return this.getWorker().getProcessHandle();
+        }
+        Process process = this.getProcess();
+        return process == null ? null : process.toHandle();
+    }
+
     /**
      * @param command sets command to be executed
      */
@@ -115,6 +579,16 @@ public class PdiRunnable {
         return this.pid;
     }
 
+    /**
+     * @return pid of the process that ran the current run, the worker in worker mode
+     */
+    protected long getRunPid() {
+        if (this.getWorker() != null) {
+            return this.getWorker().getRunPid();
+        }
+        return this.getPid();
+    }
+
     /**
      * @param pid sets pid
      */
@@ -122,6 +596,83 @@ public class PdiRunnable {
         this.pid = pid;
     }
 
+    /**
+     * @return true if the command output is piped to the daemon
+     */
+    private boolean isCapture() {
+        return !OUTPUT_FILE.equals(this.getOutputMode());
+    }
+
+    /**
+     * @return id of the current run
+     */
+    protected long getRunId() {
+        return this.runId;
+    }
+
+    /**
+     * @return number of output bytes written by the current run in pipe and prefix mode
+     */
+    protected long getOutputBytes() {
+        return this.outputBytes;
+    }
+
+    /**
+     * @return how command output is written
+     */
+    protected String getOutputMode() {
+        return this.outputMode;
+    }
+
+    /**
+     * @param outputMode how command output is written file, pipe or prefix
+     */
+    protected void setOutputMode(String outputMode) {
+        this.outputMode = outputMode;
+    }
+
+    /**
+     * @return working directory of the command
+     */
+    protected String getWorkingDirectory() {
+        return this.workingDirectory;
+    }
+
+    /**
+     * @param workingDirectory working directory of the command
+     */
+    protected void setWorkingDirectory(String workingDirectory) {
+        this.workingDirectory = workingDirectory;
+    }
+
+    /**
+     * @return size in bytes at which the command log is rotated
+     */
+    protected long getLogLimit() {
+        return this.logLimit;
+    }
+
+    /**
+     * @param logLimit size in bytes at which the command log is rotated in pipe and prefix mode
+     */
+    protected void setLogLimit(long logLimit) {
+        this.logLimit = logLimit;
+    }
+
+    /**
+     * @return process that is currently being tracked
+     */
+    protected Process getProcess() {
+        return this.process;
+    }
+
+    /**
+     * @param process sets process to be tracked
+     */
+    private void setProcess(Process process) {
+        this.process = process;
+    }
+
     /**
      * @param logFile log file to store command output
      */
@@ -132,10 +683,51 @@ public class PdiRunnable {
     /**
      * @return log file to store command output
      */
-    private String getLogFile() {
+    protected String getLogFile() {
         return logFile;
     }
 
+    /**
+     * @return file the output of the current run goes to, its segment when the log is segmented
+     */
+    protected String getRunLogFile() {
+        if (this.getSegments() != null) {
+            return this.getSegments().segmentFile(this.getRunId()).getPath();
+        }
+        return this.getLogFile();
+    }
+
+    /**
+     * opens the command log of the current run, a segment is never rotated and needs no index
+     *
+     * @param prefix run id for the line prefix, null for no prefix
+     * @return command log of the current run
+     * @throws IOException if the log cannot be opened
+     */
+    private PdiRotatingSink openSink(String prefix) throws IOException {
+        if (this.getSegments() != null) {
+            return new PdiRotatingSink(this.getRunLogFile(), Long.MAX_VALUE, prefix, this.getLogWriter(), null);
+        }
+        PdiRotatingSink sink = new PdiRotatingSink(this.getLogFile(), this.getLogLimit(), prefix,
+                this.getLogWriter(), this.getArchiver());
+        sink.index(this.getRunId());
+        return sink;
+    }
+
+    /**
+     * @return per run segments of the command log, null if every run appends to the command log
+     */
+    protected PdiSegments getSegments() {
+        return this.segments;
+    }
+
+    /**
+     * @param segments per run segments of the command log, null if every run appends to the command log
+     */
+    protected void setSegments(PdiSegments segments) {
+        this.segments = segments;
+    }
+
     /**
      * @param logWriter sets PdilogWriter
      */
@@ -149,5 +741,74 @@ public class PdiRunnable {
     protected PdiLogWriter getLogWriter() {
         return this.logWriter;
     }
-}
 
+    /**
+     * @param archiver sets archiver for command logs rotated while the command runs
+     */
+    protected void setArchiver(PdiLogArchiver archiver) {
+        this.archiver = archiver;
+    }
+
+    /**
+     * @return archiver for command logs rotated while the command runs
+     */
+    protected PdiLogArchiver getArchiver() {
+        return this.archiver;
+    }
+
+    /**
+     * @param metrics sets metrics of the job
+     */
+    protected void setMetrics(PdiJobMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return long lived worker running the command, null if the command is spawned
+     */
+    protected PdiWorker getWorker() {
+        return this.worker;
+    }
+
+    /**
+     * @param worker sets long lived worker running the command, null to spawn the command
+     */
+    protected void setWorker(PdiWorker worker) {
+        this.worker = worker;
+    }
+
+    /**
+     * @return resource sampler of the current run, null until the process of the run is known
+     */
+    protected PdiProcessSampler getSampler() {
+        return this.sampler;
+    }
+
+    /**
+     * @param sampler sets resource sampler of the current run
+     */
+    protected void setSampler(PdiProcessSampler sampler) {
+        this.sampler = sampler;
+    }
+
+    /**
+     * @return true once the current run went above the memory soft limit
+     */
+    protected boolean isMemoryWarned() {
+        return this.memoryWarned;
+    }
+
+    /**
+     * @param memoryWarned true once the current run went above the memory soft limit
+     */
+    protected void setMemoryWarned(boolean memoryWarned) {
+        this.memoryWarned = memoryWarned;
+    }
+
+    /**
+     * @return true once the current run was sent SIGTERM
+     */
+    protected boolean isTerminated() {
+        return this.terminated;
+    }
+}
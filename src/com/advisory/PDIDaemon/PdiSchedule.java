@@ -0,0 +1,352 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes when a job is due to be spawned next
+ * all due times are System.nanoTime values so fixed rate schedules do not drift
+ * with the time spent in each tick, cron schedules follow the wall clock
+ *
+ * rate  - spawn on a fixed grid anchored at the start of the job
+ * delay - spawn a fixed time after the previous run has completed
+ * cron  - spawn at the times matching a cron expression
+ * adaptive - spawn a time after the previous spawn that follows the observed run times
+ *
+ * adaptive schedules keep an exponentially weighted moving average of the run time and of its deviation,
+ * the next spawn is timed so the job is in flight for the target duty cycle of the time, or with a freshness target
+ * so a run started now completes within the freshness of the start of the previous run, the estimate plus four
+ * deviations is used there to cover slow runs, the interval is kept between the min and max interval
+ * and is the spawn period until the first run has completed
+ *
+ * the missed fire policy decides what happens when a due time has already passed,
+ * e.g. because the previous process was still running
+ *
+ * skip    - drop the missed spawns and wait for the next due time
+ * once    - spawn once right away and then continue on the schedule
+ * catchup - spawn once for every missed due time, back to back
+ */
+public class PdiSchedule {
+    /**
+     * schedule modes
+     */
+    public static final String MODE_RATE = "rate";
+    public static final String MODE_DELAY = "delay";
+    public static final String MODE_CRON = "cron";
+    public static final String MODE_ADAPTIVE = "adaptive";
+
+    /**
+     * missed fire policies
+     */
+    public static final String MISFIRE_SKIP = "skip";
+    public static final String MISFIRE_ONCE = "once";
+    public static final String MISFIRE_CATCHUP = "catchup";
+
+    /**
+     * default schedule mode
+     */
+    public static final String MODE_DEFAULT = MODE_RATE;
+
+    /**
+     * default missed fire policy
+     */
+    public static final String MISFIRE_DEFAULT = MISFIRE_ONCE;
+
+    /**
+     * default target duty cycle in percent of adaptive schedules
+     */
+    public static final int DUTY_CYCLE_DEFAULT = 50;
+
+    /**
+     * weight of a new run time in the moving average
+     */
+    private static final double ESTIMATE_WEIGHT = 0.2;
+
+    /**
+     * weight of a new deviation in the moving deviation
+     */
+    private static final double DEVIATION_WEIGHT = 0.25;
+
+    /**
+     * schedule mode
+     */
+    private final String mode;
+
+    /**
+     * period in nano seconds for rate and delay schedules
+     */
+    private final long period;
+
+    /**
+     * cron expression for cron schedules
+     */
+    private final PdiCronExpression cron;
+
+    /**
+     * missed fire policy
+     */
+    private final String misfire;
+
+    /**
+     * min interval in nano seconds of adaptive schedules
+     */
+    private final long minPeriod;
+
+    /**
+     * max interval in nano seconds of adaptive schedules
+     */
+    private final long maxPeriod;
+
+    /**
+     * target duty cycle in percent of adaptive schedules
+     */
+    private final int dutyCycle;
+
+    /**
+     * freshness target in nano seconds of adaptive schedules, 0 to follow the duty cycle
+     */
+    private final long freshness;
+
+    /**
+     * moving average of the run time in nano seconds, -1 until a run has completed
+     */
+    private double estimate = -1;
+
+    /**
+     * moving average of the deviation of the run time from the estimate in nano seconds
+     */
+    private double deviation = 0;
+
+    /**
+     * Constructor
+     *
+     * @param mode    schedule mode
+     * @param period  period in milli seconds, ignored for cron schedules
+     * @param cron    cron expression, only used for cron schedules
+     * @param misfire missed fire policy
+     * @throws IllegalArgumentException for an unknown mode or policy
+     */
+    public PdiSchedule(String mode, long period, String cron, String misfire) {
+        this(mode, period, cron, misfire, period, period, DUTY_CYCLE_DEFAULT, 0);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param mode      schedule mode
+     * @param period    period in milli seconds, ignored for cron schedules
+     * @param cron      cron expression, only used for cron schedules
+     * @param misfire   missed fire policy
+     * @param minPeriod min interval in milli seconds of adaptive schedules
+     * @param maxPeriod max interval in milli seconds of adaptive schedules
+     * @param dutyCycle target duty cycle in percent of adaptive schedules
+     * @param freshness freshness target in milli seconds of adaptive schedules, 0 to follow the duty cycle
+     * @throws IllegalArgumentException for an unknown mode or policy or invalid adaptive bounds
+     */
+    public PdiSchedule(String mode, long period, String cron, String misfire, long minPeriod, long maxPeriod,
+                       int dutyCycle, long freshness) {
+        switch (mode) {
+            case MODE_ADAPTIVE:
+                if (minPeriod <= 0 || maxPeriod < minPeriod) {
+                    throw new IllegalArgumentException("Adaptive schedule needs 0 < min interval <= max interval");
+                }
+                if (dutyCycle <= 0 || dutyCycle > 100) {
+                    throw new IllegalArgumentException("Invalid duty cycle " + dutyCycle);
+                }
+                // the spawn period is used until a run has completed
+                if (period <= 0) {
+                    throw new IllegalArgumentException("Schedule period must be positive");
+                }
+                this.cron = null;
+                break;
+            case MODE_RATE:
+            case MODE_DELAY:
+                if (period <= 0) {
+                    throw new IllegalArgumentException("Schedule period must be positive");
+                }
+                this.cron = null;
+                break;
+            case MODE_CRON:
+                if (cron == null) {
+                    throw new IllegalArgumentException("Cron schedule needs a cron expression");
+                }
+                this.cron = new PdiCronExpression(cron);
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid schedule mode " + mode);
+        }
+        switch (misfire) {
+            case MISFIRE_SKIP:
+            case MISFIRE_ONCE:
+            case MISFIRE_CATCHUP:
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid missed fire policy " + misfire);
+        }
+        this.mode = mode;
+        this.period = TimeUnit.MILLISECONDS.toNanos(period);
+        this.misfire = misfire;
+        this.minPeriod = TimeUnit.MILLISECONDS.toNanos(minPeriod);
+        this.maxPeriod = TimeUnit.MILLISECONDS.toNanos(maxPeriod);
+        this.dutyCycle = dutyCycle;
+        this.freshness = TimeUnit.MILLISECONDS.toNanos(freshness);
+    }
+
+    /**
+     * computes the first due time of a job
+     *
+     * @param now current nano time
+     * @return first due time
+     */
+    public long firstDue(long now) {
+        if (MODE_CRON.equals(this.mode)) {
+            return this.nextCron(now, now);
+        }
+        return now;
+    }
+
+    /**
+     * computes the due time following a spawn, for delay schedules the due time following the completion of a run
+     *
+     * @param anchor      nano time of the first due time, the grid of rate schedules
+     * @param previousDue due time of the spawn that has just been done
+     * @param now         current nano time, the completion time of the run for delay schedules
+     * @return next due time, a time not after now means the job is due right away
+     */
+    public long nextDue(long anchor, long previousDue, long now) {
+        long next;
+        switch (this.mode) {
+            case MODE_DELAY:
+                return now + this.period;
+            case MODE_ADAPTIVE:
+                return now + this.getAdaptivePeriod();
+            case MODE_CRON:
+                next = this.nextCron(previousDue, now);
+                break;
+            default:
+                next = this.nextOnGrid(anchor, previousDue);
+                break;
+        }
+        if (next > now) {
+            return next;
+        }
+        switch (this.misfire) {
+            case MISFIRE_CATCHUP:
+                return next;
+            case MISFIRE_ONCE:
+                return now;
+            default:
+                if (MODE_CRON.equals(this.mode)) {
+                    return this.nextCron(now, now);
+                }
+                return this.nextOnGrid(anchor, now);
+        }
+    }
+
+    /**
+     * adds the run time of a completed run to the estimate of adaptive schedules
+     *
+     * @param duration run time in milli seconds
+     */
+    public synchronized void observe(long duration) {
+        double sample = TimeUnit.MILLISECONDS.toNanos(Math.max(0, duration));
+        if (this.estimate < 0) {
+            this.estimate = sample;
+            this.deviation = sample / 2;
+            return;
+        }
+        this.deviation += DEVIATION_WEIGHT * (Math.abs(sample - this.estimate) - this.deviation);
+        this.estimate += ESTIMATE_WEIGHT * (sample - this.estimate);
+    }
+
+    /**
+     * @return interval in nano seconds of adaptive schedules from the estimated run time, within the bounds
+     */
+    public synchronized long getAdaptivePeriod() {
+        if (this.estimate < 0) {
+            return Math.max(this.minPeriod, Math.min(this.maxPeriod, this.period));
+        }
+        double target;
+        if (this.freshness > 0) {
+            target = this.freshness - (this.estimate + 4 * this.deviation);
+        } else {
+            target = this.estimate * 100 / this.dutyCycle;
+        }
+        return Math.max(this.minPeriod, Math.min(this.maxPeriod, (long) target));
+    }
+
+    /**
+     * @return moving average of the run time in nano seconds, -1 until a run has completed
+     */
+    public synchronized long getEstimate() {
+        return (long) this.estimate;
+    }
+
+    /**
+     * @return moving average of the deviation of the run time in nano seconds
+     */
+    public synchronized long getDeviation() {
+        return (long) this.deviation;
+    }
+
+    /**
+     * @param anchor start of the grid
+     * @param after  nano time to search from
+     * @return first grid point strictly after the given time
+     */
+    private long nextOnGrid(long anchor, long after) {
+        long periods = Math.floorDiv(after - anchor, this.period) + 1;
+        return anchor + periods * this.period;
+    }
+
+    /**
+     * @param after nano time to search from
+     * @param now   current nano time used to map between nano and wall clock time
+     * @return nano time of the first cron match strictly after the given time
+     */
+    private long nextCron(long after, long now) {
+        long wallNow = System.currentTimeMillis();
+        long wallAfter = wallNow + TimeUnit.NANOSECONDS.toMillis(after - now);
+        ZonedDateTime time = ZonedDateTime.ofInstant(Instant.ofEpochMilli(wallAfter), ZoneId.systemDefault());
+        long wallNext = this.cron.next(time).toInstant().toEpochMilli();
+        return now + TimeUnit.MILLISECONDS.toNanos(wallNext - wallNow);
+    }
+
+    /**
+     * @return schedule mode
+     */
+    protected String getMode() {
+        return this.mode;
+    }
+
+    /**
+     * @return missed fire policy
+     */
+    protected String getMisfire() {
+        return this.misfire;
+    }
+
+    /**
+     * @return description of the schedule for logging
+     */
+    @Override
+    public String toString() {
+        if (MODE_CRON.equals(this.mode)) {
+            return this.mode + " '" + this.cron + "' misfire " + this.misfire;
+        }
+        if (MODE_ADAPTIVE.equals(this.mode)) {
+            String target = this.freshness > 0 ? "freshness " + TimeUnit.NANOSECONDS.toMillis(this.freshness) + " ms"
+                    : "duty cycle " + this.dutyCycle + "%";
+            return this.mode + " " + target + " interval " + TimeUnit.NANOSECONDS.toMillis(this.minPeriod) + ".."
+                    + TimeUnit.NANOSECONDS.toMillis(this.maxPeriod) + " ms";
+        }
+        return this.mode + " " + TimeUnit.NANOSECONDS.toMillis(this.period) + " ms misfire " + this.misfire;
+    }
+}
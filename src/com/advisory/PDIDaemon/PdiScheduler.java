@@ -0,0 +1,457 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules the jobs supervised by the daemon
+ * a single timer thread drives the ticks of every job and the runs are dispatched to a
+ * bounded worker pool, so at most concurrency jobs are running at the same time
+ *
+ * platform - every run holds a thread of a pool of concurrency threads while its process is in flight
+ * virtual  - every run gets its own virtual thread and waits for one of concurrency permits,
+ *            so thousands of small jobs cost no platform thread each, needs a Java 21 runtime
+ *            and falls back to the platform pool on older runtimes
+ *
+ * jobs with upstream jobs are not spawned on a schedule, they are spawned as soon as every upstream job
+ * has succeeded since their previous spawn, so independent branches of the dependency graph run in parallel
+ *
+ * the thread mode is read at start up, a changed config file does not switch it
+ */
+public class PdiScheduler {
+    /**
+     * default max number of jobs running at the same time
+     */
+    public static final int CONCURRENCY_DEFAULT = 4;
+
+    /**
+     * thread modes of the runs
+     */
+    public static final String THREADS_PLATFORM = "platform";
+    public static final String THREADS_VIRTUAL = "virtual";
+
+    /**
+     * default thread mode of the runs
+     */
+    public static final String THREADS_DEFAULT = THREADS_PLATFORM;
+
+    /**
+     * log message for a job that is added
+     */
+    public static final String MESSAGE_JOB_ADDED = "Supervising job %s running command %s on schedule %s\n";
+
+    /**
+     * log message for a job that is removed
+     */
+    public static final String MESSAGE_JOB_REMOVED = "Stopped supervising job %s\n";
+
+    /**
+     * log message for a job that is changed
+     */
+    public static final String MESSAGE_JOB_CHANGED = "Supervising job %s running command %s on schedule %s after a config change\n";
+
+    /**
+     * log message for a changed concurrency
+     */
+    public static final String MESSAGE_CONCURRENCY = "Running up to %d jobs at the same time\n";
+
+    /**
+     * log message for a runtime without virtual threads
+     */
+    public static final String MESSAGE_NO_VIRTUAL_THREADS = "Virtual threads need Java 21, running jobs on platform threads on Java %s\n";
+
+    /**
+     * daemon holding the log writer and rotation settings
+     */
+    private final PdiDaemon daemon;
+
+    /**
+     * timer driving the job ticks
+     */
+    private final ScheduledExecutorService timer;
+
+    /**
+     * executor the job runs are dispatched to
+     */
+    private final ExecutorService workers;
+
+    /**
+     * permits of the runs in flight on virtual threads, null for the platform pool that is bounded by its size
+     */
+    private final Permits permits;
+
+    /**
+     * max number of jobs running at the same time
+     */
+    private int concurrency;
+
+    /**
+     * supervisors of the jobs by job name
+     */
+    private final Map<String, PdiJobSupervisor> supervisors = new LinkedHashMap<>();
+
+    /**
+     * stopped supervisors of removed jobs by job name, kept while their runs are in flight
+     */
+    private final Map<String, PdiJobSupervisor> retired = new LinkedHashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param daemon      daemon holding the log writer and rotation settings
+     * @param concurrency max number of jobs running at the same time
+     */
+    public PdiScheduler(PdiDaemon daemon, int concurrency) {
+        this(daemon, concurrency, THREADS_DEFAULT);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param daemon      daemon holding the log writer and rotation settings
+     * @param concurrency max number of jobs running at the same time
+     * @param threads     thread mode of the runs, platform or virtual
+     * @throws IllegalArgumentException for an unknown thread mode
+     */
+    public PdiScheduler(PdiDaemon daemon, int concurrency, String threads) {
+        this.daemon = daemon;
+        this.concurrency = concurrency;
+        this.timer = Executors.newSingleThreadScheduledExecutor(namedThreads("pdi-timer"));
+        checkThreads(threads);
+        ExecutorService virtualWorkers = null;
+        if (THREADS_VIRTUAL.equals(threads)) {
+            virtualWorkers = virtualThreads("pdi-worker-");
+            if (virtualWorkers == null) {
+                String log = String.format(MESSAGE_NO_VIRTUAL_THREADS, System.getProperty("java.version"));
+                daemon.getLogWriter().writeLog(log);
+            }
+        }
+        if (virtualWorkers != null) {
+            this.workers = virtualWorkers;
+            this.permits = new Permits(concurrency);
+        } else {
+            this.workers = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), namedThreads("pdi-worker"));
+            this.permits = null;
+        }
+    }
+
+    /**
+     * adds a job and starts supervising it, a run in flight of a removed job of the same name
+     * is waited for instead of being adopted a second time
+     *
+     * @param job job to be supervised
+     */
+    public synchronized void schedule(PdiJob job) {
+        this.retired.values().removeIf(retired -> !retired.isInFlight());
+        PdiJobSupervisor previous = this.retired.remove(job.getName());
+        PdiJobSupervisor supervisor = new PdiJobSupervisor(job, this);
+        this.supervisors.put(job.getName(), supervisor);
+        String log = String.format(MESSAGE_JOB_ADDED, job.getName(), job.getCommand(), describeSchedule(job));
+        this.getDaemon().getLogWriter().writeLog(log);
+        supervisor.start(previous);
+    }
+
+    /**
+     * replaces the supervisor of a changed job, a run in flight is left to complete
+     * and the new supervisor spawns once it has completed
+     *
+     * @param job new definition of the job
+     */
+    public void reschedule(PdiJob job) {
+        PdiJobSupervisor previous;
+        synchronized (this) {
+            previous = this.supervisors.get(job.getName());
+            if (previous == null) {
+                this.schedule(job);
+                return;
+            }
+            PdiJobSupervisor supervisor = new PdiJobSupervisor(job, this);
+            // a paused job stays paused across a change of its definition
+            supervisor.setPaused(previous.isPaused());
+            this.supervisors.put(job.getName(), supervisor);
+            String log = String.format(MESSAGE_JOB_CHANGED, job.getName(), job.getCommand(), describeSchedule(job));
+            this.getDaemon().getLogWriter().writeLog(log);
+            supervisor.start(previous);
+        }
+        previous.stop();
+    }
+
+    /**
+     * stops supervising a job, a run in flight is left to complete
+     *
+     * @param name name of the job
+     */
+    public void unschedule(String name) {
+        PdiJobSupervisor supervisor;
+        synchronized (this) {
+            supervisor = this.supervisors.remove(name);
+        }
+        if (supervisor == null) {
+            return;
+        }
+        supervisor.stop();
+        synchronized (this) {
+            if (supervisor.isInFlight()) {
+                this.retired.put(name, supervisor);
+            }
+        }
+        this.getDaemon().getMetrics().unregister(name);
+        this.getDaemon().getLogWriter().writeLog(String.format(MESSAGE_JOB_REMOVED, name));
+    }
+
+    /**
+     * changes the max number of jobs running at the same time, runs in flight are not affected
+     *
+     * @param concurrency max number of jobs running at the same time
+     */
+    public synchronized void setConcurrency(int concurrency) {
+        if (concurrency == this.concurrency) {
+            return;
+        }
+        if (this.permits != null) {
+            this.permits.resize(concurrency - this.concurrency);
+        } else {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) this.workers;
+            if (concurrency > this.concurrency) {
+                pool.setMaximumPoolSize(concurrency);
+                pool.setCorePoolSize(concurrency);
+            } else {
+                pool.setCorePoolSize(concurrency);
+                pool.setMaximumPoolSize(concurrency);
+            }
+        }
+        this.concurrency = concurrency;
+        this.getDaemon().getLogWriter().writeLog(String.format(MESSAGE_CONCURRENCY, concurrency));
+    }
+
+    /**
+     * notifies the jobs downstream of a job that has succeeded
+     *
+     * @param name name of the job that has succeeded
+     */
+    protected void onJobSucceeded(String name) {
+        List<PdiJobSupervisor> downstream = new ArrayList<>();
+        synchronized (this) {
+            for (PdiJobSupervisor supervisor : this.supervisors.values()) {
+                if (supervisor.getJob().getUpstreamJobs().contains(name)) {
+                    downstream.add(supervisor);
+                }
+            }
+        }
+        // the supervisors are called without the scheduler lock, they lock themselves
+        for (PdiJobSupervisor supervisor : downstream) {
+            supervisor.onUpstreamSucceeded(name);
+        }
+    }
+
+    /**
+     * @return names of the supervised jobs
+     */
+    public synchronized Set<String> getJobNames() {
+        return new LinkedHashSet<>(this.supervisors.keySet());
+    }
+
+    /**
+     * @param name name of the job
+     * @return supervisor of the job, null if the job is not supervised
+     */
+    protected synchronized PdiJobSupervisor getSupervisor(String name) {
+        return this.supervisors.get(name);
+    }
+
+    /**
+     * @return supervisors of the jobs in the order the jobs were added
+     */
+    protected synchronized List<PdiJobSupervisor> getSupervisors() {
+        return new ArrayList<>(this.supervisors.values());
+    }
+
+    /**
+     * stops all jobs, runs in flight are left to complete
+     */
+    public void shutdown() {
+        // the supervisors are stopped without the scheduler lock, they lock themselves
+        for (PdiJobSupervisor supervisor : this.getSupervisors()) {
+            supervisor.stop();
+        }
+        this.timer.shutdown();
+        this.workers.shutdown();
+    }
+
+    /**
+     * blocks until the scheduler is shut down and all runs have completed
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitTermination() throws InterruptedException {
+        while (!this.workers.awaitTermination(1, TimeUnit.DAYS)) {
+            // keep waiting, the daemon runs until it is shut down
+        }
+    }
+
+    /**
+     * schedules a tick of a job on the timer
+     *
+     * @param tick  tick to be run
+     * @param delay delay in nano seconds, not positive to run right away
+     * @return future of the scheduled tick
+     */
+    protected ScheduledFuture<?> scheduleTick(Runnable tick, long delay) {
+        return this.timer.schedule(tick, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * schedules a task repeated at a fixed rate on the timer, starting right away
+     *
+     * @param task   task to be run
+     * @param period period in nano seconds
+     * @return future of the task, cancel it to stop the task
+     */
+    protected ScheduledFuture<?> scheduleRepeating(Runnable task, long period) {
+        return this.timer.scheduleAtFixedRate(task, 0, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * dispatches a run of a job to the worker pool
+     *
+     * @param run run to be executed
+     */
+    protected void submit(Runnable run) {
+        Permits permits = this.permits;
+        if (permits == null) {
+            this.workers.execute(run);
+            return;
+        }
+        this.workers.execute(() -> {
+            // the virtual thread parks until a permit is free, the carrier thread is not held
+            permits.acquireUninterruptibly();
+            try {
+                run.run();
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    /**
+     * @return true if the runs are dispatched to virtual threads
+     */
+    protected boolean isVirtual() {
+        return this.permits != null;
+    }
+
+    /**
+     * @return daemon holding the log writer and rotation settings
+     */
+    protected PdiDaemon getDaemon() {
+        return this.daemon;
+    }
+
+    /**
+     * @param job job to be described
+     * @return schedule of the job for logging, the upstream jobs of a job spawned after them
+     */
+    protected static String describeSchedule(PdiJob job) {
+        List<String> upstreamJobs = job.getUpstreamJobs();
+        if (upstreamJobs.isEmpty()) {
+            return job.createSchedule().toString();
+        }
+        return "after " + String.join(", ", upstreamJobs);
+    }
+
+    /**
+     * @param threads thread mode of the runs
+     * @throws IllegalArgumentException for an unknown thread mode
+     */
+    protected static void checkThreads(String threads) {
+        if (!THREADS_PLATFORM.equals(threads) && !THREADS_VIRTUAL.equals(threads)) {
+            throw new IllegalArgumentException("Invalid thread mode " + threads);
+        }
+    }
+
+    /**
+     * creates a thread factory naming the threads with the given prefix
+     *
+     * @param prefix prefix of the thread names
+     * @return thread factory
+     */
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> new Thread(runnable, prefix + "-" + count.incrementAndGet());
+    }
+
+    /**
+     * creates an executor starting a named virtual thread per task, looked up reflectively
+     * so the daemon still builds and runs on Java 17
+     *
+     * @param prefix prefix of the thread names
+     * @return executor, null if the runtime has no virtual threads
+     */
+    private static ExecutorService virtualThreads(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            Method executor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) executor.invoke(null, factory);
+        } catch (NoSuchMethodException | ClassNotFoundException | IllegalAccessException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            // virtual threads are a preview feature on Java 19 and 20
+            return null;
+        }
+    }
+
+    /**
+     * semaphore whose number of permits can be lowered while permits are held
+     */
+    private static class Permits extends Semaphore {
+        /**
+         * serial version of the semaphore state
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructor
+         *
+         * @param permits initial number of permits
+         */
+        Permits(int permits) {
+            super(permits, true);
+        }
+
+        /**
+         * @param delta number of permits to be added, negative to remove permits once they are released
+         */
+        void resize(int delta) {
+            if (delta > 0) {
+                this.release(delta);
+            } else {
+                this.reducePermits(-delta);
+            }
+        }
+    }
+}
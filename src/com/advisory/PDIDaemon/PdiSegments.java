@@ -0,0 +1,242 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Per run segments of a command log
+ * every run writes its output to a segment of its own keyed by the run id, once the run has completed
+ * the segment is appended to the archive of the day with FileChannel.transferTo, so the bytes never pass
+ * through the heap, and a manifest line maps the run id to the offset and length in the archive
+ *
+ * the day of a run is the day of its run id, which is its spawn time in milli seconds,
+ * so looking up a run reads a single manifest, and retention deletes whole days
+ *
+ * segments - segments/&lt;log name&gt;.&lt;run id&gt; in the log folder
+ * archive  - segments/&lt;log name&gt;.&lt;yyyyMMdd&gt;.arc
+ * manifest - segments/&lt;log name&gt;.&lt;yyyyMMdd&gt;.manifest, one line "run id offset length" per run
+ *
+ * the manifest line is written after the segment is copied and the segment is deleted last,
+ * a run whose segment is still there is read from the segment
+ *
+ * java -cp pdi-daemon.jar com.advisory.PDIDaemon.PdiSegments &lt;log&gt; &lt;run id&gt;
+ */
+public class PdiSegments {
+    /**
+     * folder of the segments in the log folder
+     */
+    public static final String SEGMENT_FOLDER = "segments";
+
+    /**
+     * suffix of the daily archives
+     */
+    public static final String ARCHIVE_SUFFIX = ".arc";
+
+    /**
+     * suffix of the manifests of the daily archives
+     */
+    public static final String MANIFEST_SUFFIX = ".manifest";
+
+    /**
+     * date format of the day of an archive
+     */
+    public static final String DAY_FORMAT = "yyyyMMdd";
+
+    /**
+     * log message for a segment appended to an archive
+     */
+    public static final String MESSAGE_BUNDLED = "Archived run %d (%d bytes) to %s at offset %d\n";
+
+    /**
+     * folder of the segments
+     */
+    private final File folder;
+
+    /**
+     * name of the command log the segments belong to
+     */
+    private final String logName;
+
+    /**
+     * Constructor
+     *
+     * @param logFile command log the segments belong to
+     */
+    public PdiSegments(File logFile) {
+        this.folder = new File(logFile.getAbsoluteFile().getParentFile(), SEGMENT_FOLDER);
+        this.logName = logFile.getName();
+        if (!this.folder.exists()) {
+            this.folder.mkdirs();
+        }
+    }
+
+    /**
+     * @param runId id of the run
+     * @return segment of the run
+     */
+    public File segmentFile(long runId) {
+        return new File(this.folder, this.logName + "." + runId);
+    }
+
+    /**
+     * appends the segment of a completed run to the archive of the day the run was spawned, taken from its run id, and deletes it
+     *
+     * @param runId     id of the run
+     * @param logWriter logwriter for autospawn logs
+     * @throws IOException if the segment cannot be archived
+     */
+    public synchronized void bundle(long runId, PdiLogWriter logWriter) throws IOException {
+        File segment = this.segmentFile(runId);
+        if (!segment.exists()) {
+            return;
+        }
+        File archive = this.archiveFile(runId);
+        long offset;
+        long length;
+        try (FileChannel in = FileChannel.open(segment.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(archive.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            offset = out.size();
+            length = in.size();
+            out.position(offset);
+            transfer(in, 0, length, out);
+            out.force(false);
+        }
+        File manifest = manifestFile(archive);
+        try (FileChannel out = FileChannel.open(manifest.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            ByteBuffer line = ByteBuffer.wrap((runId + " " + offset + " " + length + "\n").getBytes(StandardCharsets.UTF_8));
+            while (line.hasRemaining()) {
+                out.write(line);
+            }
+        }
+        segment.delete();
+        logWriter.writeLog(String.format(MESSAGE_BUNDLED, runId, length, archive.getName(), offset));
+    }
+
+    /**
+     * writes the output of a run from its segment or its archive
+     *
+     * @param runId id of the run
+     * @param out   channel the output is written to
+     * @return false if the run is in no segment and no manifest
+     * @throws IOException if the output cannot be read
+     */
+    public boolean copyRun(long runId, WritableByteChannel out) throws IOException {
+        File segment = this.segmentFile(runId);
+        if (segment.exists()) {
+            try (FileChannel in = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+                transfer(in, 0, in.size(), out);
+            }
+            return true;
+        }
+        File archive = this.archiveFile(runId);
+        File manifest = manifestFile(archive);
+        if (!manifest.exists()) {
+            return false;
+        }
+        String key = runId + " ";
+        try (BufferedReader reader = new BufferedReader(new FileReader(manifest))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith(key)) {
+                    continue;
+                }
+                String[] fields = line.split(" ");
+                try (FileChannel in = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+                    transfer(in, Long.parseLong(fields[1]), Long.parseLong(fields[2]), out);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param runId id of the run
+     * @return daily archive of the run, the day is the day of the run id
+     */
+    public File archiveFile(long runId) {
+        String day = new SimpleDateFormat(DAY_FORMAT).format(new Date(runId));
+        return new File(this.folder, this.logName + "." + day + ARCHIVE_SUFFIX);
+    }
+
+    /**
+     * @param archive daily archive
+     * @return manifest of the archive
+     */
+    public static File manifestFile(File archive) {
+        String name = archive.getName();
+        return new File(archive.getParentFile(), name.substring(0, name.length() - ARCHIVE_SUFFIX.length()) + MANIFEST_SUFFIX);
+    }
+
+    /**
+     * @return daily archives of the command log, in no particular order, empty if there are none
+     */
+    public File[] archiveFiles() {
+        String prefix = this.logName + ".";
+        // only a day between the log name and the suffix, logs of other jobs may start with the same name
+        File[] archives = this.folder.listFiles((dir, fileName) -> fileName.startsWith(prefix)
+                && fileName.endsWith(ARCHIVE_SUFFIX)
+                && fileName.length() == prefix.length() + DAY_FORMAT.length() + ARCHIVE_SUFFIX.length()
+                && fileName.substring(prefix.length(), prefix.length() + DAY_FORMAT.length()).chars().allMatch(Character::isDigit));
+        return archives == null ? new File[0] : archives;
+    }
+
+    /**
+     * @param in       channel to be read
+     * @param position offset to start at
+     * @param length   number of bytes
+     * @param out      channel the bytes are written to
+     * @throws IOException if the bytes cannot be transferred
+     */
+    private static void transfer(FileChannel in, long position, long length, WritableByteChannel out) throws IOException {
+        long end = position + length;
+        while (position < end) {
+            long count = in.transferTo(position, end - position, out);
+            if (count <= 0) {
+                break;
+            }
+            position += count;
+        }
+    }
+
+    /**
+     * writes the output of a run of a segmented command log
+     *
+     * @param args command log and run id
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: PdiSegments <log> <run id>");
+            System.exit(1);
+        }
+        PdiSegments segments = new PdiSegments(new File(args[0]));
+        // a file channel of stdout lets transferTo hand the bytes to the kernel
+        try (FileOutputStream stdout = new FileOutputStream(FileDescriptor.out);
+             FileChannel out = stdout.getChannel()) {
+            if (!segments.copyRun(Long.parseLong(args[1]), out)) {
+                System.err.println("No output of run " + args[1]);
+                System.exit(1);
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Persists the process of every run in flight so a restarted daemon can adopt it instead of spawning a second copy
+ * for every job the pid, the start time of the process, the run id and the wall clock start of the run are kept,
+ * the file is replaced atomically on every change so a crash never leaves it half written
+ *
+ * a process is only adopted when it is still alive and has the start time recorded for it,
+ * a reused pid belongs to a process started later and is ignored,
+ * only runs in file output mode are kept, the output of a piped run has no reader once the daemon is gone
+ */
+public class PdiStateFile {
+    /**
+     * file name of the state file in the log folder
+     */
+    public static final String STATE_NAME = "pdi_state.properties";
+
+    /**
+     * state keys of a job
+     */
+    public static final String KEY_PID = "pid";
+    public static final String KEY_STARTED = "started";
+    public static final String KEY_RUN_ID = "runId";
+    public static final String KEY_START_TIME = "startTime";
+
+    /**
+     * state file
+     */
+    private final File file;
+
+    /**
+     * state of the runs in flight by job
+     */
+    private final Properties state = new Properties();
+
+    /**
+     * Constructor reads the state left by the previous daemon
+     *
+     * @param file state file
+     * @throws IOException if the state file exists and cannot be read
+     */
+    public PdiStateFile(File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            try (Reader reader = new FileReader(file)) {
+                this.state.load(reader);
+            }
+        }
+    }
+
+    /**
+     * records the process of a run in flight
+     *
+     * @param job       name of the job
+     * @param process   process of the run
+     * @param runId     id of the run
+     * @param startTime wall clock time in milli seconds the run started
+     */
+    public synchronized void record(String job, ProcessHandle process, long runId, long startTime) {
+        Optional<Instant> started = process.info().startInstant();
+        if (!started.isPresent()) {
+            // without a start time a reused pid cannot be told apart
+            return;
+        }
+        this.state.setProperty(job + "." + KEY_PID, String.valueOf(process.pid()));
+        this.state.setProperty(job + "." + KEY_STARTED, String.valueOf(started.get().toEpochMilli()));
+        this.state.setProperty(job + "." + KEY_RUN_ID, String.valueOf(runId));
+        this.state.setProperty(job + "." + KEY_START_TIME, String.valueOf(startTime));
+        this.store();
+    }
+
+    /**
+     * forgets the run of a job that has completed
+     *
+     * @param job name of the job
+     */
+    public synchronized void clear(String job) {
+        if (this.state.remove(job + "." + KEY_PID) == null) {
+            return;
+        }
+        this.state.remove(job + "." + KEY_STARTED);
+        this.state.remove(job + "." + KEY_RUN_ID);
+        this.state.remove(job + "." + KEY_START_TIME);
+        this.store();
+    }
+
+    /**
+     * finds the process of a run of the job left by the previous daemon
+     *
+     * @param job name of the job
+     * @return process still running, null if there is none or its pid was reused
+     */
+    public synchronized ProcessHandle findRunning(String job) {
+        long pid = this.getLong(job, KEY_PID);
+        long started = this.getLong(job, KEY_STARTED);
+        if (pid <= 0) {
+            return null;
+        }
+        Optional<ProcessHandle> process = ProcessHandle.of(pid);
+        if (!process.isPresent() || !process.get().isAlive()) {
+            return null;
+        }
+        Optional<Instant> startInstant = process.get().info().startInstant();
+        if (!startInstant.isPresent() || startInstant.get().toEpochMilli() != started) {
+            return null;
+        }
+        return process.get();
+    }
+
+    /**
+     * @param job name of the job
+     * @return id of the recorded run of the job, -1 if there is none
+     */
+    public synchronized long getRunId(String job) {
+        return this.getLong(job, KEY_RUN_ID);
+    }
+
+    /**
+     * @param job name of the job
+     * @return wall clock time in milli seconds the recorded run of the job started, -1 if there is none
+     */
+    public synchronized long getStartTime(String job) {
+        return this.getLong(job, KEY_START_TIME);
+    }
+
+    /**
+     * @param job name of the job
+     * @param key state key
+     * @return value of the key, -1 if missing or invalid
+     */
+    private long getLong(String job, String key) {
+        try {
+            return Long.parseLong(this.state.getProperty(job + "." + key, "-1"));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * writes the state to a temporary file and moves it over the state file
+     */
+    private void store() {
+        File tempFile = new File(this.file.getPath() + PdiLogArchiver.TEMP_SUFFIX);
+        try {
+            try (FileOutputStream out = new FileOutputStream(tempFile)) {
+                this.state.store((OutputStream) out, null);
+                out.getFD().sync();
+            }
+            try {
+                Files.move(tempFile.toPath(), this.file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
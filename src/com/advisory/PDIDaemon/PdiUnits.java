@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the intervals and sizes given on the command line and in the job config
+ * a plain number is in the time or size factor units, every other value carries its own unit
+ *
+ * intervals - ISO-8601 durations, e.g. PT250MS, PT90S, PT1H30M, P30D, milli seconds may be given as nMS
+ * sizes     - a number and a binary unit, e.g. 512KiB, 1.5GiB, 4GB, KB, MB, GB and TB count 1024 like the size factors
+ *
+ * every value is kept in milli seconds or bytes as a long, values that do not fit are rejected
+ */
+public class PdiUnits {
+    /**
+     * time part of an ISO-8601 duration ending in milli seconds
+     */
+    private static final Pattern MILLIS = Pattern.compile("(.*T.*?)(\\d+)MS");
+
+    /**
+     * size with a unit
+     */
+    private static final Pattern SIZE = Pattern.compile("(\\d+(?:\\.\\d+)?)\\s*([KMGT]I?B?|B)");
+
+    /**
+     * Constructor, only static methods
+     */
+    private PdiUnits() {
+    }
+
+    /**
+     * @param value      plain number in time factor units or ISO-8601 duration
+     * @param timeFactor time factor value in milli seconds
+     * @return interval
+     * @throws IllegalArgumentException for an invalid, negative or too long interval
+     */
+    public static Duration parseDuration(String value, long timeFactor) {
+        String text = value.trim().toUpperCase(Locale.ROOT);
+        try {
+            if (text.matches("\\d+")) {
+                return Duration.ofMillis(Math.multiplyExact(Long.parseLong(text), timeFactor));
+            }
+            Duration duration;
+            Matcher millis = MILLIS.matcher(text);
+            if (millis.matches()) {
+                // java.time knows no MS designator, the milli seconds are added to the rest of the duration
+                String rest = millis.group(1);
+                duration = rest.endsWith("T") ? parseIso(rest.substring(0, rest.length() - 1)) : Duration.parse(rest);
+                duration = duration.plusMillis(Long.parseLong(millis.group(2)));
+            } else {
+                duration = Duration.parse(text);
+            }
+            if (duration.isNegative()) {
+                throw new IllegalArgumentException("Negative interval " + value);
+            }
+            // the interval has to fit in milli seconds
+            duration.toMillis();
+            return duration;
+        } catch (ArithmeticException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid interval " + value, e);
+        }
+    }
+
+    /**
+     * @param text ISO-8601 duration without a time part, P alone for zero
+     * @return duration
+     */
+    private static Duration parseIso(String text) {
+        return "P".equals(text) ? Duration.ZERO : Duration.parse(text);
+    }
+
+    /**
+     * @param value      plain number in size factor units or number with a size unit
+     * @param sizeFactor size factor value in bytes
+     * @return size in bytes
+     * @throws IllegalArgumentException for an invalid or too large size
+     */
+    public static long parseBytes(String value, long sizeFactor) {
+        String text = value.trim().toUpperCase(Locale.ROOT);
+        try {
+            if (text.matches("\\d+")) {
+                return Math.multiplyExact(Long.parseLong(text), sizeFactor);
+            }
+            Matcher size = SIZE.matcher(text);
+            if (!size.matches()) {
+                throw new IllegalArgumentException("Invalid size " + value);
+            }
+            long unit;
+            switch (size.group(2).charAt(0)) {
+                case 'K':
+                    unit = 1L << 10;
+                    break;
+                case 'M':
+                    unit = 1L << 20;
+                    break;
+                case 'G':
+                    unit = 1L << 30;
+                    break;
+                case 'T':
+                    unit = 1L << 40;
+                    break;
+                default:
+                    unit = 1;
+            }
+            BigDecimal bytes = new BigDecimal(size.group(1)).multiply(BigDecimal.valueOf(unit));
+            return bytes.setScale(0, RoundingMode.DOWN).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid size " + value, e);
+        }
+    }
+}
@@ -0,0 +1,387 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Long lived worker process that runs the job command on request, avoiding a JVM cold start per spawn
+ * the daemon writes one request line per run to the stdin of the worker
+ *
+ * RUN &lt;run id&gt; &lt;command&gt;
+ *
+ * and copies the stdout of the worker to the command log until the worker answers with a line feed and
+ *
+ * DONE &lt;run id&gt; &lt;exit code&gt;
+ *
+ * the line feed in front of the answer is not part of the output, so the answer always starts a line
+ * even when the output of the command does not end with a line feed, a malformed answer recycles the worker
+ *
+ * the worker is started on the first run and recycled after a number of runs or when its
+ * resident memory grows beyond a limit, a worker stopped during a run is retired once the run is done
+ */
+public class PdiWorker {
+    /**
+     * default number of runs after which the worker is recycled
+     */
+    public static final int MAX_RUNS_DEFAULT = 100;
+
+    /**
+     * request sent for every run
+     */
+    public static final String REQUEST_RUN = "RUN";
+
+    /**
+     * answer ending every run
+     */
+    public static final String ANSWER_DONE = "DONE";
+
+    /**
+     * log message for a started worker
+     */
+    public static final String MESSAGE_WORKER_STARTED = "Started worker %s with PID #%d\n";
+
+    /**
+     * log message for a recycled worker
+     */
+    public static final String MESSAGE_WORKER_RECYCLED = "Recycling worker with PID #%d after %d runs, resident memory %d bytes\n";
+
+    /**
+     * log message for a worker that died during a run
+     */
+    public static final String MESSAGE_WORKER_DIED = "Worker with PID #%d exited during run %d\n";
+
+    /**
+     * log message for a worker that sent a malformed answer
+     */
+    public static final String MESSAGE_WORKER_PROTOCOL = "Worker with PID #%d sent an invalid answer to run %d: %s\n";
+
+    /**
+     * time in seconds a recycled worker gets to exit after its stdin is closed
+     */
+    private static final int STOP_TIMEOUT = 10;
+
+    /**
+     * line feed held back from the output
+     */
+    private static final byte[] LINE_FEED = {'\n'};
+
+    /**
+     * command starting the worker
+     */
+    private final String command;
+
+    /**
+     * working directory of the worker
+     */
+    private final String workingDirectory;
+
+    /**
+     * logwriter for autospawn logs
+     */
+    private final PdiLogWriter logWriter;
+
+    /**
+     * number of runs after which the worker is recycled, 0 for no limit
+     */
+    private int maxRuns = MAX_RUNS_DEFAULT;
+
+    /**
+     * resident memory in bytes above which the worker is recycled, 0 for no limit
+     */
+    private long maxRss = 0;
+
+    /**
+     * lock of the worker state, a lock rather than a monitor so a virtual thread running a job is not pinned
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * running worker process, null until the first run
+     */
+    private volatile Process process = null;
+
+    /**
+     * stdout of the worker
+     */
+    private InputStream output = null;
+
+    /**
+     * number of runs done by the current worker process
+     */
+    private int runs = 0;
+
+    /**
+     * true while a run is in flight on the worker
+     */
+    private boolean busy = false;
+
+    /**
+     * true if the worker is stopped once the run in flight is done
+     */
+    private boolean retiring = false;
+
+    /**
+     * pid of the worker process that ran the last run
+     */
+    private volatile long runPid = -1;
+
+    /**
+     * Constructor
+     *
+     * @param command          command starting the worker
+     * @param workingDirectory working directory of the worker
+     * @param logWriter        logwriter for autospawn logs
+     */
+    public PdiWorker(String command, String workingDirectory, PdiLogWriter logWriter) {
+        this.command = command;
+        this.workingDirectory = workingDirectory;
+        this.logWriter = logWriter;
+    }
+
+    /**
+     * sends a run request to the worker and copies its output to the sink until the run is done,
+     * the worker is not locked during the run so that it can be stopped meanwhile
+     *
+     * @param runId   id of the run
+     * @param request command line sent to the worker
+     * @param sink    command log the output is written to
+     * @return exit code reported by the worker, -1 if the worker exited during the run or sent a malformed answer
+     * @throws IOException if the worker cannot be started or the log cannot be written
+     */
+    public int execute(long runId, String request, PdiRotatingSink sink) throws IOException {
+        Process process;
+        InputStream output;
+        this.lock.lock();
+        try {
+            this.ensureStarted();
+            process = this.process;
+            output = this.output;
+            this.busy = true;
+        } finally {
+            this.lock.unlock();
+        }
+        this.runPid = process.pid();
+        int exitCode = -1;
+        boolean failed = true;
+        try {
+            OutputStream input = process.getOutputStream();
+            input.write((REQUEST_RUN + " " + runId + " " + request + "\n").getBytes(StandardCharsets.UTF_8));
+            input.flush();
+            exitCode = this.copyOutput(process, output, runId, sink);
+            failed = exitCode == -1;
+        } finally {
+            this.done(process, failed);
+        }
+        return exitCode;
+    }
+
+    /**
+     * copies the output of a run to the sink until the answer of the worker,
+     * the line feed ending a line is held back until the next line shows it is not the one in front of the answer
+     *
+     * @param process worker process
+     * @param output  stdout of the worker
+     * @param runId   id of the run
+     * @param sink    command log the output is written to
+     * @return exit code reported by the worker, -1 if the worker exited during the run or sent a malformed answer
+     * @throws IOException if the output cannot be read or the log cannot be written
+     */
+    private int copyOutput(Process process, InputStream output, long runId, PdiRotatingSink sink) throws IOException {
+        String done = ANSWER_DONE + " " + runId + " ";
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        boolean lineFeed = false;
+        while (true) {
+            boolean complete = readLine(output, line);
+            String text = line.toString(StandardCharsets.UTF_8);
+            if (complete && text.startsWith(done)) {
+                try {
+                    return Integer.parseInt(text.substring(done.length()).trim());
+                } catch (NumberFormatException e) {
+                    this.logWriter.writeLog(String.format(MESSAGE_WORKER_PROTOCOL, process.pid(), runId, text.trim()));
+                    return -1;
+                }
+            }
+            if (lineFeed) {
+                sink.write(ByteBuffer.wrap(LINE_FEED));
+            }
+            byte[] bytes = line.toByteArray();
+            lineFeed = complete;
+            sink.write(ByteBuffer.wrap(bytes, 0, complete ? bytes.length - 1 : bytes.length));
+            if (!complete) {
+                this.logWriter.writeLog(String.format(MESSAGE_WORKER_DIED, process.pid(), runId));
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * ends a run, the worker is stopped when it failed, was stopped during the run or is due to be recycled
+     *
+     * @param process worker process that ran the run
+     * @param failed  true if the worker exited or sent a malformed answer
+     */
+    private void done(Process process, boolean failed) {
+        this.lock.lock();
+        try {
+            this.busy = false;
+            if (this.process != process) {
+                return;
+            }
+            if (failed) {
+                this.destroy();
+                return;
+            }
+            this.runs++;
+            long rss = PdiProcessSampler.readRss(process.pid());
+            if (this.retiring) {
+                this.stop();
+            } else if ((this.maxRuns > 0 && this.runs >= this.maxRuns) || (this.maxRss > 0 && rss > this.maxRss)) {
+                this.logWriter.writeLog(String.format(MESSAGE_WORKER_RECYCLED, process.pid(), this.runs, rss));
+                this.stop();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return pid of the worker process, -1 if no worker is running
+     */
+    public long getPid() {
+        this.lock.lock();
+        try {
+            return this.process == null ? -1 : this.process.pid();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return pid of the worker process that ran the last run, -1 before the first run
+     */
+    public long getRunPid() {
+        return this.runPid;
+    }
+
+    /**
+     * @return process handle of the worker, null if no worker is running, usable while a run is in flight
+     */
+    public ProcessHandle getProcessHandle() {
+        Process process = this.process;
+        return process == null ? null : process.toHandle();
+    }
+
+    /**
+     * stops the worker by closing its stdin, it is killed if it does not exit in time,
+     * a worker with a run in flight is retired once the run is done, the call does not wait in either case
+     */
+    public void stop() {
+        this.lock.lock();
+        try {
+            Process process = this.process;
+            if (process == null) {
+                return;
+            }
+            if (this.busy) {
+                this.retiring = true;
+                return;
+            }
+            try {
+                process.getOutputStream().close();
+                process.onExit().completeOnTimeout(process, STOP_TIMEOUT, TimeUnit.SECONDS).thenAccept(exited -> {
+                    if (exited.isAlive()) {
+                        exited.destroyForcibly();
+                    }
+                });
+            } catch (IOException e) {
+                process.destroyForcibly();
+            }
+            this.process = null;
+            this.output = null;
+            this.runs = 0;
+            this.retiring = false;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * starts the worker process unless it is running
+     *
+     * @throws IOException if the worker cannot be started
+     */
+    private void ensureStarted() throws IOException {
+        if (this.process != null && this.process.isAlive()) {
+            return;
+        }
+        this.destroy();
+        ProcessBuilder pb = new ProcessBuilder("/bin/sh", "-c", this.command);
+        pb.directory(new File(this.workingDirectory));
+        pb.redirectErrorStream(true);
+        Process process = pb.start();
+        this.process = process;
+        this.output = new BufferedInputStream(process.getInputStream());
+        this.runs = 0;
+        this.logWriter.writeLog(String.format(MESSAGE_WORKER_STARTED, this.command, process.pid()));
+    }
+
+    /**
+     * kills the worker process
+     */
+    private void destroy() {
+        if (this.process != null) {
+            this.process.destroyForcibly();
+        }
+        this.process = null;
+        this.output = null;
+        this.runs = 0;
+        this.retiring = false;
+    }
+
+    /**
+     * reads a line of worker output including the line feed
+     *
+     * @param output stdout of the worker
+     * @param line   buffer receiving the line
+     * @return false if the worker closed its stdout before the line feed
+     * @throws IOException if the output cannot be read
+     */
+    private static boolean readLine(InputStream output, ByteArrayOutputStream line) throws IOException {
+        line.reset();
+        int b;
+        while ((b = output.read()) >= 0) {
+            line.write(b);
+            if (b == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param maxRuns number of runs after which the worker is recycled, 0 for no limit
+     */
+    protected void setMaxRuns(int maxRuns) {
+        this.maxRuns = maxRuns;
+    }
+
+    /**
+     * @param maxRss resident memory in bytes above which the worker is recycled, 0 for no limit
+     */
+    protected void setMaxRss(long maxRss) {
+        this.maxRss = maxRss;
+    }
+}
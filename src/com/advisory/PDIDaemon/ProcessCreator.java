@@ -7,9 +7,12 @@ package com.advisory.PDIDaemon;
 
 import java.io.IOException;
 import java.io.File;
-import java.lang.reflect.Field;
 
 public class ProcessCreator {
+    /**
+     * default working directory of the command
+     */
+    public static final String WORKING_DIRECTORY_DEFAULT = "/opt/di";
 
     /**
      * holds command to be executed
@@ -26,6 +29,16 @@ public class ProcessCreator {
      */
     private Process process = null;
 
+    /**
+     * true if the output is piped to the daemon instead of redirected to the log file
+     */
+    private boolean capture = false;
+
+    /**
+     * working directory of the command
+     */
+    private String workingDirectory = WORKING_DIRECTORY_DEFAULT;
+
     /**
      * @param command command to be executed
      */
@@ -52,13 +65,18 @@ public class ProcessCreator {
         ProcessBuilder pb = new ProcessBuilder();
         try {
             pb.command("/bin/sh", "-c", command);
-            File logFile = new File(this.getLogFile());
-            if (!logFile.exists()) {
-                logFile.createNewFile();
+            if (this.isCapture()) {
+                pb.redirectErrorStream(true);
+            } else {
+                File logFile = new File(this.getLogFile());
+                if (!logFile.exists()) {
+                    logFile.getParentFile().mkdirs();
+                    logFile.createNewFile();
+                }
+                pb.redirectOutput(logFile);
+                pb.redirectError(logFile);
             }
-            pb.redirectOutput(logFile);
-            pb.redirectError(logFile);
-            pb.directory(new File("/opt/di"));
+            pb.directory(new File(this.getWorkingDirectory()));
             Process process = pb.start();
             this.setProcess(process);
             return this.getPidFromProcess(process);
@@ -76,18 +94,7 @@ public class ProcessCreator {
      * @return pid of the process
      */
     private int getPidFromProcess(Process process) {
-        try {
-            Field f = process.getClass().getDeclaredField("pid");
-            f.setAccessible(true);
-            int pid = f.getInt(process);
-            return pid;
-        } catch (NoSuchFieldException e) {
-            e.printStackTrace();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-        }
-
-        return -1;
+        return (int) process.pid();
     }
 
     /**
@@ -131,4 +138,32 @@ public class ProcessCreator {
     protected Process getProcess() {
         return this.process;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return true if the output is piped to the daemon
+     */
+    protected boolean isCapture() {
+        return this.capture;
+    }
+
+    /**
+     * @param capture true to pipe stdout and stderr to the daemon instead of the log file
+     */
+    protected void setCapture(boolean capture) {
+        this.capture = capture;
+    }
+
+    /**
+     * @return working directory of the command
+     */
+    protected String getWorkingDirectory() {
+        return this.workingDirectory;
+    }
+
+    /**
+     * @param workingDirectory working directory of the command
+     */
+    protected void setWorkingDirectory(String workingDirectory) {
+        this.workingDirectory = workingDirectory;
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Matching times of cron expressions
+ */
+public class PdiCronExpressionTest {
+    /**
+     * thursday 2015-06-04 12:34:56 UTC
+     */
+    private static final ZonedDateTime NOW = ZonedDateTime.of(2015, 6, 4, 12, 34, 56, 0, ZoneOffset.UTC);
+
+    @Test
+    void matchesStrictlyAfterTheGivenTime() {
+        assertEquals(at(6, 4, 12, 35), new PdiCronExpression("* * * * *").next(NOW));
+        assertEquals(at(6, 4, 12, 36), new PdiCronExpression("* * * * *").next(at(6, 4, 12, 35)));
+    }
+
+    @Test
+    void matchesStepsRangesAndLists() {
+        assertEquals(at(6, 4, 12, 45), new PdiCronExpression("*/15 * * * *").next(NOW));
+        assertEquals(at(6, 4, 13, 10), new PdiCronExpression("10-20/10 13 * * *").next(NOW));
+        assertEquals(at(6, 5, 8, 0), new PdiCronExpression("0 8,12 * * *").next(NOW));
+    }
+
+    @Test
+    void rollsOverDaysMonthsAndYears() {
+        assertEquals(at(7, 1, 0, 0), new PdiCronExpression("0 0 1 * *").next(NOW));
+        assertEquals(ZonedDateTime.of(2016, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC),
+                new PdiCronExpression("0 0 1 1 *").next(NOW));
+        assertEquals(ZonedDateTime.of(2016, 2, 29, 0, 0, 0, 0, ZoneOffset.UTC),
+                new PdiCronExpression("0 0 29 2 *").next(NOW));
+    }
+
+    @Test
+    void matchesEitherDayFieldWhenBothAreRestricted() {
+        // sunday is 0 and 7
+        assertEquals(at(6, 7, 0, 0), new PdiCronExpression("0 0 * * 7").next(NOW));
+        assertEquals(at(6, 7, 0, 0), new PdiCronExpression("0 0 * * 0").next(NOW));
+        // the 10th or a monday, the monday comes first
+        assertEquals(at(6, 8, 0, 0), new PdiCronExpression("0 0 10 * 1").next(NOW));
+        // the 5th, which is a friday, or a tuesday
+        assertEquals(at(6, 5, 0, 0), new PdiCronExpression("0 0 5 * 2").next(NOW));
+    }
+
+    @Test
+    void rejectsInvalidExpressions() {
+        assertThrows(IllegalArgumentException.class, () -> new PdiCronExpression("* * * *"));
+        assertThrows(IllegalArgumentException.class, () -> new PdiCronExpression("60 * * * *"));
+        assertThrows(IllegalArgumentException.class, () -> new PdiCronExpression("* * 0 * *"));
+        assertThrows(IllegalArgumentException.class, () -> new PdiCronExpression("20-10 * * * *"));
+        assertThrows(IllegalArgumentException.class, () -> new PdiCronExpression("*/0 * * * *"));
+        assertThrows(IllegalStateException.class, () -> new PdiCronExpression("0 0 31 2 *").next(NOW));
+    }
+
+    /**
+     * @param month  month of 2015
+     * @param day    day of month
+     * @param hour   hour
+     * @param minute minute
+     * @return time in UTC
+     */
+    private static ZonedDateTime at(int month, int day, int hour, int minute) {
+        return ZonedDateTime.of(2015, month, day, hour, minute, 0, 0, ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Ordering, overflow policies and shutdown of the log ring buffer
+ */
+public class PdiLogBufferTest {
+    /**
+     * text messages drained
+     */
+    private final String[] messages = new String[4];
+
+    /**
+     * events drained
+     */
+    private final PdiLogEvent[] events = new PdiLogEvent[4];
+
+    /**
+     * times drained
+     */
+    private final long[] times = new long[4];
+
+    @Test
+    void drainsInOfferOrderAcrossTheWrap() throws InterruptedException {
+        PdiLogBuffer buffer = new PdiLogBuffer(3, PdiLogBuffer.OVERFLOW_BLOCK);
+        buffer.offer(1, "a");
+        buffer.offer(2, "b");
+        assertEquals(2, buffer.drain(this.messages, this.events, this.times, 0));
+        buffer.offer(3, "c");
+        buffer.offer(4, "d");
+        buffer.offer(5, "e");
+        assertEquals(3, buffer.drain(this.messages, this.events, this.times, 0));
+        assertArrayEquals(new String[]{"c", "d", "e"}, new String[]{this.messages[0], this.messages[1], this.messages[2]});
+        assertArrayEquals(new long[]{3, 4, 5}, new long[]{this.times[0], this.times[1], this.times[2]});
+    }
+
+    @Test
+    void holdsTextMessagesAndEventsInOneOrder() throws InterruptedException {
+        PdiLogBuffer buffer = new PdiLogBuffer(4, PdiLogBuffer.OVERFLOW_BLOCK);
+        PdiLogEvent event = new PdiLogEvent(null);
+        buffer.offer(1, "text");
+        buffer.offer(2, event);
+        assertEquals(2, buffer.drain(this.messages, this.events, this.times, 0));
+        assertEquals("text", this.messages[0]);
+        assertNull(this.events[0]);
+        assertNull(this.messages[1]);
+        assertSame(event, this.events[1]);
+    }
+
+    @Test
+    void dropsOrCountsWhenFull() throws InterruptedException {
+        PdiLogBuffer drop = new PdiLogBuffer(1, PdiLogBuffer.OVERFLOW_DROP);
+        assertTrue(drop.offer(1, "a"));
+        assertFalse(drop.offer(2, "b"));
+        assertEquals(0, drop.takeDropped());
+
+        PdiLogBuffer count = new PdiLogBuffer(1, PdiLogBuffer.OVERFLOW_COUNT);
+        assertTrue(count.offer(1, "a"));
+        assertFalse(count.offer(2, "b"));
+        assertFalse(count.offer(3, "c"));
+        assertEquals(2, count.takeDropped());
+        assertEquals(0, count.takeDropped());
+        assertEquals(1, count.drain(this.messages, this.events, this.times, 0));
+        assertEquals("a", this.messages[0]);
+    }
+
+    @Test
+    void blocksWhenFullUntilDrained() throws InterruptedException {
+        PdiLogBuffer buffer = new PdiLogBuffer(1, PdiLogBuffer.OVERFLOW_BLOCK);
+        buffer.offer(1, "a");
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean added = new AtomicBoolean();
+        Thread producer = new Thread(() -> {
+            started.countDown();
+            added.set(buffer.offer(2, "b"));
+        });
+        producer.start();
+        started.await();
+        producer.join(200);
+        assertTrue(producer.isAlive());
+        assertEquals(1, buffer.drain(this.messages, this.events, this.times, 0));
+        producer.join(TimeUnit.SECONDS.toMillis(5));
+        assertTrue(added.get());
+        assertEquals(1, buffer.drain(this.messages, this.events, this.times, 0));
+        assertEquals("b", this.messages[0]);
+    }
+
+    @Test
+    void returnsZeroOnTimeoutAndMinusOneOnceClosedAndEmpty() throws InterruptedException {
+        PdiLogBuffer buffer = new PdiLogBuffer(2, PdiLogBuffer.OVERFLOW_BLOCK);
+        assertEquals(0, buffer.drain(this.messages, this.events, this.times, 50));
+        buffer.offer(1, "a");
+        buffer.close();
+        assertFalse(buffer.offer(2, "b"));
+        // messages offered before the close are still drained
+        assertEquals(1, buffer.drain(this.messages, this.events, this.times, 50));
+        assertEquals(-1, buffer.drain(this.messages, this.events, this.times, 50));
+    }
+
+    @Test
+    void rejectsAnUnknownOverflowPolicy() {
+        assertThrows(IllegalArgumentException.class, () -> new PdiLogBuffer(1, "discard"));
+    }
+}
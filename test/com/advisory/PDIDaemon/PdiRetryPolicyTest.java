@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Retry decisions and backoff of the retry policy
+ */
+public class PdiRetryPolicyTest {
+    @Test
+    void backoffDoublesWithJitterInTheSecondHalf() {
+        PdiRetryPolicy policy = new PdiRetryPolicy(null, 10, 100, 10000, 0, 0);
+        for (int i = 0; i < 100; i++) {
+            assertBetween(50, 100, policy.backoff(1));
+            assertBetween(100, 200, policy.backoff(2));
+            assertBetween(400, 800, policy.backoff(4));
+        }
+    }
+
+    @Test
+    void backoffIsCappedAtTheMaxDelayWithoutOverflow() {
+        PdiRetryPolicy policy = new PdiRetryPolicy(null, 100, 100, 1000, 0, 0);
+        for (int attempt : new int[]{5, 30, 58, 63, 64, 1000, Integer.MAX_VALUE}) {
+            assertBetween(500, 1000, policy.backoff(attempt));
+        }
+    }
+
+    @Test
+    void retriesOnlyTheGivenCodesUpToTheMaxAttempts() {
+        PdiRetryPolicy policy = new PdiRetryPolicy("1, 2", 2, 100, 1000, 0, 0);
+        assertTrue(policy.shouldRetry(1, 0));
+        assertTrue(policy.shouldRetry(2, 1));
+        assertFalse(policy.shouldRetry(2, 2));
+        assertFalse(policy.shouldRetry(3, 0));
+        assertFalse(policy.shouldRetry(0, 0));
+        assertTrue(new PdiRetryPolicy(null, 1, 100, 1000, 0, 0).shouldRetry(42, 0));
+    }
+
+    @Test
+    void opensTheBreakerAtTheThreshold() {
+        assertFalse(new PdiRetryPolicy(null, 0, 100, 1000, 3, 1000).shouldOpenBreaker(2));
+        assertTrue(new PdiRetryPolicy(null, 0, 100, 1000, 3, 1000).shouldOpenBreaker(3));
+        assertFalse(new PdiRetryPolicy(null, 0, 100, 1000, 0, 1000).shouldOpenBreaker(100));
+    }
+
+    /**
+     * @param min   lowest expected value
+     * @param max   highest expected value
+     * @param value value to be checked
+     */
+    private static void assertBetween(long min, long max, long value) {
+        assertTrue(value >= min && value <= max, value + " not in " + min + ".." + max);
+    }
+}
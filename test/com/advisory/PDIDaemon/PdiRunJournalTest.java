@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Appending to and querying the run journal
+ */
+public class PdiRunJournalTest {
+    @TempDir
+    File folder;
+
+    @Test
+    void queriesNewestRunsAcrossWindows() throws IOException {
+        File file = new File(this.folder, PdiRunJournal.JOURNAL_NAME);
+        try (PdiRunJournal journal = new PdiRunJournal(file, false)) {
+            for (long runId = 0; runId < 10000; runId++) {
+                journal.append(this.run(runId, runId % 2 == 0 ? "even" : "odd", 0));
+            }
+        }
+        try (PdiRunJournal journal = new PdiRunJournal(file, true)) {
+            assertEquals(10000, journal.getCount());
+            List<PdiRunRecord> runs = journal.last("even", 5000);
+            assertEquals(5000, runs.size());
+            assertEquals(9998, runs.get(0).getRunId());
+            assertEquals(0, runs.get(4999).getRunId());
+            assertEquals("even", runs.get(0).getJob());
+            assertEquals(9999, journal.last(null, 1).get(0).getRunId());
+        }
+    }
+
+    @Test
+    void keepsLongJobNamesApart() throws IOException {
+        String first = "nightly-warehouse-load-customers";
+        String second = "nightly-warehouse-load-contracts";
+        try (PdiRunJournal journal = new PdiRunJournal(new File(this.folder, PdiRunJournal.JOURNAL_NAME), false)) {
+            journal.append(this.run(1, first, 0));
+            journal.append(this.run(2, second, 0));
+            assertEquals(1, journal.last(first, 10).size());
+            assertEquals(2, journal.last(second, 10).get(0).getRunId());
+            assertNotEquals(journal.last(first, 1).get(0).getJob(), journal.last(second, 1).get(0).getJob());
+        }
+    }
+
+    @Test
+    void neverCutsMultiByteCharacters() {
+        byte[] field = PdiRunJournal.encodeJob("ääääääääääääääääääää");
+        assertEquals(PdiRunJournal.JOB_SIZE, field.length);
+        // 7 two byte characters fit into the prefix, the hash follows right after them
+        assertEquals('~', field[14]);
+    }
+
+    @Test
+    void countsFailuresInARow() throws IOException {
+        try (PdiRunJournal journal = new PdiRunJournal(new File(this.folder, PdiRunJournal.JOURNAL_NAME), false)) {
+            journal.append(this.run(1, "load", 1));
+            journal.append(this.run(2, "load", 0));
+            journal.append(this.run(3, "load", 2));
+            journal.append(this.run(4, "other", 0));
+            journal.append(this.run(5, "load", 3));
+            assertEquals(2, journal.failureStreak("load"));
+            assertEquals(1, journal.failureStreak(null));
+            assertEquals(0, journal.failureStreak("other"));
+        }
+    }
+
+    @Test
+    void countsFailuresInARowAcrossWindows() throws IOException {
+        try (PdiRunJournal journal = new PdiRunJournal(new File(this.folder, PdiRunJournal.JOURNAL_NAME), false)) {
+            journal.append(this.run(0, "load", 0));
+            for (long runId = 1; runId <= 5000; runId++) {
+                journal.append(this.run(runId, runId % 2 == 0 ? "load" : "other", 1));
+            }
+            assertEquals(2500, journal.failureStreak("load"));
+            assertEquals(5000, journal.failureStreak(null));
+            assertEquals(2500, journal.failureStreak("other"));
+        }
+    }
+
+    /**
+     * @param runId    id of the run
+     * @param job      name of the job
+     * @param exitCode exit code of the run
+     * @return completed run
+     */
+    private PdiRunRecord run(long runId, String job, int exitCode) {
+        return new PdiRunRecord(runId, job, 1000 * runId, 1000 * runId + 10, exitCode, 100, 0);
+    }
+}
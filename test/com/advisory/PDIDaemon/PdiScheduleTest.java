@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Due times of the schedule modes and missed fire policies
+ */
+public class PdiScheduleTest {
+    /**
+     * one second in nano seconds
+     */
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * anchor of the grid of rate schedules
+     */
+    private static final long ANCHOR = 1000 * SECOND;
+
+    @Test
+    void rateFollowsTheGridWithoutDrift() {
+        PdiSchedule schedule = new PdiSchedule(PdiSchedule.MODE_RATE, 1000, null, PdiSchedule.MISFIRE_ONCE);
+        assertEquals(ANCHOR, schedule.firstDue(ANCHOR));
+        // a tick late by 300 ms still keeps the next spawn on the grid
+        assertEquals(ANCHOR + 2 * SECOND, schedule.nextDue(ANCHOR, ANCHOR + SECOND, ANCHOR + SECOND + 300_000_000));
+    }
+
+    @Test
+    void missedSpawnsFollowThePolicy() {
+        long previous = ANCHOR;
+        long now = ANCHOR + 3500_000_000L;
+        assertEquals(now, new PdiSchedule(PdiSchedule.MODE_RATE, 1000, null, PdiSchedule.MISFIRE_ONCE)
+                .nextDue(ANCHOR, previous, now));
+        assertEquals(ANCHOR + 4 * SECOND, new PdiSchedule(PdiSchedule.MODE_RATE, 1000, null, PdiSchedule.MISFIRE_SKIP)
+                .nextDue(ANCHOR, previous, now));
+        assertEquals(ANCHOR + SECOND, new PdiSchedule(PdiSchedule.MODE_RATE, 1000, null, PdiSchedule.MISFIRE_CATCHUP)
+                .nextDue(ANCHOR, previous, now));
+    }
+
+    @Test
+    void delayCountsFromTheCompletion() {
+        PdiSchedule schedule = new PdiSchedule(PdiSchedule.MODE_DELAY, 2000, null, PdiSchedule.MISFIRE_ONCE);
+        long completed = ANCHOR + 5 * SECOND;
+        assertEquals(completed + 2 * SECOND, schedule.nextDue(ANCHOR, ANCHOR, completed));
+    }
+
+    @Test
+    void adaptiveFollowsTheRunTimeWithinTheBounds() {
+        PdiSchedule schedule = new PdiSchedule(PdiSchedule.MODE_ADAPTIVE, 1000, null, PdiSchedule.MISFIRE_ONCE,
+                500, 10000, 50, 0);
+        // the spawn period is used until a run has completed
+        assertEquals(ANCHOR + SECOND, schedule.nextDue(ANCHOR, ANCHOR, ANCHOR));
+        schedule.observe(2000);
+        // 2 s runs at a 50% duty cycle
+        assertEquals(ANCHOR + 4 * SECOND, schedule.nextDue(ANCHOR, ANCHOR, ANCHOR));
+        schedule.observe(60000);
+        assertEquals(ANCHOR + 10 * SECOND, schedule.nextDue(ANCHOR, ANCHOR, ANCHOR));
+    }
+
+    @Test
+    void cronIsDueAtTheNextMatchingMinute() {
+        PdiSchedule schedule = new PdiSchedule(PdiSchedule.MODE_CRON, 0, "* * * * *", PdiSchedule.MISFIRE_ONCE);
+        long now = System.nanoTime();
+        long due = schedule.firstDue(now);
+        assertTrue(due > now && due <= now + 60 * SECOND);
+    }
+
+    @Test
+    void rejectsInvalidSchedules() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new PdiSchedule(PdiSchedule.MODE_RATE, 0, null, PdiSchedule.MISFIRE_ONCE));
+        assertThrows(IllegalArgumentException.class,
+                () -> new PdiSchedule(PdiSchedule.MODE_ADAPTIVE, 0, null, PdiSchedule.MISFIRE_ONCE, 1, 2, 50, 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> new PdiSchedule(PdiSchedule.MODE_ADAPTIVE, 1000, null, PdiSchedule.MISFIRE_ONCE, 1, 2, 0, 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> new PdiSchedule(PdiSchedule.MODE_CRON, 0, null, PdiSchedule.MISFIRE_ONCE));
+        assertThrows(IllegalArgumentException.class,
+                () -> new PdiSchedule("hourly", 1000, null, PdiSchedule.MISFIRE_ONCE));
+        assertThrows(IllegalArgumentException.class,
+                () -> new PdiSchedule(PdiSchedule.MODE_RATE, 1000, null, "later"));
+    }
+}
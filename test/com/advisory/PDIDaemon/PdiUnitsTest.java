@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Parsing of intervals and sizes
+ */
+public class PdiUnitsTest {
+    @Test
+    void parsesPlainNumbersInFactorUnits() {
+        assertEquals(Duration.ofSeconds(90), PdiUnits.parseDuration("90", 1000));
+        assertEquals(5L * 1024 * 1024, PdiUnits.parseBytes("5", 1024 * 1024));
+    }
+
+    @Test
+    void parsesIsoDurationsWithMilliSeconds() {
+        assertEquals(Duration.ofMillis(250), PdiUnits.parseDuration("PT250MS", 1000));
+        assertEquals(Duration.ofMillis(1250), PdiUnits.parseDuration("pt1s250ms", 1000));
+        assertEquals(Duration.ofDays(1).plusMillis(5), PdiUnits.parseDuration("P1DT5MS", 1000));
+        assertEquals(Duration.ofMinutes(90), PdiUnits.parseDuration("PT1H30M", 1000));
+        assertEquals(Duration.ofDays(30), PdiUnits.parseDuration("P30D", 1000));
+    }
+
+    @Test
+    void rejectsInvalidDurations() {
+        assertThrows(IllegalArgumentException.class, () -> PdiUnits.parseDuration("soon", 1000));
+        assertThrows(IllegalArgumentException.class, () -> PdiUnits.parseDuration("PT-5S", 1000));
+        assertThrows(IllegalArgumentException.class, () -> PdiUnits.parseDuration("9223372036854775807", 1000));
+        assertThrows(IllegalArgumentException.class, () -> PdiUnits.parseDuration("PT9223372036854775807S", 1000));
+    }
+
+    @Test
+    void parsesSizesWithUnits() {
+        assertEquals(512L << 10, PdiUnits.parseBytes("512KiB", 1));
+        assertEquals(3L << 29, PdiUnits.parseBytes("1.5GiB", 1));
+        assertEquals(4L << 30, PdiUnits.parseBytes("4gb", 1));
+        assertEquals(1L << 40, PdiUnits.parseBytes("1T", 1));
+        assertEquals(100, PdiUnits.parseBytes("100B", 1024));
+    }
+
+    @Test
+    void rejectsInvalidSizes() {
+        assertThrows(IllegalArgumentException.class, () -> PdiUnits.parseBytes("big", 1));
+        assertThrows(IllegalArgumentException.class, () -> PdiUnits.parseBytes("-1KiB", 1));
+        assertThrows(IllegalArgumentException.class, () -> PdiUnits.parseBytes("9999999TiB", 1));
+        assertThrows(IllegalArgumentException.class, () -> PdiUnits.parseBytes("9223372036854775807", 1024));
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2015 The Advisory Board Company. All rights reserved.
+ * This file is part of the Crimson Care Management platform.
+ */
+
+package com.advisory.PDIDaemon;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Worker protocol against scripts/pdi-stub-worker.sh
+ */
+public class PdiWorkerTest {
+    /**
+     * command starting the stub worker
+     */
+    private static final String STUB = "sh " + new File("scripts/pdi-stub-worker.sh").getAbsolutePath();
+
+    @TempDir
+    File folder;
+
+    private PdiLogWriter logWriter;
+
+    private File log;
+
+    @BeforeEach
+    void setUp() {
+        this.logWriter = new PdiLogWriter(new File(this.folder, PdiDaemon.DAEMON_LOG_NAME).getPath());
+        this.log = new File(this.folder, "command.log");
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.logWriter.close();
+    }
+
+    @Test
+    void copiesOutputWithAndWithoutTrailingLineFeed() throws IOException {
+        PdiWorker worker = new PdiWorker(STUB, this.folder.getPath(), this.logWriter);
+        try {
+            assertEquals(0, this.execute(worker, 1, "printf foo"));
+            assertEquals(0, this.execute(worker, 2, "printf 'a\\nb\\n'"));
+            assertEquals(0, this.execute(worker, 3, "true"));
+            assertEquals(0, this.execute(worker, 4, "printf '\\n\\n'"));
+            assertEquals("fooa\nb\n\n\n", this.read());
+        } finally {
+            worker.stop();
+        }
+    }
+
+    @Test
+    void reportsExitCodeAndKeepsTheWorker() throws IOException {
+        PdiWorker worker = new PdiWorker(STUB, this.folder.getPath(), this.logWriter);
+        try {
+            assertEquals(3, this.execute(worker, 1, "printf 'fooDONE 1 0'; exit 3"));
+            long pid = worker.getPid();
+            assertEquals(0, this.execute(worker, 2, "true"));
+            assertEquals(pid, worker.getPid());
+            assertEquals("fooDONE 1 0", this.read());
+        } finally {
+            worker.stop();
+        }
+    }
+
+    @Test
+    void recyclesWorkerOnMalformedAnswer() throws IOException {
+        // exec so retiring the worker kills the sleep and no process is left holding the pipe
+        String worker = "read -r verb id cmd; printf '\\nDONE %s oops\\n' \"$id\"; exec sleep 60";
+        PdiWorker malformed = new PdiWorker(worker, this.folder.getPath(), this.logWriter);
+        try {
+            assertEquals(-1, this.execute(malformed, 1, "true"));
+            assertEquals(-1, malformed.getPid());
+        } finally {
+            malformed.stop();
+        }
+    }
+
+    @Test
+    void reportsWorkerExitDuringRun() throws IOException {
+        PdiWorker worker = new PdiWorker("read -r line; printf partial", this.folder.getPath(), this.logWriter);
+        assertEquals(-1, this.execute(worker, 1, "true"));
+        assertEquals(-1, worker.getPid());
+        assertEquals("partial", this.read());
+    }
+
+    @Test
+    void stopDuringRunRetiresWorkerWithoutWaiting() throws Exception {
+        PdiWorker worker = new PdiWorker(STUB, this.folder.getPath(), this.logWriter);
+        CompletableFuture<Integer> run = CompletableFuture.supplyAsync(() -> {
+            try {
+                return this.execute(worker, 1, "sleep 1");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        while (worker.getPid() < 0) {
+            Thread.sleep(10);
+        }
+        long start = System.nanoTime();
+        worker.stop();
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(0, run.get(10, TimeUnit.SECONDS));
+        assertEquals(-1, worker.getPid());
+    }
+
+    /**
+     * @param worker  worker running the command
+     * @param runId   id of the run
+     * @param command command sent to the worker
+     * @return exit code of the run
+     * @throws IOException if the log cannot be written
+     */
+    private int execute(PdiWorker worker, long runId, String command) throws IOException {
+        try (PdiRotatingSink sink = new PdiRotatingSink(this.log.getPath(), Long.MAX_VALUE, null, this.logWriter, null)) {
+            return worker.execute(runId, command, sink);
+        }
+    }
+
+    /**
+     * @return content of the command log
+     * @throws IOException if the log cannot be read
+     */
+    private String read() throws IOException {
+        return new String(Files.readAllBytes(this.log.toPath()), StandardCharsets.UTF_8);
+    }
+}